@@ -1,5 +1,8 @@
 package com.owl.config;
 
+import com.owl.service.PromptCacheUsageAdvisor;
+import com.owl.service.PromptLayout;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ai.chat.client.ChatClient;
@@ -7,12 +10,14 @@ import org.springframework.ai.chat.client.ChatClient;
 /**
  * Build a ChatClient from the auto-configured ChatClient.Builder.
  * Spring AI wires the underlying ChatModel (e.g., Ollama) from application.yml.
+ * When a {@link PromptLayout} is present, every call reports provider prefix-cache usage to it.
  */
 @Configuration
 public class AiConfig {
 
     @Bean
-    public ChatClient chatClient(ChatClient.Builder builder) {
+    public ChatClient chatClient(ChatClient.Builder builder, ObjectProvider<PromptLayout> promptLayout) {
+        promptLayout.ifAvailable(layout -> builder.defaultAdvisors(new PromptCacheUsageAdvisor(layout)));
         return builder.build();
     }
-}
\ No newline at end of file
+}
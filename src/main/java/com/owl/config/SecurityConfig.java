@@ -1,5 +1,6 @@
 package com.owl.config;
 
+import com.owl.security.AdmissionControlFilter;
 import com.owl.security.RateLimitFilter;
 import com.owl.security.ApiKeyAuthFilter;
 import com.owl.security.AdminAuthenticationProvider;
@@ -11,6 +12,7 @@ import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.config.Customizer;
@@ -28,11 +30,14 @@ public class SecurityConfig {
     }
 
     @Bean
-    SecurityFilterChain filterChain(HttpSecurity http, RateLimitFilter rateLimitFilter, ApiKeyAuthFilter apiKeyFilter, AdminAuthenticationProvider adminAuthProvider) throws Exception {
+    SecurityFilterChain filterChain(HttpSecurity http, AdmissionControlFilter admissionFilter, RateLimitFilter rateLimitFilter, ApiKeyAuthFilter apiKeyFilter, AdminAuthenticationProvider adminAuthProvider) throws Exception {
         http.csrf(csrf -> csrf.disable());
 
         http.addFilterBefore(rateLimitFilter, UsernamePasswordAuthenticationFilter.class)
-            .addFilterBefore(apiKeyFilter, UsernamePasswordAuthenticationFilter.class);
+            .addFilterBefore(apiKeyFilter, UsernamePasswordAuthenticationFilter.class)
+            // Load shedding right after authentication (still before any body is read): the shed tier
+            // follows the token's tenant, not one the client names.
+            .addFilterAfter(admissionFilter, BearerTokenAuthenticationFilter.class);
 
         // Configure authentication providers
         http.authenticationProvider(adminAuthProvider);
@@ -48,7 +53,7 @@ public class SecurityConfig {
                 .requestMatchers("/api/v2/admin/**").hasAnyAuthority("SCOPE_admin:read","SCOPE_admin:write","SCOPE_admin")
                 .requestMatchers("/api/v1/ingest/**").hasAnyAuthority("SCOPE_ingest:write","SCOPE_admin:write","SCOPE_admin")
                 .requestMatchers("/api/v2/connectors/**").hasAnyAuthority("SCOPE_ingest:write","SCOPE_admin:write","SCOPE_admin")
-                .requestMatchers("/api/v1/chat").permitAll()
+                .requestMatchers("/api/v1/chat", "/api/v1/chat/sessions").permitAll()
                 .requestMatchers("/api/**").access((authentication, context) ->
                         securityEnabled ? new AuthorizationDecision(authentication.get().isAuthenticated())
                                 : new AuthorizationDecision(true)) // permit if disabled
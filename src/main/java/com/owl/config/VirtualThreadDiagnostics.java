@@ -0,0 +1,74 @@
+package com.owl.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Pinning diagnostics for virtual-thread mode (spring.threads.virtual.enabled=true, Java 21+).
+ * Streams the JFR jdk.VirtualThreadPinned event in-process: a virtual thread that blocks while pinned
+ * to its carrier (synchronized block, native frame) holds a platform thread and caps concurrency again.
+ *
+ * Metrics: jvm.threads.virtual.pinned{frame} times pinned episodes longer than the threshold, tagged with
+ * the top application frame so offenders show up on actuator. Pair with -Djdk.tracePinnedThreads=short
+ * for stack traces on stdout.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadDiagnostics {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadDiagnostics.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final MeterRegistry metrics;
+    private final Duration threshold;
+    private RecordingStream stream;
+
+    public VirtualThreadDiagnostics(MeterRegistry metrics,
+                                    @Value("${owl.threads.pinned-threshold-ms:20}") long thresholdMs) {
+        this.metrics = metrics;
+        this.threshold = Duration.ofMillis(thresholdMs);
+    }
+
+    @PostConstruct
+    void start() {
+        if (Runtime.version().feature() < 21) {
+            log.warn("spring.threads.virtual.enabled is set but the JVM is {}; virtual threads need Java 21+", Runtime.version());
+            return;
+        }
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, e -> {
+                String frame = topAppFrame(e.getStackTrace() == null ? null : e.getStackTrace().getFrames());
+                metrics.timer("jvm.threads.virtual.pinned", "frame", frame).record(e.getDuration());
+                log.debug("Virtual thread pinned for {} ms at {}", e.getDuration().toMillis(), frame);
+            });
+            stream.startAsync();
+        } catch (Exception e) {
+            log.warn("Pinned-thread diagnostics unavailable: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (stream != null) stream.close();
+    }
+
+    private static String topAppFrame(java.util.List<RecordedFrame> frames) {
+        if (frames == null) return "unknown";
+        for (RecordedFrame f : frames) {
+            String type = f.getMethod().getType().getName();
+            if (type.startsWith("com.owl.")) return type.substring(type.lastIndexOf('.') + 1) + "." + f.getMethod().getName();
+        }
+        return frames.isEmpty() ? "unknown" : frames.get(0).getMethod().getType().getName();
+    }
+}
@@ -1,15 +1,23 @@
 package com.owl.config;
 
+import com.owl.service.RequestDeadline;
 import com.owl.service.TenantRegionContext;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
+    @Value("${owl.chat.deadline-ms:30000}")
+    private long defaultDeadlineMs;
+    @Value("${owl.chat.max-deadline-ms:120000}")
+    private long maxDeadlineMs;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new HandlerInterceptor() {
@@ -25,6 +33,36 @@ public class WebConfig implements WebMvcConfigurer {
                 TenantRegionContext.clear();
             }
         });
+        // Request deadline for chat answers: owl.chat.deadline-ms (0 disables), or X-Request-Timeout-Ms clamped to
+        // [1, max-deadline-ms]; a client can shorten or extend the deadline but not remove it. /stream bounds the
+        // time to the first token and /batch gives each question its own deadline.
+        registry.addInterceptor(new AsyncHandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                long ms = defaultDeadlineMs;
+                String header = request.getHeader("X-Request-Timeout-Ms");
+                if (header != null) {
+                    try {
+                        long requested = Long.parseLong(header.trim());
+                        if (requested > 0) ms = maxDeadlineMs > 0 ? Math.min(requested, maxDeadlineMs) : requested;
+                    } catch (NumberFormatException ignored) {}
+                }
+                if (ms > 0) RequestDeadline.startIn(java.time.Duration.ofMillis(ms));
+                else RequestDeadline.clear();
+                return true;
+            }
+
+            @Override
+            public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                RequestDeadline.clear();
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                RequestDeadline.clear();
+            }
+        }).addPathPatterns("/api/chat", "/api/v1/chat", "/api/chat/reactive", "/api/v1/chat/reactive",
+                "/api/chat/stream", "/api/v1/chat/stream", "/api/chat/batch", "/api/v1/chat/batch");
     }
 }
 
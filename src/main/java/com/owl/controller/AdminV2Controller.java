@@ -20,10 +20,13 @@ public class AdminV2Controller {
     private final TenantAuth auth;
     private final EvalService eval;
     private final ModelCredentialsService credentials;
+    private final TenantSettingsService settings;
 
     public AdminV2Controller(PlanService plans, QuotaService quotas, ConnectorService connectors,
-                             ModelRoutingService routing, TenantAuth auth, EvalService eval, ModelCredentialsService credentials) {
+                             ModelRoutingService routing, TenantAuth auth, EvalService eval, ModelCredentialsService credentials,
+                             TenantSettingsService settings) {
         this.plans = plans; this.quotas = quotas; this.connectors = connectors; this.routing = routing; this.auth = auth; this.eval = eval; this.credentials = credentials;
+        this.settings = settings;
     }
 
     @GetMapping("/plans")
@@ -72,6 +75,22 @@ public class AdminV2Controller {
         return ResponseEntity.ok(Map.of("status","ok"));
     }
 
+    public record SetSynonyms(String tenantId, Map<String,String> synonyms) {}
+    @PostMapping("/synonyms")
+    public ResponseEntity<Map<String,Object>> synonyms(@RequestBody SetSynonyms req) {
+        auth.authorize(req.tenantId());
+        settings.setSynonyms(req.tenantId(), req.synonyms());
+        return ResponseEntity.ok(Map.of("status","ok"));
+    }
+
+    public record SetChatMode(String tenantId, String mode) {}
+    @PostMapping("/chat-mode")
+    public ResponseEntity<Map<String,Object>> chatMode(@RequestBody SetChatMode req) {
+        auth.authorize(req.tenantId());
+        settings.setChatMode(req.tenantId(), req.mode() == null || req.mode().isBlank() ? null : req.mode().strip());
+        return ResponseEntity.ok(Map.of("status","ok"));
+    }
+
     public record Golden(String question, String mustContain) {}
     public record EvalReq(String tenantId, List<Golden> tests) {}
     @PostMapping("/eval")
@@ -0,0 +1,30 @@
+package com.owl.controller;
+
+import com.owl.model.BatchChatRequest;
+import com.owl.model.BatchChatResult;
+import com.owl.security.TenantAuth;
+import com.owl.service.BatchChatService;
+import jakarta.validation.Valid;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+
+@RestController
+@RequestMapping({"/api/chat", "/api/v1/chat"})
+public class BatchChatController {
+
+    private final BatchChatService batch;
+    private final TenantAuth tenantAuth;
+
+    public BatchChatController(BatchChatService batch, TenantAuth tenantAuth) {
+        this.batch = batch;
+        this.tenantAuth = tenantAuth;
+    }
+
+    /** NDJSON: one {index, question, response | error} line per input question, in completion order. */
+    @PostMapping(path = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchChatResult> batch(@Valid @RequestBody BatchChatRequest request) {
+        tenantAuth.authorize(request.tenantId());
+        return batch.answer(request);
+    }
+}
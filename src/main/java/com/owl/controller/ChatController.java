@@ -2,11 +2,23 @@ package com.owl.controller;
 
 import com.owl.model.ChatRequest;
 import com.owl.model.ChatResponse;
+import com.owl.model.ChatStreamEvent;
+import com.owl.service.AdmissionController;
 import com.owl.service.ChatService;
+import com.owl.service.ConversationService;
 import com.owl.security.TenantAuth;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping({"/api/chat", "/api/v1/chat"})
@@ -14,15 +26,81 @@ public class ChatController {
 
     private final ChatService chatService;
     private final TenantAuth tenantAuth;
+    private AdmissionController admission; // null -> every request gets the full pipeline
+    private ConversationService conversations; // null -> sessions cannot be opened; every request is stateless
 
     public ChatController(ChatService chatService, TenantAuth tenantAuth) {
         this.chatService = chatService;
         this.tenantAuth = tenantAuth;
     }
 
+    @Autowired(required = false)
+    public void setAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    @Autowired(required = false)
+    public void setConversations(ConversationService conversations) {
+        this.conversations = conversations;
+    }
+
+    public record StartSession(@NotBlank String tenantId) {}
+
+    /** Opens a conversation owned by the caller; later ChatRequests pass the returned sessionId. */
+    @PostMapping("/sessions")
+    public ResponseEntity<Map<String, String>> startSession(@Valid @RequestBody StartSession request) {
+        tenantAuth.authorize(request.tenantId());
+        if (conversations == null || !conversations.isEnabled()) throw new IllegalStateException("Conversation sessions are disabled");
+        return ResponseEntity.ok(Map.of("sessionId", conversations.start(request.tenantId(), tenantAuth.principal())));
+    }
+
+    /** ?debug=true adds the per-stage latency timeline to the response for admin callers. */
     @PostMapping
-    public ResponseEntity<ChatResponse> chat(@Valid @RequestBody ChatRequest request) {
+    public ResponseEntity<ChatResponse> chat(@Valid @RequestBody ChatRequest request,
+                                             @RequestParam(name = "debug", defaultValue = "false") boolean debug) {
+        authorize(request);
+        return ResponseEntity.ok(debugFor(admitted(request.tenantId(), () -> chatService.answer(request)), debug));
+    }
+
+    /** Same contract as POST /chat, served by the non-blocking pipeline; the request thread is released while waiting. */
+    @PostMapping("/reactive")
+    public Mono<ChatResponse> chatReactive(@Valid @RequestBody ChatRequest request,
+                                           @RequestParam(name = "debug", defaultValue = "false") boolean debug) {
+        authorize(request);
+        boolean showDebug = debug && tenantAuth.isAdmin();
+        return admitted(request.tenantId(), () -> chatService.answerAsync(request)).map(r -> showDebug ? r : r.withDebug(null));
+    }
+
+    /** Server-Sent Events: "token" frames as the model generates, then one final "sources" frame. */
+    @PostMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatStreamEvent>> stream(@Valid @RequestBody ChatRequest request) {
+        authorize(request);
+        return admitted(request.tenantId(), () -> chatService.stream(request))
+                .map(e -> ServerSentEvent.builder(e).event(e.type()).build());
+    }
+
+    /** The caller may act for the tenant and, for a session turn, owns a session the tenant issued (else 404). */
+    private void authorize(ChatRequest request) {
         tenantAuth.authorize(request.tenantId());
-        return ResponseEntity.ok(chatService.answer(request));
+        if (request.sessionId() != null && conversations != null) {
+            conversations.authorize(request.tenantId(), request.sessionId(), tenantAuth.principal());
+        }
+    }
+
+    /**
+     * Admission at the current queueing delay: past owl.admission.target-ms the call runs cache-only (a
+     * cache miss is shed with 429/503); past reject-ms it is shed here, as AdmissionControlFilter would.
+     */
+    private <T> T admitted(String tenantId, Supplier<T> call) {
+        if (admission == null) return call.get();
+        var level = admission.level();
+        if (level == AdmissionController.Level.REJECT) throw admission.shed(tenantId, level);
+        var cacheOnly = level == AdmissionController.Level.CACHE_ONLY ? admission.cacheOnly(tenantId) : null;
+        return AdmissionController.callWith(cacheOnly, call);
+    }
+
+    private ChatResponse debugFor(ChatResponse r, boolean requested) {
+        if (r == null) return null;
+        return requested && tenantAuth.isAdmin() ? r : r.withDebug(null);
     }
 }
@@ -0,0 +1,13 @@
+package com.owl.exception;
+
+/** The request's deadline (X-Request-Timeout-Ms / owl.chat.deadline-ms) ran out before stage finished. */
+public class DeadlineExceededException extends RuntimeException {
+    private final String stage;
+
+    public DeadlineExceededException(String stage) {
+        super("Request deadline exceeded during " + stage);
+        this.stage = stage;
+    }
+
+    public String getStage() { return stage; }
+}
@@ -90,6 +90,20 @@ public class GlobalExceptionHandler {
                 .body(body(req, HttpStatus.FORBIDDEN, "Forbidden", ex.getMessage(), null));
     }
 
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleDeadline(DeadlineExceededException ex, HttpServletRequest req) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(body(req, HttpStatus.GATEWAY_TIMEOUT, "Gateway Timeout", ex.getMessage(), Map.of("stage", ex.getStage())));
+    }
+
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<Map<String, Object>> handleOverloaded(OverloadedException ex, HttpServletRequest req) {
+        HttpStatus status = ex.isTooManyRequests() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status)
+                .header("Retry-After", String.valueOf(ex.getRetryAfterSeconds()))
+                .body(body(req, status, status.getReasonPhrase(), ex.getMessage(), null));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleGeneric(Exception ex, HttpServletRequest req) {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,20 @@
+package com.owl.exception;
+
+/** Work shed because a capacity limit was hit; mapped to 503 (or 429 when tooManyRequests) with Retry-After. */
+public class OverloadedException extends RuntimeException {
+    private final long retryAfterSeconds;
+    private final boolean tooManyRequests;
+
+    public OverloadedException(String message, long retryAfterSeconds) {
+        this(message, retryAfterSeconds, false);
+    }
+
+    public OverloadedException(String message, long retryAfterSeconds, boolean tooManyRequests) {
+        super(message);
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.tooManyRequests = tooManyRequests;
+    }
+
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    public boolean isTooManyRequests() { return tooManyRequests; }
+}
@@ -0,0 +1,21 @@
+package com.owl.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/** Bulk question answering for one tenant; every question is answered like a {@link ChatRequest}. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record BatchChatRequest(@NotBlank String tenantId,
+                               @NotEmpty @Size(max = 5000) List<@NotBlank String> questions,
+                               boolean allowWeb,
+                               String document,
+                               @Pattern(regexp = "fast|balanced|thorough") String mode) {
+    public BatchChatRequest(String tenantId, List<String> questions, boolean allowWeb, String document) {
+        this(tenantId, questions, allowWeb, document, null);
+    }
+}
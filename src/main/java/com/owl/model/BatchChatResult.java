@@ -0,0 +1,10 @@
+package com.owl.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One NDJSON line of a batch: the answer for questions[index], or the error that question hit.
+ * Duplicate questions in a batch share one answer (and one chatId).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchChatResult(int index, String question, ChatResponse response, String error) { }
@@ -18,6 +18,9 @@ public class ChatRecord {
     @Indexed
     private String tenantId;
 
+    @Indexed
+    private String sessionId; // conversation the turn belongs to (ChatRequest.sessionId), null when stateless
+
     private String question;
     private String answer;
     private boolean cacheHit;
@@ -39,6 +42,7 @@ public class ChatRecord {
 
     public String getId() { return id; }
     public String getTenantId() { return tenantId; }
+    public String getSessionId() { return sessionId; }
     public String getQuestion() { return question; }
     public String getAnswer() { return answer; }
     public boolean isCacheHit() { return cacheHit; }
@@ -49,6 +53,7 @@ public class ChatRecord {
 
     public void setId(String id) { this.id = id; }
     public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
     public void setQuestion(String question) { this.question = question; }
     public void setAnswer(String answer) { this.answer = answer; }
     public void setCacheHit(boolean cacheHit) { this.cacheHit = cacheHit; }
@@ -2,12 +2,28 @@ package com.owl.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 
+/**
+ * mode: fast|balanced|thorough quality/latency trade-off; null = the tenant's default (see ChatModeProfiles).
+ * sessionId: conversation id issued by POST /chat/sessions; turns with the same id share server-side history
+ * (see ConversationService); null = stateless.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record ChatRequest(@NotBlank String tenantId,
                           @NotBlank String question,
                           boolean allowWeb,
                           String document,
-                          FallbackPolicy fallback) {
+                          FallbackPolicy fallback,
+                          @Pattern(regexp = "fast|balanced|thorough") String mode,
+                          @Pattern(regexp = "[A-Za-z0-9._:-]{1,128}") String sessionId) {
+    public ChatRequest(String tenantId, String question, boolean allowWeb, String document, FallbackPolicy fallback) {
+        this(tenantId, question, allowWeb, document, fallback, null, null);
+    }
+
+    public ChatRequest(String tenantId, String question, boolean allowWeb, String document, FallbackPolicy fallback, String mode) {
+        this(tenantId, question, allowWeb, document, fallback, mode, null);
+    }
+
     public record FallbackPolicy(Boolean enabled, Double budgetUsd, Integer maxWebCalls) {}
 }
@@ -1,6 +1,26 @@
 package com.owl.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
-/** Canonical chat response DTO for the API. */
-public record ChatResponse(String answer, List<String> sources, String chatId, String safety) { }
+/**
+ * Canonical chat response DTO for the API.
+ * {@code debug} carries the per-stage latency timeline; only returned to admin callers asking for it.
+ */
+public record ChatResponse(String answer, List<String> sources, String chatId, String safety,
+                           @JsonInclude(JsonInclude.Include.NON_NULL) Debug debug) {
+
+    public ChatResponse(String answer, List<String> sources, String chatId, String safety) {
+        this(answer, sources, chatId, safety, null);
+    }
+
+    public ChatResponse withDebug(Debug debug) {
+        return new ChatResponse(answer, sources, chatId, safety, debug);
+    }
+
+    /** Stages in start order; startMs is the offset from request start. Concurrent stages overlap. */
+    public record Debug(double totalMs, List<Stage> stages) {}
+
+    public record Stage(String name, double startMs, double durationMs) {}
+}
@@ -0,0 +1,38 @@
+package com.owl.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A conversation session opened by POST /chat/sessions, stored in the per-tenant database (collection:
+ * chat_sessions). The id is server-issued and unguessable; owner is the principal that opened it, or null
+ * when it was opened without one.
+ */
+@Document(collection = "chat_sessions")
+public class ChatSession {
+    @Id
+    private String id;
+    private String tenantId;
+    private String owner;
+    private OffsetDateTime createdAt = OffsetDateTime.now();
+
+    public ChatSession() {}
+
+    public ChatSession(String id, String tenantId, String owner) {
+        this.id = id;
+        this.tenantId = tenantId;
+        this.owner = owner;
+    }
+
+    public String getId() { return id; }
+    public String getTenantId() { return tenantId; }
+    public String getOwner() { return owner; }
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+
+    public void setId(String id) { this.id = id; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+    public void setOwner(String owner) { this.owner = owner; }
+    public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,23 @@
+package com.owl.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One Server-Sent Event frame of a streamed chat answer.
+ * - type=token: {@code text} carries the next chunk of model output.
+ * - type=sources: final frame; carries sources, chatId and safety. {@code text} holds the
+ *   persisted answer only when it differs from the streamed tokens (e.g., a post-safety refusal).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChatStreamEvent(String type, String text, List<String> sources, String chatId, String safety) {
+
+    public static ChatStreamEvent token(String text) {
+        return new ChatStreamEvent("token", text, null, null, null);
+    }
+
+    public static ChatStreamEvent sources(ChatResponse r, String replacedText) {
+        return new ChatStreamEvent("sources", replacedText, r.sources(), r.chatId(), r.safety());
+    }
+}
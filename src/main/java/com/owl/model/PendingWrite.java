@@ -0,0 +1,86 @@
+package com.owl.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A post-answer side effect (history, caches, chat event) queued for write-behind.
+ * Persisted in the core DB (collection: pending_writes) only after a failed attempt, for durable retry.
+ */
+@Document(collection = "pending_writes")
+public class PendingWrite {
+    public enum Kind { HISTORY, SEMANTIC_CACHE, PROMPT_CACHE, CHAT_EVENT }
+
+    @Id
+    private String id;
+    private Kind kind;
+    private String tenantId;
+    private String region;   // X-Data-Region override of the originating request, if any
+    private String chatId;   // HISTORY: pre-generated ObjectId returned to the client
+    private String sessionId; // HISTORY: conversation session, if any
+    private String modelId;  // PROMPT_CACHE
+    private String question;
+    private String answer;
+    private boolean encrypted; // answer is tenant-key ciphertext while persisted for retry
+    private String iv;         // base64 IV when encrypted
+    private boolean cacheHit;
+    private List<String> sources;
+    private List<Map<String, Object>> sourceVersions; // caches: KB versions the answer was grounded on
+    private int attempts;
+    private boolean dead;    // gave up after max attempts; kept for inspection
+    @Indexed
+    private long nextAttemptAt;
+    private long createdAt = System.currentTimeMillis();
+
+    public PendingWrite() {}
+
+    public PendingWrite(Kind kind, String tenantId, String region, String question, String answer) {
+        this.kind = kind;
+        this.tenantId = tenantId;
+        this.region = region;
+        this.question = question;
+        this.answer = answer;
+    }
+
+    public String getId() { return id; }
+    public Kind getKind() { return kind; }
+    public String getTenantId() { return tenantId; }
+    public String getRegion() { return region; }
+    public String getChatId() { return chatId; }
+    public String getSessionId() { return sessionId; }
+    public String getModelId() { return modelId; }
+    public String getQuestion() { return question; }
+    public String getAnswer() { return answer; }
+    public boolean isEncrypted() { return encrypted; }
+    public String getIv() { return iv; }
+    public boolean isCacheHit() { return cacheHit; }
+    public List<String> getSources() { return sources; }
+    public List<Map<String, Object>> getSourceVersions() { return sourceVersions; }
+    public int getAttempts() { return attempts; }
+    public boolean isDead() { return dead; }
+    public long getNextAttemptAt() { return nextAttemptAt; }
+    public long getCreatedAt() { return createdAt; }
+
+    public void setId(String id) { this.id = id; }
+    public void setKind(Kind kind) { this.kind = kind; }
+    public void setTenantId(String tenantId) { this.tenantId = tenantId; }
+    public void setRegion(String region) { this.region = region; }
+    public void setChatId(String chatId) { this.chatId = chatId; }
+    public void setSessionId(String sessionId) { this.sessionId = sessionId; }
+    public void setModelId(String modelId) { this.modelId = modelId; }
+    public void setQuestion(String question) { this.question = question; }
+    public void setAnswer(String answer) { this.answer = answer; }
+    public void setEncrypted(boolean encrypted) { this.encrypted = encrypted; }
+    public void setIv(String iv) { this.iv = iv; }
+    public void setCacheHit(boolean cacheHit) { this.cacheHit = cacheHit; }
+    public void setSources(List<String> sources) { this.sources = sources; }
+    public void setSourceVersions(List<Map<String, Object>> sourceVersions) { this.sourceVersions = sourceVersions; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public void setDead(boolean dead) { this.dead = dead; }
+    public void setNextAttemptAt(long nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+}
@@ -4,6 +4,8 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.Map;
+
 @Document(collection = "tenant_settings")
 public class TenantSettings {
     @Id
@@ -14,6 +16,8 @@ public class TenantSettings {
     private boolean guardrailsEnabled;
     private String region; // e.g., us-east-1, eu-west-1
     private String plan;   // free|pro|enterprise
+    private String chatMode; // fast|balanced|thorough: default for chat requests without a mode
+    private Map<String, String> synonyms; // term -> canonical term, for query canonicalization (cache keys)
 
     public TenantSettings() {}
     public TenantSettings(String tenantId) { this.tenantId = tenantId; }
@@ -24,9 +28,13 @@ public class TenantSettings {
     public boolean isGuardrailsEnabled() { return guardrailsEnabled; }
     public String getRegion() { return region; }
     public String getPlan() { return plan; }
+    public String getChatMode() { return chatMode; }
+    public Map<String, String> getSynonyms() { return synonyms; }
     public void setTenantId(String tenantId) { this.tenantId = tenantId; }
     public void setFallbackEnabled(boolean fallbackEnabled) { this.fallbackEnabled = fallbackEnabled; }
     public void setGuardrailsEnabled(boolean guardrailsEnabled) { this.guardrailsEnabled = guardrailsEnabled; }
     public void setRegion(String region) { this.region = region; }
     public void setPlan(String plan) { this.plan = plan; }
+    public void setChatMode(String chatMode) { this.chatMode = chatMode; }
+    public void setSynonyms(Map<String, String> synonyms) { this.synonyms = synonyms; }
 }
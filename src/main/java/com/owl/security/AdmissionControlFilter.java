@@ -0,0 +1,136 @@
+package com.owl.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owl.exception.OverloadedException;
+import com.owl.service.AdmissionController;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Door-level shedding for chat endpoints (see {@link AdmissionController}): records the gateway queue
+ * time from X-Request-Start ("t=" + epoch seconds.millis, millis or micros, as nginx/Kong set it) and,
+ * once the standing queue delay passes owl.admission.reject-ms, rejects chat before the body is read.
+ * Batch chat has no cache-only mode and is shed from the cache-only level on.
+ *
+ * The header is client-settable, so it only counts with owl.admission.trust-request-start on and when the
+ * request comes straight from one of owl.admission.trusted-proxies (addresses or CIDR ranges); otherwise
+ * any caller could push every tenant into cache-only or rejection with an old stamp. For the same reason
+ * the tenant (which picks 429 vs 503) comes only from the authenticated token, never from a request
+ * parameter or header, so the filter is registered after authentication.
+ */
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final AdmissionController admission;
+    private final TenantAuth tenantAuth;
+    private final ObjectMapper objectMapper;
+    private final boolean trustRequestStart;
+    private final List<IpAddressMatcher> trustedProxies = new ArrayList<>();
+
+    public AdmissionControlFilter(AdmissionController admission, TenantAuth tenantAuth, ObjectMapper objectMapper,
+                                  @Value("${owl.admission.trust-request-start:false}") boolean trustRequestStart,
+                                  @Value("${owl.admission.trusted-proxies:}") String trustedProxies) {
+        this.admission = admission;
+        this.tenantAuth = tenantAuth;
+        this.objectMapper = objectMapper;
+        this.trustRequestStart = trustRequestStart;
+        if (trustedProxies != null) {
+            for (String p : trustedProxies.split(",")) {
+                if (!p.isBlank()) this.trustedProxies.add(new IpAddressMatcher(p.trim()));
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        if (!"POST".equals(request.getMethod()) || !admission.isEnabled()) return true;
+        return !(path.startsWith("/api/chat") || path.startsWith("/api/v1/chat"))
+                || path.startsWith("/api/chat/start") || path.contains("/accept") || path.contains("/transfer")
+                || path.endsWith("/sessions");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String tenant = tenantAuth.tenantFromAuth();
+
+        Long queuedNanos = fromTrustedProxy(request) ? queueTime(request.getHeader("X-Request-Start")) : null;
+        if (queuedNanos != null) admission.recordQueueTime(tenant, queuedNanos);
+
+        AdmissionController.Level level = admission.level();
+        boolean batch = request.getRequestURI().endsWith("/batch");
+        if (level == AdmissionController.Level.REJECT || (batch && level == AdmissionController.Level.CACHE_ONLY)) {
+            OverloadedException shed = admission.shed(tenant, level);
+            HttpStatus status = shed.isTooManyRequests() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            response.setStatus(status.value());
+            response.setHeader("Retry-After", String.valueOf(shed.getRetryAfterSeconds()));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getWriter(), body(request, status, shed.getMessage()));
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /** Same shape as GlobalExceptionHandler's error bodies. */
+    private static Map<String, Object> body(HttpServletRequest request, HttpStatus status, String message) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("timestamp", OffsetDateTime.now().toString());
+        m.put("status", status.value());
+        m.put("error", status.getReasonPhrase());
+        m.put("message", message);
+        m.put("path", request.getRequestURI());
+        return m;
+    }
+
+    /** X-Request-Start is only believed when enabled and set by a listed proxy (the direct peer). */
+    boolean fromTrustedProxy(HttpServletRequest request) {
+        if (!trustRequestStart) return false;
+        String peer = request.getRemoteAddr();
+        if (peer == null) return false;
+        for (IpAddressMatcher m : trustedProxies) {
+            try {
+                if (m.matches(peer)) return true;
+            } catch (IllegalArgumentException ignored) {} // peer is not an IP literal
+        }
+        return false;
+    }
+
+    /** Time since the gateway stamped the request, or null when the header is absent or unparseable. */
+    static Long queueTime(String header) {
+        if (header == null || header.isBlank()) return null;
+        String v = header.trim();
+        if (v.startsWith("t=")) v = v.substring(2);
+        long epochMicros;
+        try {
+            if (v.contains(".")) {
+                epochMicros = (long) (Double.parseDouble(v) * 1_000_000);
+            } else {
+                long n = Long.parseLong(v);
+                epochMicros = v.length() >= 16 ? n : v.length() >= 13 ? n * 1_000 : n * 1_000_000;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long nowMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long queued = nowMicros - epochMicros;
+        // Clock skew between gateway and app: ignore negative or implausibly old stamps.
+        return queued < 0 || queued > TimeUnit.MINUTES.toMicros(5) ? null : TimeUnit.MICROSECONDS.toNanos(queued);
+    }
+}
@@ -24,6 +24,21 @@ public class TenantAuth {
         return null;
     }
 
+    /** Name of the authenticated caller (JWT subject, API token), or null when anonymous. */
+    public String principal() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !auth.isAuthenticated() || "anonymousUser".equals(auth.getName())) return null;
+        return auth.getName();
+    }
+
+    /** Admin or superadmin caller; with security disabled every caller is treated as admin (dev mode). */
+    public boolean isAdmin() {
+        if (!securityEnabled) return true;
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return auth != null && auth.getAuthorities().stream()
+                .anyMatch(a -> "ROLE_ADMIN".equals(a.getAuthority()) || "ROLE_SUPERADMIN".equals(a.getAuthority()));
+    }
+
     public void authorize(String tenantId) {
         if (!securityEnabled) return;
         String fromJwt = tenantFromAuth();
@@ -0,0 +1,163 @@
+package com.owl.service;
+
+import com.owl.exception.OverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive concurrency limit per model backend (provider:model, or the model proxy), gradient style:
+ * a slow EWMA of call latency is the "no queueing" baseline; when recent latency rises above
+ * baseline * tolerance the limit shrinks proportionally, otherwise it grows by ~sqrt(limit). Calls over
+ * the current limit are rejected immediately (503 + Retry-After) instead of queueing inside Ollama and
+ * timing out. Calls that fail with an overload signal (timeout, 5xx, 429) count as drops and back the
+ * limit off; other failures (4xx, validation, the caller's own deadline) free the slot without a sample.
+ *
+ * Metrics: llm.limit{backend}, llm.inflight{backend}, llm.limiter.rejected{backend}.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final double initialLimit;
+    private final double minLimit;
+    private final double maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    public AdaptiveConcurrencyLimiter(MeterRegistry metrics,
+                                      @Value("${owl.llm.limiter.enabled:true}") boolean enabled,
+                                      @Value("${owl.llm.limiter.initial-limit:8}") int initialLimit,
+                                      @Value("${owl.llm.limiter.min-limit:1}") int minLimit,
+                                      @Value("${owl.llm.limiter.max-limit:64}") int maxLimit,
+                                      @Value("${owl.llm.limiter.smoothing:0.2}") double smoothing,
+                                      @Value("${owl.llm.limiter.tolerance:1.5}") double tolerance) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.initialLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.smoothing = Math.min(1.0, Math.max(0.01, smoothing));
+        this.tolerance = Math.max(1.0, tolerance);
+    }
+
+    /** Outcome callback for one admitted call; the first report wins. */
+    public static final class Listener {
+        static final Listener NONE = new Listener(null);
+        private final Limit limit;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Listener(Limit limit) { this.limit = limit; }
+
+        public void onSuccess() { if (limit != null && done.compareAndSet(false, true)) limit.onSample(System.nanoTime() - start, false); }
+        public void onDropped() { if (limit != null && done.compareAndSet(false, true)) limit.onSample(System.nanoTime() - start, true); }
+        /** Cancelled by the caller (e.g. a hedge won): frees the slot without a latency sample. */
+        public void onIgnore()  { if (limit != null && done.compareAndSet(false, true)) limit.release(); }
+        /** A failed call: a drop when it signals overload ({@link #isOverload}), otherwise ignored. */
+        public void onError(Throwable t) { if (isOverload(t)) onDropped(); else onIgnore(); }
+    }
+
+    /** Timeouts, 5xx and 429 anywhere in the cause chain. */
+    static boolean isOverload(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause() == c ? null : c.getCause()) {
+            if (c instanceof WebClientResponseException w) return isOverloadStatus(w.getStatusCode().value());
+            if (c instanceof RestClientResponseException r) return isOverloadStatus(r.getStatusCode().value());
+            if (c instanceof TransientAiException) return true; // Spring AI: 5xx and I/O errors
+            if (c instanceof NonTransientAiException) return c.getMessage() != null && c.getMessage().startsWith("429");
+            if (c instanceof TimeoutException || c instanceof SocketTimeoutException || c instanceof HttpTimeoutException
+                    || c.getClass().getSimpleName().endsWith("TimeoutException")) { // e.g. Netty ReadTimeoutException
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOverloadStatus(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    public <T> T call(String backend, Supplier<T> body) {
+        Listener l = acquire(backend);
+        try {
+            T v = body.get();
+            l.onSuccess();
+            return v;
+        } catch (RuntimeException | Error e) {
+            if (Thread.currentThread().isInterrupted()) l.onIgnore(); else l.onError(e);
+            throw e;
+        }
+    }
+
+    /** Admits a call or throws {@link OverloadedException} when the backend is at its current limit. */
+    public Listener acquire(String backend) {
+        if (!enabled) return Listener.NONE;
+        Limit limit = limits.computeIfAbsent(backend, this::newLimit);
+        if (!limit.tryAcquire()) {
+            metrics.counter("llm.limiter.rejected", "backend", backend).increment();
+            throw new OverloadedException("Model backend " + backend + " is at capacity; try again shortly.", 1);
+        }
+        return new Listener(limit);
+    }
+
+    public int currentLimit(String backend) {
+        Limit l = limits.get(backend);
+        return l == null ? (int) initialLimit : (int) l.limit;
+    }
+
+    private Limit newLimit(String backend) {
+        Limit l = new Limit();
+        metrics.gauge("llm.limit", Tags.of("backend", backend), l, x -> x.limit);
+        metrics.gauge("llm.inflight", Tags.of("backend", backend), l, x -> x.inFlight);
+        return l;
+    }
+
+    final class Limit {
+        private double limit = initialLimit;
+        private int inFlight;
+        private double longRttNanos;   // slow EWMA: latency without queueing
+        private double shortRttNanos;  // fast EWMA: latency now
+
+        synchronized boolean tryAcquire() {
+            if (inFlight >= (int) limit) return false;
+            inFlight++;
+            return true;
+        }
+
+        synchronized void release() {
+            inFlight--;
+        }
+
+        synchronized void onSample(long rttNanos, boolean dropped) {
+            int inFlightAtSample = inFlight;
+            inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * 0.9);
+                return;
+            }
+            longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos * 0.99 + rttNanos * 0.01;
+            shortRttNanos = shortRttNanos == 0 ? rttNanos : shortRttNanos * 0.8 + rttNanos * 0.2;
+            // Baseline drifts down again after a sustained slowdown instead of locking in the high latency.
+            if (longRttNanos / shortRttNanos > 2) longRttNanos *= 0.95;
+            // App-limited: low utilization says nothing about the backend's capacity.
+            if (inFlightAtSample < limit / 2) return;
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / shortRttNanos));
+            double next = limit * gradient + Math.sqrt(limit);
+            limit = Math.min(maxLimit, Math.max(minLimit, limit * (1 - smoothing) + next * smoothing));
+        }
+    }
+}
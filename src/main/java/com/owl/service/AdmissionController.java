@@ -0,0 +1,157 @@
+package com.owl.service;
+
+import com.owl.exception.OverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Load shedding for chat from observed time-in-queue, CoDel style: the standing queue delay is the
+ * minimum sojourn seen over the last interval (a queue that never drains below it is not a burst).
+ * Samples come from the model scheduler's waits and from the gateway's X-Request-Start header.
+ *
+ * Levels: below target-ms everything is admitted; from target-ms new chat requests run cache-only (served
+ * from the semantic/prompt/preference caches, otherwise shed); from reject-ms the filter sheds chat at the
+ * door. Shed requests get 429 when their tenant caused more than its share of the over-target waits,
+ * else 503, with Retry-After from the standing delay.
+ *
+ * Metrics: chat.admission.queue.delay (ms), chat.admission.level (0 admit, 1 cache-only, 2 reject),
+ * chat.admission.cache_only, chat.admission.shed{level,status}.
+ */
+@Component
+public class AdmissionController {
+
+    public enum Level { ADMIT, CACHE_ONLY, REJECT }
+
+    /** Marks the current request as admitted for cache-served answers only. */
+    public record CacheOnly(long retryAfterSeconds, boolean tooManyRequests) {
+        public OverloadedException exception() {
+            return new OverloadedException("Chat is overloaded; only cached answers are served right now.",
+                    retryAfterSeconds, tooManyRequests);
+        }
+    }
+
+    private static final ThreadLocal<CacheOnly> CACHE_ONLY = new ThreadLocal<>();
+
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final long targetNanos;
+    private final long rejectNanos;
+    private final long intervalNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long windowStart = System.nanoTime();
+    private long windowMin = Long.MAX_VALUE;
+    private Map<String, Integer> windowSlow = new HashMap<>();
+    private Map<String, Integer> lastSlow = Map.of();
+    private volatile long standingNanos;
+
+    public AdmissionController(MeterRegistry metrics,
+                               @Value("${owl.admission.enabled:true}") boolean enabled,
+                               @Value("${owl.admission.target-ms:500}") long targetMs,
+                               @Value("${owl.admission.reject-ms:2000}") long rejectMs,
+                               @Value("${owl.admission.interval-ms:1000}") long intervalMs) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetMs));
+        this.rejectNanos = Math.max(targetNanos, TimeUnit.MILLISECONDS.toNanos(rejectMs));
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, intervalMs));
+        metrics.gauge("chat.admission.queue.delay", Tags.empty(), this, a -> a.standing() / 1_000_000.0);
+        metrics.gauge("chat.admission.level", Tags.empty(), this, a -> a.level().ordinal());
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** One request's time spent queued (tenantId may be null when unknown). */
+    public void recordQueueTime(String tenantId, long nanos) {
+        if (!enabled || nanos < 0) return;
+        lock.lock();
+        try {
+            roll(System.nanoTime());
+            windowMin = Math.min(windowMin, nanos);
+            if (tenantId != null && nanos >= targetNanos) windowSlow.merge(tenantId, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Level level() {
+        if (!enabled) return Level.ADMIT;
+        long d = standing();
+        return d >= rejectNanos ? Level.REJECT : d >= targetNanos ? Level.CACHE_ONLY : Level.ADMIT;
+    }
+
+    /** Standing queue delay in nanoseconds; zero once an interval passes with no queued requests. */
+    long standing() {
+        lock.lock();
+        try {
+            roll(System.nanoTime());
+            return standingNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long retryAfterSeconds() {
+        return Math.min(30, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(standing() + 999_999_999L)));
+    }
+
+    /** 429 when tenantId caused more than its share of the last interval's over-target waits. */
+    public boolean isTenantOverShare(String tenantId) {
+        if (tenantId == null) return false;
+        Map<String, Integer> slow;
+        lock.lock();
+        try {
+            roll(System.nanoTime());
+            slow = lastSlow;
+        } finally {
+            lock.unlock();
+        }
+        int mine = slow.getOrDefault(tenantId, 0);
+        if (mine == 0 || slow.size() < 2) return false;
+        int total = slow.values().stream().mapToInt(Integer::intValue).sum();
+        return mine * slow.size() > total;
+    }
+
+    /** The rejection for tenantId at the current level, counted under chat.admission.shed. */
+    public OverloadedException shed(String tenantId, Level level) {
+        boolean tooMany = isTenantOverShare(tenantId);
+        metrics.counter("chat.admission.shed", "level", level.name().toLowerCase(), "status", tooMany ? "429" : "503").increment();
+        return new OverloadedException("Chat is overloaded; please retry shortly.", retryAfterSeconds(), tooMany);
+    }
+
+    /** Cache-only marker for tenantId's request at the current load (ChatService counts the misses it sheds). */
+    public CacheOnly cacheOnly(String tenantId) {
+        metrics.counter("chat.admission.cache_only").increment();
+        return new CacheOnly(retryAfterSeconds(), isTenantOverShare(tenantId));
+    }
+
+    private void roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < intervalNanos) return;
+        // An interval without samples means nothing queued: the standing delay resets.
+        standingNanos = elapsed >= 2 * intervalNanos || windowMin == Long.MAX_VALUE ? 0 : windowMin;
+        lastSlow = elapsed >= 2 * intervalNanos ? Map.of() : windowSlow;
+        windowSlow = new HashMap<>();
+        windowMin = Long.MAX_VALUE;
+        windowStart = now;
+    }
+
+    // Per-request cache-only marker (thread-local, like RequestDeadline).
+
+    public static CacheOnly currentCacheOnly() { return CACHE_ONLY.get(); }
+
+    /** Runs body with the given marker (null = full service), restoring the previous one afterwards. */
+    public static <T> T callWith(CacheOnly c, Supplier<T> body) {
+        CacheOnly prev = CACHE_ONLY.get();
+        if (c == null) CACHE_ONLY.remove(); else CACHE_ONLY.set(c);
+        try { return body.get(); } finally { if (prev == null) CACHE_ONLY.remove(); else CACHE_ONLY.set(prev); }
+    }
+}
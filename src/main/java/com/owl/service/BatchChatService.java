@@ -0,0 +1,125 @@
+package com.owl.service;
+
+import com.owl.model.BatchChatRequest;
+import com.owl.model.BatchChatResult;
+import com.owl.model.ChatRequest;
+import com.owl.model.ChatResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bulk question answering. Questions are deduped (same normalization as request coalescing), the unique
+ * ones embedded in batched calls, then answered through {@link ChatService} with retrieval-side stages
+ * running owl.chat.batch.concurrency wide and model calls capped at owl.chat.batch.model-concurrency.
+ * Results stream back in completion order, one per input index. Each question gets its own request
+ * deadline (the batch request's budget, starting when that question starts).
+ *
+ * Metrics: chat.batch.questions{kind=unique|duplicate}, chat.batch.errors.
+ */
+@Service
+public class BatchChatService {
+    private static final Logger log = LoggerFactory.getLogger(BatchChatService.class);
+
+    private final ChatService chat;
+    private final EmbeddingModel embeddings;
+    private final MeterRegistry metrics;
+    private final int concurrency;
+    private final int modelConcurrency;
+    private final int embedBatchSize;
+
+    public BatchChatService(ChatService chat, EmbeddingModel embeddings, MeterRegistry metrics,
+                            @Value("${owl.chat.batch.concurrency:16}") int concurrency,
+                            @Value("${owl.chat.batch.model-concurrency:4}") int modelConcurrency,
+                            @Value("${owl.chat.batch.embed-batch-size:256}") int embedBatchSize) {
+        this.chat = chat;
+        this.embeddings = embeddings;
+        this.metrics = metrics;
+        this.concurrency = Math.max(1, concurrency);
+        this.modelConcurrency = Math.max(1, modelConcurrency);
+        this.embedBatchSize = Math.max(1, embedBatchSize);
+    }
+
+    private record Unique(String question, List<Integer> indexes) {}
+
+    public Flux<BatchChatResult> answer(BatchChatRequest req) {
+        final String region = TenantRegionContext.getOverrideRegion();
+        final Duration budget = RequestDeadline.remaining();
+        return Flux.defer(() -> {
+            List<Unique> unique = dedupe(req.questions());
+            metrics.counter("chat.batch.questions", "kind", "unique").increment(unique.size());
+            metrics.counter("chat.batch.questions", "kind", "duplicate").increment(req.questions().size() - unique.size());
+            List<float[]> vectors = embedAll(unique);
+            Semaphore modelPermits = new Semaphore(modelConcurrency);
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < unique.size(); i++) order.add(i);
+            return Flux.fromIterable(order)
+                    .flatMap(i -> answerOne(req, unique.get(i), vectors.get(i), region, budget, modelPermits), concurrency)
+                    .flatMapIterable(r -> r);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<List<BatchChatResult>> answerOne(BatchChatRequest req, Unique u, float[] vector, String region,
+                                                  Duration budget, Semaphore modelPermits) {
+        QueryEmbeddingContext embedding = vector == null ? QueryEmbeddingContext.of(u.question())
+                : QueryEmbeddingContext.of(u.question(), vector);
+        ChatRequest one = new ChatRequest(req.tenantId(), u.question(), req.allowWeb(), req.document(), null, req.mode());
+        return Mono.fromCallable(() -> TenantRegionContext.callWith(region,
+                        () -> QueryEmbeddingContext.callWith(embedding, () -> RequestDeadline.callWith(
+                                budget == null ? null : System.nanoTime() + budget.toNanos(), () -> chat.answer(one, modelPermits)))))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(r -> fanOut(u, r.withDebug(null), null))
+                .onErrorResume(e -> {
+                    metrics.counter("chat.batch.errors").increment();
+                    log.warn("Batch question failed for tenant {}: {}", req.tenantId(), e.getMessage());
+                    return Mono.just(fanOut(u, null, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage()));
+                });
+    }
+
+    private static List<BatchChatResult> fanOut(Unique u, ChatResponse r, String error) {
+        List<BatchChatResult> out = new ArrayList<>(u.indexes().size());
+        for (int idx : u.indexes()) out.add(new BatchChatResult(idx, u.question(), r, error));
+        return out;
+    }
+
+    static List<Unique> dedupe(List<String> questions) {
+        Map<String, Unique> byKey = new LinkedHashMap<>();
+        for (int i = 0; i < questions.size(); i++) {
+            String q = questions.get(i);
+            byKey.computeIfAbsent(RequestCoalescer.normalize(q), k -> new Unique(q.trim(), new ArrayList<>())).indexes().add(i);
+        }
+        return new ArrayList<>(byKey.values());
+    }
+
+    /** One embedding call per embed-batch-size questions; on failure each question embeds itself later. */
+    private List<float[]> embedAll(List<Unique> unique) {
+        List<float[]> out = new ArrayList<>(unique.size());
+        for (int from = 0; from < unique.size(); from += embedBatchSize) {
+            List<String> texts = unique.subList(from, Math.min(unique.size(), from + embedBatchSize))
+                    .stream().map(Unique::question).toList();
+            List<float[]> vectors = null;
+            try {
+                vectors = embeddings.embed(texts);
+            } catch (Exception e) {
+                log.warn("Batch embedding of {} questions failed, embedding individually: {}", texts.size(), e.getMessage());
+            }
+            for (int i = 0; i < texts.size(); i++) {
+                out.add(vectors != null && vectors.size() == texts.size() ? vectors.get(i) : null);
+            }
+        }
+        return out;
+    }
+}
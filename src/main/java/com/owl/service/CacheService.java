@@ -1,31 +1,103 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Semantic cache: saves LLM answers as vectorized docs (type=cache) per tenant.
  * On lookup, if nearest cached answer similarity >= threshold, short-circuit the LLM.
+ * Lookups search by the request's shared query embedding when TenantVectorService is available.
+ * Entries are keyed by the question's vector with the answer in the payload; once the in-process
+ * {@link SemanticCacheIndex} has loaded, lookups search it and Qdrant is only written to.
+ * Refusals (answers containing one of owl.cache.skip-answers) and answers over owl.cache.max-answer-chars
+ * are not cached; near-duplicate questions collapse into the existing entry (see SemanticCacheIndex).
+ * Entries record the KB versions of their sources: one whose source changed since is not served, and
+ * a {@link KnowledgeVersionService.Changed} event deletes every entry grounded on that source.
+ *
+ * Metrics: vector.search.fallback{caller=cache} counts Qdrant searches that failed over to the VectorStore.
  */
 @Service
 public class CacheService {
+    private static final Logger log = LoggerFactory.getLogger(CacheService.class);
 
     private final VectorStore store;
+    private final TenantVectorService vectors; // null -> VectorStore search (embeds the query itself)
+    private final MeterRegistry metrics;
     private final double threshold;
+    private final int maxAnswerChars;
+    private final List<String> skipAnswers;
+    private SemanticCacheIndex index; // null -> every lookup searches Qdrant
+    private KnowledgeVersionService kbVersions; // null -> entries are served regardless of KB changes
 
+    @Autowired
     public CacheService(VectorStore store,
-                        @Value("${owl.cache.similarity-threshold:0.90}") double threshold) {
+                        TenantVectorService vectors,
+                        MeterRegistry metrics,
+                        @Value("${owl.cache.similarity-threshold:0.90}") double threshold,
+                        @Value("${owl.cache.max-answer-chars:4000}") int maxAnswerChars,
+                        @Value("${owl.cache.skip-answers:I don't know,I do not know}") String skipAnswers) {
         this.store = store;
+        this.vectors = vectors;
+        this.metrics = metrics;
         this.threshold = threshold;
+        this.maxAnswerChars = maxAnswerChars;
+        this.skipAnswers = Arrays.stream(skipAnswers.split(",")).map(a -> a.strip().toLowerCase(Locale.ROOT)).filter(a -> !a.isEmpty()).toList();
+    }
+
+    CacheService(VectorStore store, TenantVectorService vectors, double threshold) {
+        this(store, vectors, new SimpleMeterRegistry(), threshold, 4000, "I don't know,I do not know");
+    }
+
+    CacheService(VectorStore store, double threshold) {
+        this(store, null, threshold);
+    }
+
+    @Autowired(required = false)
+    public void setIndex(SemanticCacheIndex index) {
+        this.index = index;
+    }
+
+    @Autowired(required = false)
+    public void setKnowledgeVersions(KnowledgeVersionService kbVersions) {
+        this.kbVersions = kbVersions;
     }
 
     public Optional<String> lookup(String tenantId, String query) {
+        return lookup(tenantId, query, threshold);
+    }
+
+    /**
+     * Nearest cached answer scoring at least minScore. Below the normal threshold this is a "stale" match
+     * (a nearby question's answer), only served when no model can be reached.
+     */
+    public Optional<String> lookup(String tenantId, String query, double minScore) {
+        if (index != null && vectors != null && index.isReady()) {
+            var match = index.nearest(tenantId, vectors.embed(query), minScore);
+            if (match.isPresent() && !current(tenantId, match.get().entry().sources())) {
+                index.invalidate(tenantId, match.get().entry().id());
+                return Optional.empty();
+            }
+            return match.map(m -> m.entry().answer());
+        }
         // Spring AI 1.0.1: use builder(), not a static "query(...)" method.
         SearchRequest req = SearchRequest.builder()
                 .query(query)
@@ -35,23 +107,131 @@ public class CacheService {
                 .filterExpression("tenantId == '" + escape(tenantId) + "' && type == 'cache'")
                 .build();
 
-        var hits = store.similaritySearch(req); // disambiguates the overload
+        List<Document> hits = null;
+        if (vectors != null) {
+            try {
+                hits = vectors.searchShared(query, List.of(
+                        Map.of("key", "tenantId", "match", Map.of("value", tenantId)),
+                        Map.of("key", "type", "match", Map.of("value", "cache"))), 1);
+            } catch (WebClientException e) {
+                log.warn("Qdrant cache search failed for tenant {}, falling back to the VectorStore: {}", tenantId, e.toString());
+                metrics.counter("vector.search.fallback", "caller", "cache").increment();
+            }
+        }
+        if (hits == null) hits = store.similaritySearch(req); // disambiguates the overload
         if (hits == null || hits.isEmpty()) return Optional.empty();
 
         Document doc = hits.get(0);
         double score = readScore(doc);
+        if (!current(tenantId, KnowledgeVersionService.fromStored(doc.getMetadata().get("sources")))) return Optional.empty();
         // In Spring AI 1.0.1, text lives on Content.getText() which Document implements.
-        return score >= threshold ? Optional.of(doc.getText()) : Optional.empty();
+        // Legacy entries hold the answer as the text; current ones hold the question and carry the answer.
+        Object answer = doc.getMetadata().get("answer");
+        return score >= minScore ? Optional.of(answer != null ? answer.toString() : doc.getText()) : Optional.empty();
     }
 
     public void save(String tenantId, String query, String answer) {
-        // Store the cached answer as a Document with metadata that marks it as cache.
-        var cachedDoc = new Document(answer, Map.of(
-                "tenantId", tenantId,
+        save(tenantId, query, answer, Map.of());
+    }
+
+    /** Saves an answer grounded on sources at these KB versions ({@link KnowledgeVersionService#snapshot}). */
+    public void save(String tenantId, String query, String answer, Map<String, Long> sources) {
+        Entry e = new Entry(tenantId, query, answer, sources);
+        if (!admits(e)) return;
+        if (vectors == null) {
+            store.add(java.util.List.of(toDocument(e)));
+            return;
+        }
+        upsert(List.of(e), List.of(vectors.embed(query)));
+    }
+
+    public record Entry(String tenantId, String question, String answer, Map<String, Long> sources) {
+        public Entry(String tenantId, String question, String answer) {
+            this(tenantId, question, answer, Map.of());
+        }
+    }
+
+    /** Batched save: one embedding batch and one upsert for many entries (used by write-behind). */
+    public void saveAll(List<Entry> entries) {
+        entries = entries.stream().filter(this::admits).toList();
+        if (entries.isEmpty()) return;
+        if (vectors == null) {
+            store.add(entries.stream().map(CacheService::toDocument).toList());
+            return;
+        }
+        upsert(entries, vectors.embedAll(entries.stream().map(Entry::question).toList()));
+    }
+
+    /** Refusals (answers that are or open with a skip phrase) and oversized answers are not worth a cache slot. */
+    private boolean admits(Entry e) {
+        if (e.answer() == null || e.answer().isBlank() || e.answer().length() > maxAnswerChars) return false;
+        String a = e.answer().strip().toLowerCase(Locale.ROOT);
+        return skipAnswers.stream().noneMatch(a::startsWith);
+    }
+
+    /**
+     * Adds entries to the in-process index (near-duplicates of a live entry are collapsed there and not
+     * written) and upserts the rest to Qdrant under their question vectors.
+     */
+    private void upsert(List<Entry> entries, List<float[]> questionVectors) {
+        long now = System.currentTimeMillis();
+        boolean indexed = index != null && index.isEnabled();
+        List<TenantVectorService.Point> points = new ArrayList<>(entries.size());
+        List<SemanticCacheIndex.Entry> added = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            var entry = new SemanticCacheIndex.Entry(UUID.randomUUID().toString(), e.tenantId(), e.question(), e.answer(), now,
+                    e.sources() == null ? Map.of() : e.sources());
+            if (indexed) {
+                if (!index.add(entry, questionVectors.get(i), true)) continue;
+                added.add(entry);
+            }
+            var payload = payload(e, now);
+            payload.put(TenantVectorService.SHARED_TEXT_KEY, e.question());
+            points.add(new TenantVectorService.Point(entry.id(), questionVectors.get(i), payload));
+        }
+        try {
+            vectors.upsertShared(points);
+        } catch (RuntimeException ex) {
+            added.forEach(a -> index.remove(a.tenantId(), a.id())); // not durable: the retried write re-adds them
+            throw ex;
+        }
+    }
+
+    private static Document toDocument(Entry e) {
+        // The question is embedded (lookups compare questions); the answer rides in the metadata.
+        return new Document(e.question(), payload(e, System.currentTimeMillis()));
+    }
+
+    private static Map<String, Object> payload(Entry e, long createdAt) {
+        Map<String, Object> p = new HashMap<>(Map.of(
+                "tenantId", e.tenantId(),
                 "type", "cache",
-                "question", query
+                "question", e.question(),
+                "answer", e.answer(),
+                "createdAt", createdAt
         ));
-        store.add(java.util.List.of(cachedDoc));
+        if (e.sources() != null && !e.sources().isEmpty()) p.put("sources", KnowledgeVersionService.toStored(e.sources()));
+        return p;
+    }
+
+    private boolean current(String tenantId, Map<String, Long> sources) {
+        return kbVersions == null || kbVersions.isCurrent(tenantId, sources);
+    }
+
+    /** A source changed: drop the entries grounded on it here and in Qdrant (other replicas catch them on lookup). */
+    @EventListener
+    public void onKnowledgeChanged(KnowledgeVersionService.Changed e) {
+        if (index != null) index.invalidateSource(e.tenantId(), e.source());
+        if (vectors == null) return;
+        try {
+            vectors.deleteShared(Map.of("must", List.of(
+                    Map.of("key", "tenantId", "match", Map.of("value", e.tenantId())),
+                    Map.of("key", "type", "match", Map.of("value", "cache")),
+                    Map.of("key", "sources[].name", "match", Map.of("value", e.source())))));
+        } catch (RuntimeException ex) {
+            log.warn("Could not delete cached answers of {} for tenant {}: {}", e.source(), e.tenantId(), ex.toString());
+        }
     }
 
     private double readScore(Document d) {
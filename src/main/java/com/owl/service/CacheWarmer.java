@@ -0,0 +1,284 @@
+package com.owl.service;
+
+import com.owl.model.Tenant;
+import com.owl.repo.TenantRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pre-answers each tenant's likely questions so the semantic and prompt caches are warm after a deploy or a
+ * cache purge: the tenant's eval goldens first, then its most frequent stateless questions from chat history
+ * ({@link ChatHistoryService#frequentQuestions}). Questions already in the semantic cache are skipped; the
+ * rest go through {@link ChatService#warm}, which fills both caches without writing history or charging the
+ * tenant's quota or budget.
+ *
+ * Warming runs behind live traffic: owl.cache.warm.concurrency low-priority threads drain a bounded queue and
+ * only start a question while admission control admits and the model scheduler keeps owl.cache.warm.reserve
+ * of its slots free; otherwise they idle for pause-ms. Its model calls take spare global slots, never the
+ * tenant's own. All tenants are queued startup-delay-ms after the application is ready;
+ * QdrantAdminClient.purgeCache queues the purged tenant.
+ *
+ * The caches are shared, so one replica warms a tenant: queuing takes the tenant's lease in the core
+ * cache_warm_leases collection (for lease-minutes, released once its questions are done) and a tenant
+ * leased by another replica is skipped.
+ *
+ * Metrics: cache.warm.questions{result=warmed|cached|failed|dropped}, cache.warm.queue.
+ */
+@Component
+public class CacheWarmer {
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+    private static final String LEASES = "cache_warm_leases";
+
+    record Task(String tenantId, String question) {
+        String key() { return tenantId + "|" + question.toLowerCase(Locale.ROOT); }
+    }
+
+    private final ChatService chat;
+    private final CacheService cache;
+    private final ChatHistoryService history;
+    private final EvalService eval;
+    private final TenantRepository tenantRepo;
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final int topN;
+    private final int minCount;
+    private final int sample;
+    private final int concurrency;
+    private final long startupDelayMs;
+    private final long pauseMs;
+    private final double reserve;
+    private final long leaseMs;
+    private final String replicaId = UUID.randomUUID().toString();
+    final BlockingQueue<Task> queue;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> pending = new ConcurrentHashMap<>(); // queued questions by tenant
+    private final List<Thread> workers = new ArrayList<>();
+    private ModelCallScheduler scheduler; // null -> only admission control gates warming
+    private AdmissionController admission; // null -> only the scheduler gates warming
+    private MongoTemplate core; // null -> every replica warms every tenant
+    private volatile boolean running;
+
+    public CacheWarmer(ChatService chat, CacheService cache, ChatHistoryService history, EvalService eval,
+                       TenantRepository tenantRepo, MeterRegistry metrics,
+                       @Value("${owl.cache.warm.enabled:true}") boolean enabled,
+                       @Value("${owl.cache.warm.top-n:50}") int topN,
+                       @Value("${owl.cache.warm.min-count:2}") int minCount,
+                       @Value("${owl.cache.warm.sample:5000}") int sample,
+                       @Value("${owl.cache.warm.concurrency:2}") int concurrency,
+                       @Value("${owl.cache.warm.startup-delay-ms:120000}") long startupDelayMs,
+                       @Value("${owl.cache.warm.pause-ms:2000}") long pauseMs,
+                       @Value("${owl.cache.warm.queue-capacity:10000}") int capacity,
+                       @Value("${owl.cache.warm.reserve:0.5}") double reserve,
+                       @Value("${owl.cache.warm.lease-minutes:30}") long leaseMinutes) {
+        this.chat = chat;
+        this.cache = cache;
+        this.history = history;
+        this.eval = eval;
+        this.tenantRepo = tenantRepo;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.topN = Math.max(0, topN);
+        this.minCount = Math.max(1, minCount);
+        this.sample = Math.max(1, sample);
+        this.concurrency = Math.max(1, concurrency);
+        this.startupDelayMs = Math.max(0, startupDelayMs);
+        this.pauseMs = Math.max(10, pauseMs);
+        this.reserve = Math.min(1.0, Math.max(0.0, reserve));
+        this.leaseMs = TimeUnit.MINUTES.toMillis(Math.max(1, leaseMinutes));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        metrics.gaugeCollectionSize("cache.warm.queue", Tags.empty(), queue);
+    }
+
+    @Autowired(required = false)
+    public void setScheduler(ModelCallScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Autowired(required = false)
+    public void setAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    @Autowired(required = false)
+    public void setCore(MongoTemplate core) {
+        this.core = core;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) return;
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            Thread t = new Thread(this::drainLoop, "cache-warm-" + i);
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        queue.clear();
+        queued.clear();
+    }
+
+    /** Queues every tenant once the application is up (after startup-delay-ms, off the startup thread). */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) return;
+        Thread t = new Thread(() -> {
+            try {
+                Thread.sleep(startupDelayMs);
+                for (Tenant tenant : tenantRepo.findAll()) warmTenant(tenant.getId());
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                log.warn("Cache warm-up could not list tenants: {}", e.toString());
+            }
+        }, "cache-warm-start");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Queues the tenant's goldens and top questions unless another replica warms it; returns how many were queued. */
+    public int warmTenant(String tenantId) {
+        if (!enabled || tenantId == null) return 0;
+        if (!lease(tenantId)) {
+            log.debug("Tenant {} is being warmed by another replica", tenantId);
+            return 0;
+        }
+        AtomicInteger left = pending.computeIfAbsent(tenantId, t -> new AtomicInteger());
+        left.incrementAndGet(); // keeps the lease while mining and queuing; done() below hands it back if nothing queued
+        Set<String> seen = new LinkedHashSet<>();
+        List<String> questions = new ArrayList<>();
+        try {
+            for (EvalService.Golden g : eval.goldens(tenantId, topN)) add(g.question(), seen, questions);
+        } catch (Exception e) {
+            log.debug("No goldens for tenant {}: {}", tenantId, e.toString());
+        }
+        try {
+            for (String q : history.frequentQuestions(tenantId, sample, minCount, topN)) add(q, seen, questions);
+        } catch (Exception e) {
+            log.debug("No chat history for tenant {}: {}", tenantId, e.toString());
+        }
+        int n = 0;
+        for (String q : questions) {
+            Task task = new Task(tenantId, q);
+            if (!queued.add(task.key())) continue; // already waiting
+            left.incrementAndGet();
+            if (queue.offer(task)) {
+                n++;
+            } else {
+                queued.remove(task.key());
+                left.decrementAndGet();
+                metrics.counter("cache.warm.questions", "result", "dropped").increment();
+            }
+        }
+        done(tenantId);
+        if (n > 0) log.info("Queued {} questions to warm the caches of tenant {}", n, tenantId);
+        return n;
+    }
+
+    /** Takes (or extends) this replica's lease on warming the tenant; true as well when Mongo is unavailable. */
+    private boolean lease(String tenantId) {
+        if (core == null) return true;
+        Date now = new Date();
+        try {
+            core.upsert(Query.query(Criteria.where("_id").is(tenantId)
+                            .orOperator(Criteria.where("until").lt(now), Criteria.where("owner").is(replicaId))),
+                    new Update().set("owner", replicaId).set("until", new Date(now.getTime() + leaseMs)), LEASES);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false; // held by another replica
+        } catch (Exception e) {
+            log.warn("Could not lease cache warming of tenant {}, warming anyway: {}", tenantId, e.toString());
+            return true;
+        }
+    }
+
+    /** One of the tenant's queued questions is done; the last one hands the lease back. */
+    private void done(String tenantId) {
+        AtomicInteger left = pending.get(tenantId);
+        if (left == null || left.decrementAndGet() > 0) return;
+        pending.remove(tenantId, left);
+        if (core == null) return;
+        try {
+            core.remove(Query.query(Criteria.where("_id").is(tenantId).and("owner").is(replicaId)), LEASES);
+        } catch (Exception e) {
+            log.debug("Could not release the warm lease of tenant {}: {}", tenantId, e.toString());
+        }
+    }
+
+    private static void add(String question, Set<String> seen, List<String> out) {
+        if (question == null || question.isBlank()) return;
+        if (seen.add(question.strip().toLowerCase(Locale.ROOT))) out.add(question.strip());
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                Task task = queue.take();
+                while (running && !hasCapacity()) Thread.sleep(pauseMs);
+                if (running) warm(task);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Warming may start a model call: admission admits everything and the scheduler has slots to spare. */
+    boolean hasCapacity() {
+        if (admission != null && admission.level() != AdmissionController.Level.ADMIT) return false;
+        return scheduler == null || scheduler.hasSpareCapacity(reserve);
+    }
+
+    /** Answers one queued question unless the semantic cache already has it. */
+    void warm(Task task) {
+        String result;
+        try {
+            if (cache.lookup(task.tenantId(), task.question()).isPresent()) {
+                result = "cached";
+            } else {
+                chat.warm(task.tenantId(), task.question());
+                result = "warmed";
+            }
+        } catch (Exception e) {
+            log.debug("Could not warm \"{}\" for tenant {}: {}", task.question(), task.tenantId(), e.toString());
+            result = "failed";
+        } finally {
+            queued.remove(task.key());
+            done(task.tenantId());
+        }
+        metrics.counter("cache.warm.questions", "result", result).increment();
+    }
+}
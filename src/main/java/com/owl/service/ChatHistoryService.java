@@ -1,13 +1,22 @@
 package com.owl.service;
 
 import com.owl.model.ChatRecord;
+import com.owl.model.ChatSession;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Persists chat interactions into per-tenant Mongo databases.
@@ -26,30 +35,110 @@ public class ChatHistoryService {
     }
 
     public String save(String tenantId, String question, String answer, boolean cacheHit, List<String> sources) {
+        return save(tenantId, question, answer, cacheHit, sources, null);
+    }
+
+    /** As {@link #save(String, String, String, boolean, List)}, tagged with a conversation session (may be null). */
+    public String save(String tenantId, String question, String answer, boolean cacheHit, List<String> sources,
+                       String sessionId) {
         MongoTemplate tpl = tenantMongoManager.templateForTenant(tenantId);
         ensureIndexes(tpl);
-        String toStore = answer;
-        ChatRecord rec = new ChatRecord(tenantId, question, toStore, cacheHit, sources);
-        if (keys.isEnabled()) {
-            String key = keys.getOrCreateKey(tenantId);
-            var enc = crypto.encrypt(answer, key);
-            rec.setAnswer(enc.ciphertextB64);
-            rec.setEncrypted(true);
-            rec.setIv(enc.ivB64);
-        }
+        ChatRecord rec = new ChatRecord(tenantId, question, answer, cacheHit, sources);
+        rec.setSessionId(sessionId);
+        encryptIfEnabled(tenantId, rec);
         tpl.save(rec);
         return rec.getId();
     }
 
+    /** Chat ids are ObjectIds generated client-side so they can be returned before the record is written. */
+    public String newChatId() {
+        return new ObjectId().toHexString();
+    }
+
+    /**
+     * Batch upsert of records for one tenant (ids pre-assigned via {@link #newChatId()}); answers are
+     * encrypted here. Upserts keep retries of a partially applied batch idempotent.
+     */
+    public void saveAll(String tenantId, List<ChatRecord> records) {
+        if (records.isEmpty()) return;
+        MongoTemplate tpl = tenantMongoManager.templateForTenant(tenantId);
+        ensureIndexes(tpl);
+        BulkOperations ops = tpl.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatRecord.class);
+        for (ChatRecord rec : records) {
+            encryptIfEnabled(tenantId, rec);
+            ops.replaceOne(Query.query(Criteria.where("id").is(rec.getId())), rec, FindAndReplaceOptions.options().upsert());
+        }
+        ops.execute();
+    }
+
+    private void encryptIfEnabled(String tenantId, ChatRecord rec) {
+        if (!keys.isEnabled() || rec.isEncrypted()) return;
+        String key = keys.getOrCreateKey(tenantId);
+        var enc = crypto.encrypt(rec.getAnswer(), key);
+        rec.setAnswer(enc.ciphertextB64);
+        rec.setEncrypted(true);
+        rec.setIv(enc.ivB64);
+    }
+
     public ChatRecord getById(String tenantId, String id) {
         MongoTemplate tpl = tenantMongoManager.templateForTenant(tenantId);
         return tpl.findById(id, ChatRecord.class);
     }
 
+    /** The last limit turns of a conversation session, oldest first, answers decrypted. */
+    public List<ChatRecord> recentForSession(String tenantId, String sessionId, int limit) {
+        MongoTemplate tpl = tenantMongoManager.templateForTenant(tenantId);
+        Query q = Query.query(Criteria.where("tenantId").is(tenantId).and("sessionId").is(sessionId))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+                .limit(limit);
+        List<ChatRecord> recs = new java.util.ArrayList<>(tpl.find(q, ChatRecord.class));
+        java.util.Collections.reverse(recs);
+        for (ChatRecord rec : recs) decryptIfNeeded(tenantId, rec);
+        return recs;
+    }
+
+    public void saveSession(ChatSession session) {
+        tenantMongoManager.templateForTenant(session.getTenantId()).insert(session);
+    }
+
+    /** The tenant's session with this id, or null. */
+    public ChatSession findSession(String tenantId, String sessionId) {
+        ChatSession s = tenantMongoManager.templateForTenant(tenantId).findById(sessionId, ChatSession.class);
+        return s != null && tenantId.equals(s.getTenantId()) ? s : null;
+    }
+
+    /**
+     * The tenant's most asked stateless questions (at least minCount times) among its last sample records,
+     * most frequent first. Questions are stored in clear; only answers are encrypted.
+     */
+    public List<String> frequentQuestions(String tenantId, int sample, int minCount, int limit) {
+        MongoTemplate tpl = tenantMongoManager.templateForTenant(tenantId);
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.sort(Sort.Direction.DESC, "_id"), // ObjectIds: newest first
+                Aggregation.limit(sample),
+                Aggregation.match(Criteria.where("sessionId").is(null)), // follow-ups are never cached
+                Aggregation.group("question").count().as("n"),
+                Aggregation.match(Criteria.where("n").gte(minCount)),
+                Aggregation.sort(Sort.Direction.DESC, "n"),
+                Aggregation.limit(limit));
+        return tpl.aggregate(agg, ChatRecord.class, Map.class).getMappedResults().stream()
+                .map(m -> Objects.toString(m.get("_id"), null))
+                .filter(q -> q != null && !q.isBlank())
+                .toList();
+    }
+
+    private void decryptIfNeeded(String tenantId, ChatRecord rec) {
+        if (!rec.isEncrypted()) return;
+        rec.setAnswer(crypto.decrypt(rec.getAnswer(), rec.getIv(), keys.getOrCreateKey(tenantId)));
+        rec.setEncrypted(false);
+        rec.setIv(null);
+    }
+
     private void ensureIndexes(MongoTemplate tpl) {
         IndexOperations ops = tpl.indexOps(ChatRecord.class);
         // best-effort; ignore errors if exists
         try { ops.ensureIndex(new Index().on("tenantId", Sort.Direction.ASC).named("idx_tenant")); } catch (Exception ignored) {}
         try { ops.ensureIndex(new Index().on("createdAt", Sort.Direction.DESC).named("idx_createdAt")); } catch (Exception ignored) {}
+        try { ops.ensureIndex(new Index().on("sessionId", Sort.Direction.ASC).on("createdAt", Sort.Direction.DESC).sparse().named("idx_session")); } catch (Exception ignored) {}
     }
 }
@@ -0,0 +1,128 @@
+package com.owl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quality/latency modes for chat (ChatRequest.mode): fast, balanced, thorough. Each mode is a profile
+ * (owl.chat.modes.&lt;mode&gt;, "key=value,..."): retrieval top-k, whether the reranker runs (never when
+ * owl.rerank.enabled is off), how many chunks and tokens of context the prompt may carry, the semantic-cache
+ * similarity threshold it uses (below owl.cache.similarity-threshold = less similar questions reuse a cached
+ * answer; freshness is unaffected), and an optional
+ * provider/model overriding the tenant's routing. A request without a mode gets the tenant's
+ * TenantSettings.chatMode (cached for owl.chat.modes.tenant-cache-seconds), else balanced. When the settings
+ * cannot be read the last known mode is kept; a tenant with none gets balanced uncached, so the next request retries.
+ */
+@Component
+public class ChatModeProfiles {
+    private static final Logger log = LoggerFactory.getLogger(ChatModeProfiles.class);
+
+    public static final String FAST = "fast";
+    public static final String BALANCED = "balanced";
+    public static final String THOROUGH = "thorough";
+
+    /** Pipeline knobs for one mode; cacheThreshold 0 = the cache's own threshold, blank model = routed model. */
+    public record Profile(String mode, int topK, boolean rerank, int maxChunks, int contextTokens,
+                          double cacheThreshold, String provider, String model) {
+
+        /** The pre-modes pipeline: top 8, rerank per config, 5 chunks, no token cap, routed model. */
+        static Profile legacy(boolean rerank) {
+            return new Profile(BALANCED, 8, rerank, 5, 0, 0, null, null);
+        }
+
+        public boolean overridesModel() { return model != null && !model.isBlank(); }
+
+        public ModelRoutingService.Selection select(ModelRoutingService.Selection routed) {
+            if (!overridesModel()) return routed;
+            String p = provider == null || provider.isBlank() ? routed.provider() : provider;
+            return new ModelRoutingService.Selection(p, model, routed.embedModel());
+        }
+    }
+
+    private record CachedMode(String mode, long loadedAt) {}
+
+    private final TenantSettingsService settings;
+    private final Map<String, Profile> profiles = new HashMap<>();
+    private final Map<String, CachedMode> tenantModes = new ConcurrentHashMap<>();
+    private final long tenantCacheNanos;
+
+    public ChatModeProfiles(TenantSettingsService settings,
+                            @Value("${owl.rerank.enabled:true}") boolean rerankEnabled,
+                            @Value("${owl.chat.modes.fast:top-k=4,rerank=false,max-chunks=3,context-tokens=1000,cache-threshold=0.80}") String fast,
+                            @Value("${owl.chat.modes.balanced:top-k=8,rerank=true,max-chunks=5,context-tokens=3000}") String balanced,
+                            @Value("${owl.chat.modes.thorough:top-k=16,rerank=true,max-chunks=8,context-tokens=6000}") String thorough,
+                            @Value("${owl.chat.modes.tenant-cache-seconds:60}") long tenantCacheSeconds) {
+        this.settings = settings;
+        profiles.put(FAST, parse(FAST, fast, rerankEnabled));
+        profiles.put(BALANCED, parse(BALANCED, balanced, rerankEnabled));
+        profiles.put(THOROUGH, parse(THOROUGH, thorough, rerankEnabled));
+        this.tenantCacheNanos = TimeUnit.SECONDS.toNanos(Math.max(0, tenantCacheSeconds));
+    }
+
+    static Profile parse(String mode, String spec, boolean rerankEnabled) {
+        Map<String, String> kv = new HashMap<>();
+        if (spec != null) {
+            for (String part : spec.split(",")) {
+                String[] p = part.split("=", 2);
+                if (p.length == 2 && !p[0].isBlank()) kv.put(p[0].trim(), p[1].trim());
+            }
+        }
+        return new Profile(mode,
+                Math.max(1, intOf(kv.get("top-k"), 8)),
+                rerankEnabled && Boolean.parseBoolean(kv.getOrDefault("rerank", "true")),
+                Math.max(1, intOf(kv.get("max-chunks"), 5)),
+                Math.max(0, intOf(kv.get("context-tokens"), 0)),
+                Math.max(0, doubleOf(kv.get("cache-threshold"), 0)),
+                kv.get("provider"),
+                kv.get("model"));
+    }
+
+    private static int intOf(String v, int def) {
+        try { return v == null ? def : Integer.parseInt(v); } catch (NumberFormatException e) { return def; }
+    }
+
+    private static double doubleOf(String v, double def) {
+        try { return v == null ? def : Double.parseDouble(v); } catch (NumberFormatException e) { return def; }
+    }
+
+    public static boolean isMode(String mode) {
+        return mode != null && (FAST.equals(mode) || BALANCED.equals(mode) || THOROUGH.equals(mode));
+    }
+
+    public Profile get(String mode) {
+        return profiles.get(isMode(mode) ? mode : BALANCED);
+    }
+
+    /** The requested mode when valid, else the tenant's default, else balanced. */
+    public Profile resolve(String tenantId, String requested) {
+        String mode = requested == null ? null : requested.trim().toLowerCase(Locale.ROOT);
+        if (isMode(mode)) return get(mode);
+        return get(tenantDefault(tenantId));
+    }
+
+    String tenantDefault(String tenantId) {
+        CachedMode c = tenantModes.get(tenantId);
+        long now = System.nanoTime();
+        if (c != null && now - c.loadedAt() < tenantCacheNanos) return c.mode();
+        String mode = BALANCED;
+        try {
+            String m = settings.getOrCreate(tenantId).getChatMode();
+            if (m != null && isMode(m.trim().toLowerCase(Locale.ROOT))) mode = m.trim().toLowerCase(Locale.ROOT);
+        } catch (Exception e) {
+            log.warn("Could not read the chat mode of tenant {}, using {}: {}", tenantId,
+                    c != null ? c.mode() : BALANCED, e.toString());
+            if (c == null) return BALANCED;
+            mode = c.mode();
+        }
+        tenantModes.put(tenantId, new CachedMode(mode, now));
+        return mode;
+    }
+}
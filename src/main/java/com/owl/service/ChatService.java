@@ -1,17 +1,30 @@
 package com.owl.service;
 
+import com.owl.exception.DeadlineExceededException;
+import com.owl.exception.OverloadedException;
 import com.owl.model.ChatRequest;
 import com.owl.model.ChatResponse;
+import com.owl.model.ChatStreamEvent;
 import org.springframework.ai.chat.client.ChatClient; // <- IMPORTANT: correct package
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Timer;
 import com.owl.rerank.Reranker;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * Chat orchestration with guardrails + semantic cache (Spring AI 1.0.1).
@@ -20,10 +33,14 @@ import com.owl.rerank.Reranker;
  *   chatClient.prompt().system(...).user(...).call().content();
  *
  * Document text is read via getText() (per Spring AI 1.0+ Content API).
+ * {@link #stream} uses chatClient.prompt()...stream().content() for token-by-token SSE delivery.
  */
 @Service
 public class ChatService {
 
+    /** Set on the cache warmer's thread for the duration of {@link #warm}. */
+    private static final ThreadLocal<Boolean> WARMING = new ThreadLocal<>();
+
     private final ChatClient chatClient;
     private final DocumentRetrievalService retrievalService;
     private final CacheService cacheService;
@@ -45,6 +62,23 @@ public class ChatService {
     private final double costPerCallUsd;
     private final ModelProviderRouter modelRouter;
     private final RemoteModelProxyClient modelProxyClient;
+    private Executor stageExecutor; // null -> pre-model lookups run serially on the request thread
+    private RequestCoalescer coalescer; // null -> every request calls the model itself
+    private QueryCanonicalizer canonicalizer; // null -> coalesced on the whitespace/case-normalized question
+    private WriteBehindService writeBehind; // null -> post-answer writes run synchronously
+    private HedgedModelCaller modelCaller; // null -> model called directly, without deadline or hedging
+    private ModelCallScheduler scheduler; // null -> no per-tenant admission in front of the model
+    private AdaptiveConcurrencyLimiter limiter; // null -> backends are called without an adaptive limit
+    private ModelCircuitBreakers breakers; // null -> no circuit breaking and no degraded fallback chain
+    private ModelCascade cascade; // null -> every grounded prompt goes straight to the routed model
+    private KnowledgeVersionService kbVersions; // null -> cached answers do not record source versions
+    private ChatModeProfiles modes; // null -> every request runs the fixed (pre-modes) pipeline
+    private ContextAssembler contextAssembler; // null -> top chunks by score under a rough character budget
+    private PromptLayout promptLayout; // null -> context in retrieval order, prefix reuse not measured
+    private ConversationService conversations; // null -> every request is stateless
+    private double staleCacheThreshold;
+    private String hedgeProvider;
+    private String hedgeModel;
 
     public ChatService(ChatClient chatClient,
                        DocumentRetrievalService retrievalService,
@@ -90,149 +124,855 @@ public class ChatService {
         this.modelProxyClient = modelProxyClient;
     }
 
+    /** Executor for the concurrent pre-model lookups; unset (serial) unless owl.chat.parallel-stages is on. */
+    @Autowired(required = false)
+    public void setStageExecutor(@Qualifier("applicationTaskExecutor") Executor stageExecutor,
+                                 @Value("${owl.chat.parallel-stages:true}") boolean parallel) {
+        this.stageExecutor = parallel ? stageExecutor : null;
+    }
+
+    @Autowired(required = false)
+    public void setCoalescer(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    @Autowired(required = false)
+    public void setCanonicalizer(QueryCanonicalizer canonicalizer) {
+        this.canonicalizer = canonicalizer;
+    }
+
+    @Autowired(required = false)
+    public void setWriteBehind(WriteBehindService writeBehind) {
+        this.writeBehind = writeBehind != null && writeBehind.isEnabled() ? writeBehind : null;
+    }
+
+    @Autowired(required = false)
+    public void setLimiter(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /** Stale semantic-cache matches (>= owl.llm.fallback.stale-cache-threshold, 0 = off) serve while no model answers. */
+    @Autowired(required = false)
+    public void setCircuitBreakers(ModelCircuitBreakers breakers,
+                                   @Value("${owl.llm.fallback.stale-cache-threshold:0.80}") double staleCacheThreshold) {
+        this.breakers = breakers;
+        this.staleCacheThreshold = staleCacheThreshold;
+    }
+
+    @Autowired(required = false)
+    public void setContextAssembler(ContextAssembler contextAssembler) {
+        this.contextAssembler = contextAssembler;
+    }
+
+    @Autowired(required = false)
+    public void setPromptLayout(PromptLayout promptLayout) {
+        this.promptLayout = promptLayout;
+    }
+
+    @Autowired(required = false)
+    public void setConversations(ConversationService conversations) {
+        this.conversations = conversations;
+        if (conversations != null) conversations.setSummarizer(this::backgroundCall);
+    }
+
+    @Autowired(required = false)
+    public void setModes(ChatModeProfiles modes) {
+        this.modes = modes;
+    }
+
+    @Autowired(required = false)
+    public void setCascade(ModelCascade cascade) {
+        this.cascade = cascade;
+    }
+
+    @Autowired(required = false)
+    public void setKnowledgeVersions(KnowledgeVersionService kbVersions) {
+        this.kbVersions = kbVersions;
+    }
+
+    @Autowired(required = false)
+    public void setScheduler(ModelCallScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /** Hedge target: owl.chat.hedge.provider/model, or blank to re-send to the same provider (another replica). */
+    @Autowired(required = false)
+    public void setModelCaller(HedgedModelCaller modelCaller,
+                               @Value("${owl.chat.hedge.provider:}") String hedgeProvider,
+                               @Value("${owl.chat.hedge.model:}") String hedgeModel) {
+        this.modelCaller = modelCaller;
+        this.hedgeProvider = hedgeProvider;
+        this.hedgeModel = hedgeModel;
+    }
+
+    /** Answers req; the response carries the per-stage timeline ({@link ChatResponse#debug()}). */
     public ChatResponse answer(ChatRequest req) {
+        return answer(req, null);
+    }
+
+    /**
+     * As {@link #answer(ChatRequest)}, with the model call gated by modelPermits (null = ungated), so bulk
+     * callers can run the cheap stages wide while holding LLM concurrency to the permit count.
+     */
+    public ChatResponse answer(ChatRequest req, Semaphore modelPermits) {
+        StageTimings timings = new StageTimings();
+        ChatResponse r = StageTimings.callWith(timings, () -> answerTimed(req, timings, modelPermits));
+        return r.withDebug(timings.toDebug());
+    }
+
+    private ChatResponse answerTimed(ChatRequest req, StageTimings timings, Semaphore modelPermits) {
+        Prepared p = prepare(req);
+        if (p.response() != null) return finish(timings, "short_circuit", p.response());
+        if (coalescer == null || p.followUp()) return finish(timings, "model", callAndComplete(p, modelPermits));
+        // Identical in-flight questions share one model call (and its cache writes).
+        String key = RequestCoalescer.key(p.tenantId(), p.modelId() + "|" + p.profile().mode(), req.document(), coalesceQuery(p));
+        var shared = coalescer.execute(key, () -> callAndComplete(p, modelPermits));
+        return shared.joined()
+                ? finish(timings, "coalesced", completeJoined(p, shared.value()))
+                : finish(timings, "model", shared.value());
+    }
+
+    /**
+     * Answers question for the cache warmer: the normal path fills the semantic and prompt caches, but no
+     * history or chat event is written, the tenant's request quota and budget are not charged, and the model
+     * call takes a spare global slot instead of one of the tenant's own ({@link ModelCallScheduler#acquireBackground}).
+     */
+    public ChatResponse warm(String tenantId, String question) {
+        WARMING.set(Boolean.TRUE);
+        try {
+            return answer(new ChatRequest(tenantId, question, false, null, null));
+        } finally {
+            WARMING.remove();
+        }
+    }
+
+    /** The question as keyed for single-flight: its canonical form once canonicalization is ON. */
+    private String coalesceQuery(Prepared p) {
+        if (canonicalizer == null || canonicalizer.mode() != QueryCanonicalizer.Mode.ON) return p.query();
+        return canonicalizer.canonicalize(p.tenantId(), p.query());
+    }
+
+    private static boolean warming() {
+        return WARMING.get() != null;
+    }
+
+    private ChatResponse finish(StageTimings timings, String path, ChatResponse r) {
+        timings.publish(metrics, path);
+        return r;
+    }
+
+    private ChatResponse callAndComplete(Prepared p, Semaphore modelPermits) {
+        if (modelPermits != null) StageTimings.time("model_queue", () -> modelPermits.acquireUninterruptibly());
+        ModelAnswer modelAnswer = null;
+        RuntimeException failure = null;
+        long t0;
+        try {
+            var slot = acquireModelSlot(p.tenantId());
+            t0 = System.currentTimeMillis();
+            try {
+                modelAnswer = StageTimings.time("model", () -> callModel(p));
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                releaseModelSlot(slot);
+            }
+            if (failure != null) return recover(p, failure);
+        } finally {
+            if (modelPermits != null) modelPermits.release();
+        }
+        return complete(p, modelAnswer, System.currentTimeMillis() - t0);
+    }
+
+    /** A coalesced duplicate: the leader already paid, ran post-safety and cached; record this request's history. */
+    private ChatResponse completeJoined(Prepared p, ChatResponse leader) {
+        String chatId = saveHistory(p.tenantId(), p.query(), leader.answer(), true, leader.sources(), p.sessionId());
+        publishChat(p.tenantId(), p.query(), true);
+        metrics.counter("chat.requests", "tenantId", p.tenantId(), "cache", "coalesced").increment();
+        return new ChatResponse(leader.answer(), leader.sources(), chatId, leader.safety());
+    }
+
+    /**
+     * Streaming variant of {@link #answer}: emits model tokens as they arrive, then a final
+     * "sources" frame. History and caches are written once the model stream completes.
+     * Short-circuited answers (quota, safety, caches) are emitted as a single token frame.
+     */
+    public Flux<ChatStreamEvent> stream(ChatRequest req) {
+        final String region = TenantRegionContext.getOverrideRegion();
+        final var cacheOnly = AdmissionController.currentCacheOnly();
+        final Long deadline = RequestDeadline.current();
+        return Flux.defer(() -> {
+            StageTimings timings = new StageTimings();
+            Prepared p = TenantRegionContext.callWith(region, () -> StageTimings.callWith(timings,
+                    () -> AdmissionController.callWith(cacheOnly, () -> RequestDeadline.callWith(deadline, () -> prepare(req)))));
+            if (p.response() != null) {
+                finish(timings, "short_circuit", p.response());
+                return Flux.just(ChatStreamEvent.token(p.response().answer()), ChatStreamEvent.sources(p.response(), null));
+            }
+            long t0 = System.currentTimeMillis();
+            long modelStart = System.nanoTime();
+            StringBuilder streamed = new StringBuilder();
+            Flux<String> tokens = Flux.using(() -> acquireModelSlot(p.tenantId()),
+                    slot -> (modelProxyClient != null && modelProxyClient.isEnabled())
+                            ? Mono.fromCallable(() -> callModel(p).text()).flux() // proxy has no streaming API; emit as one frame
+                            : guardedStream(p, p.client().prompt().system(p.systemText()).user(p.query()).stream().content()),
+                    this::releaseModelSlot);
+            Duration left = RequestDeadline.remaining(deadline);
+            if (left != null) { // bounds the time to the first token, not the whole stream
+                tokens = tokens.timeout(Mono.delay(left).then(Mono.error(() -> new DeadlineExceededException("model"))),
+                        t -> Mono.never());
+            }
+            return tokens
+                    .doOnNext(streamed::append)
+                    .map(ChatStreamEvent::token)
+                    .concatWith(Mono.fromCallable(() -> {
+                        timings.record("model", modelStart, System.nanoTime());
+                        String text = streamed.toString();
+                        ChatResponse r = TenantRegionContext.callWith(region, () -> StageTimings.callWith(timings,
+                                () -> complete(p, routed(p, text), System.currentTimeMillis() - t0)));
+                        finish(timings, "model", r);
+                        return ChatStreamEvent.sources(r, r.answer().startsWith(text) ? null : r.answer());
+                    }))
+                    // Nothing streamed yet: the degraded chain can still answer as a single frame.
+                    .onErrorResume(e -> streamed.length() > 0 || !(e instanceof RuntimeException re) ? Flux.error(e)
+                            : Mono.fromCallable(() -> TenantRegionContext.callWith(region,
+                                    () -> StageTimings.callWith(timings, () -> recover(p, re))))
+                            .flatMapMany(r -> {
+                                finish(timings, "degraded", r);
+                                return Flux.just(ChatStreamEvent.token(r.answer()), ChatStreamEvent.sources(r, null));
+                            }));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Non-blocking variant of {@link #answer}: retrieval (Qdrant REST / remote retrieval) and the model
+     * call (ChatClient stream or model proxy) are composed as one Mono chain instead of blocking a thread
+     * each. Steps without a reactive client (Mongo-backed quota/cache/history, safety, embedding) hop to
+     * boundedElastic. Identical in-flight questions are not coalesced on this path.
+     */
+    public Mono<ChatResponse> answerAsync(ChatRequest req) {
+        final String region = TenantRegionContext.getOverrideRegion();
+        final QueryEmbeddingContext embedding = QueryEmbeddingContext.of(req.question());
+        final Long deadline = RequestDeadline.current();
+        final var cacheOnly = AdmissionController.currentCacheOnly();
+        Mono<ChatResponse> answer = Mono.defer(() -> {
+            StageTimings timings = new StageTimings();
+            return Mono.fromCallable(() -> inRequestContext(region, embedding, timings, () -> admitted(shortCircuits(req), cacheOnly)))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(head -> head.response() != null ? Mono.just(finish(timings, "short_circuit", head.response()))
+                            : timed(timings, "retrieval", inRequestContext(region, embedding, timings,
+                                    () -> retrievalService.searchAsync(head.tenantId(), head.query(), req.document(), head.profile().topK())))
+                            .publishOn(Schedulers.boundedElastic())
+                            .map(hits -> inRequestContext(region, embedding, timings, () -> ground(req, head, hits)))
+                            .flatMap(p -> p.response() != null ? Mono.just(finish(timings, "short_circuit", p.response()))
+                                    : callAndCompleteAsync(p, region, timings)))
+                    .map(r -> r.withDebug(timings.toDebug()));
+        });
+        Duration left = RequestDeadline.remaining(deadline);
+        return left == null ? answer : answer.timeout(left, Mono.error(() -> new DeadlineExceededException("chat")));
+    }
+
+    private Mono<ChatResponse> callAndCompleteAsync(Prepared p, String region, StageTimings timings) {
+        return Mono.defer(() -> {
+            long t0 = System.currentTimeMillis();
+            Mono<ModelAnswer> model = Mono.using(() -> StageTimings.callWith(timings, () -> acquireModelSlot(p.tenantId())),
+                    slot -> timed(timings, "model", callModelAsync(p)), this::releaseModelSlot);
+            return model
+                    .map(modelAnswer -> (java.util.function.Supplier<ChatResponse>)
+                            () -> complete(p, modelAnswer, System.currentTimeMillis() - t0))
+                    .onErrorResume(RuntimeException.class,
+                            e -> Mono.<java.util.function.Supplier<ChatResponse>>just(() -> recover(p, e)))
+                    .publishOn(Schedulers.boundedElastic())
+                    .map(next -> inRequestContext(region, null, timings, next))
+                    .map(r -> finish(timings, "model", r));
+        });
+    }
+
+    private static <T> T inRequestContext(String region, QueryEmbeddingContext embedding, StageTimings timings,
+                                          java.util.function.Supplier<T> body) {
+        return TenantRegionContext.callWith(region, () -> QueryEmbeddingContext.callWith(embedding,
+                () -> StageTimings.callWith(timings, body)));
+    }
+
+    private static <T> Mono<T> timed(StageTimings timings, String stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signal -> timings.record(stage, start, System.nanoTime()));
+        });
+    }
+
+    /**
+     * Output of the pre-model stages: either a final {@code response} (short-circuit) or a prompt
+     * ready to send. {@code grounded} distinguishes KB-grounded prompts from the web fallback.
+     * {@code conversation} is the session history the prompt carries (NONE when stateless).
+     * {@code kbVersions} are the versions of the context's sources at retrieval, recorded with cached answers.
+     */
+    private record Prepared(String tenantId, String query, ModelRoutingService.Selection sel, String modelId,
+                            ChatClient client, String systemText, List<DocumentRetrievalService.Scored> strong,
+                            boolean grounded, ChatModeProfiles.Profile profile,
+                            ConversationService.History conversation, Map<String, Long> kbVersions, ChatResponse response) {
+        static Prepared done(ChatResponse response) {
+            return new Prepared(null, null, null, null, null, null, List.of(), false, null,
+                    ConversationService.History.NONE, Map.of(), response);
+        }
+
+        String sessionId() { return conversation.sessionId(); }
+
+        /** Answers to follow-ups depend on the conversation, so question-keyed caches neither serve nor store them. */
+        boolean followUp() { return conversation.isFollowUp(); }
+    }
+
+    private ChatModeProfiles.Profile profileFor(ChatRequest req) {
+        return modes != null ? modes.resolve(req.tenantId(), req.mode()) : ChatModeProfiles.Profile.legacy(rerankEnabled);
+    }
+
+    private Prepared prepare(ChatRequest req) {
+        // One embedding of the question serves the semantic cache, preference memory and retrieval.
+        return QueryEmbeddingContext.callWith(req.question(), () -> runPreModelStages(req));
+    }
+
+    /**
+     * Steps -1..2b: quota, safety and cache lookups. Returns a short-circuit response, or a Prepared
+     * with the model selection and no prompt yet (retrieval still to run).
+     */
+    private Prepared shortCircuits(ChatRequest req) {
         final String tenantId = req.tenantId();
         final String query    = req.question();
+        final var profile = profileFor(req);
+        final var conversation = conversations == null || req.sessionId() == null ? ConversationService.History.NONE
+                : StageTimings.time("session", () -> conversations.history(tenantId, req.sessionId()));
+        final String sessionId = conversation.sessionId();
+        final boolean followUp = conversation.isFollowUp();
+
+        // -1..2b) Independent pre-model lookups. With a stage executor they run concurrently and are
+        // consumed in priority order, so an early cache hit never pre-empts a quota or safety refusal;
+        // the first decisive result wins and the remaining lookups are cancelled.
+        var quotaStage  = new PreModelStage<>(stageExecutor, () -> StageTimings.time("quota", () -> quotas.allowRequest(tenantId)));
+        var safetyStage = new PreModelStage<>(stageExecutor, () -> StageTimings.time("safety", () -> guardrails.classifyQuestion(query)));
+        var cacheStage  = new PreModelStage<>(stageExecutor, () -> followUp ? java.util.Optional.<String>empty()
+                : StageTimings.time("semantic_cache", () -> profile.cacheThreshold() > 0
+                        ? cacheService.lookup(tenantId, query, profile.cacheThreshold()) // mode's own similarity threshold
+                        : cacheService.lookup(tenantId, query)));
+        var selStage    = new PreModelStage<>(stageExecutor, () -> StageTimings.time("model_selection", () -> profile.select(modelRouting.getForTenant(tenantId))));
+        var promptStage = selStage.then(sel -> followUp ? null
+                : StageTimings.time("prompt_cache", () -> promptCacheLookup(tenantId, sel, query)));
+        var prefStage   = new PreModelStage<>(stageExecutor, () -> followUp ? java.util.Optional.<String>empty()
+                : StageTimings.time("preference", () -> preferenceService.lookup(tenantId, query)));
 
         // -1) Quota check
-        if (!quotas.allowRequest(tenantId)) {
+        if (!warming() && !quotaStage.join()) {
+            PreModelStage.cancelAll(safetyStage, cacheStage, selStage, promptStage, prefStage);
             String msg = "Quota exceeded for this tenant. Please upgrade your plan or try later.";
-            String chatId = historyService.save(tenantId, query, msg, false, List.of());
-            return new ChatResponse(msg, List.of(), chatId, "REFUSE");
+            String chatId = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
+            return Prepared.done(new ChatResponse(msg, List.of(), chatId, "REFUSE"));
         }
-        quotas.recordRequest(tenantId);
+        if (!warming()) quotas.recordRequest(tenantId);
 
         // 0) Pre-safety check
-        var questionSafety = guardrails.classifyQuestion(query);
+        var questionSafety = safetyStage.join();
         if (questionSafety == GuardrailsService.SafetyOutcome.REFUSE) {
+            PreModelStage.cancelAll(cacheStage, selStage, promptStage, prefStage);
             String msg = "I can’t assist with that request.";
-            String chatId = historyService.save(tenantId, query, msg, false, List.of());
-            return new ChatResponse(msg, List.of(), chatId, "REFUSE");
+            String chatId = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
+            return Prepared.done(new ChatResponse(msg, List.of(), chatId, "REFUSE"));
         }
 
         // 1) Semantic cache
-        var cached = cacheService.lookup(tenantId, query);
+        var cached = cacheStage.join();
         if (cached.isPresent()) {
+            PreModelStage.cancelAll(selStage, promptStage, prefStage);
             metrics.counter("chat.requests", "tenantId", tenantId, "cache", "hit").increment();
             String ans = cached.get();
             List<String> noSources = List.of();
-            String chatId = historyService.save(tenantId, query, ans, true, noSources);
-            events.chat(tenantId, query, true);
+            String chatId = saveHistory(tenantId, query, ans, true, noSources, sessionId);
+            publishChat(tenantId, query, true);
             chatMetrics.incHit(tenantId);
-            return new ChatResponse(ans, noSources, chatId, "SAFE");
+            return Prepared.done(new ChatResponse(ans, noSources, chatId, "SAFE"));
         }
 
         // 2a) Prompt cache (exact prompt/model caching)
-        var sel = modelRouting.getForTenant(tenantId);
-        String modelId = (sel.provider() == null ? "ollama" : sel.provider()) + ":" + (sel.chatModel() == null ? "default" : sel.chatModel());
-        String cachedPrompt = promptCache.lookup(tenantId, modelId, query);
-        ChatClient chatToUse = (modelRouter != null) ? modelRouter.chatClientFor(tenantId, sel) : chatClient;
+        var sel = selStage.join();
+        String modelId = modelIdOf(sel);
+        String cachedPrompt = promptStage.join();
+        ChatClient chatToUse = profile.overridesModel() ? clientFor(tenantId, sel)
+                : (modelRouter != null) ? modelRouter.chatClientFor(tenantId, sel) : chatClient;
         if (cachedPrompt != null) {
-            String chatId = historyService.save(tenantId, query, cachedPrompt, true, List.of());
-            return new ChatResponse(cachedPrompt, List.of(), chatId, null);
+            prefStage.cancel();
+            String chatId = saveHistory(tenantId, query, cachedPrompt, true, List.of(), sessionId);
+            return Prepared.done(new ChatResponse(cachedPrompt, List.of(), chatId, null));
         }
 
         // 2b) Preference memory (highly-rated past answers)
-        var preferred = preferenceService.lookup(tenantId, query);
+        var preferred = prefStage.join();
         if (preferred.isPresent()) {
             String ans = preferred.get();
             List<String> noSources = List.of();
-            String chatId = historyService.save(tenantId, query, ans, true, noSources);
-            events.chat(tenantId, query, true);
+            String chatId = saveHistory(tenantId, query, ans, true, noSources, sessionId);
+            publishChat(tenantId, query, true);
             metrics.counter("chat.requests", "tenantId", tenantId, "cache", "pref").increment();
-            return new ChatResponse(ans, noSources, chatId, null);
+            return Prepared.done(new ChatResponse(ans, noSources, chatId, null));
         }
 
+        return new Prepared(tenantId, query, sel, modelId, chatToUse, null, List.of(), false, profile, conversation, Map.of(), null);
+    }
+
+    private Prepared runPreModelStages(ChatRequest req) {
+        Prepared head = admitted(shortCircuits(req), AdmissionController.currentCacheOnly());
+        if (head.response() != null) return head;
         // 3) Retrieval (vector search; per-tenant)
-        var hits = retrievalService.search(tenantId, query, req.document(), 8);
-        if (rerankEnabled && reranker != null) {
-            hits = reranker.rerank(tenantId, query, hits);
+        RequestDeadline.check("retrieval");
+        var hits = StageTimings.time("retrieval", () -> retrievalService.search(req.tenantId(), req.question(), req.document(), head.profile().topK()));
+        return ground(req, head, hits);
+    }
+
+    /**
+     * Admission put the request on cache-only service (see {@link AdmissionController}): past the cache
+     * stages it is answered from a stale semantic-cache entry when there is one, otherwise shed (429/503)
+     * and the request recorded against the tenant's quota is given back.
+     */
+    private Prepared admitted(Prepared head, AdmissionController.CacheOnly cacheOnly) {
+        if (head.response() != null || cacheOnly == null) return head;
+        var stale = staleAnswer(head);
+        if (stale.isPresent()) return Prepared.done(stale.get());
+        metrics.counter("chat.admission.shed", "level", "cache_only", "status", cacheOnly.tooManyRequests() ? "429" : "503").increment();
+        var shed = cacheOnly.exception();
+        if (!warming()) {
+            try {
+                quotas.refundRequest(head.tenantId());
+            } catch (RuntimeException e) {
+                shed.addSuppressed(e); // still a 429/503, not a 500
+            }
         }
-        List<DocumentRetrievalService.Scored> strong = hits.stream()
+        throw shed;
+    }
+
+    /** Steps 3-6 given the retrieval hits: rerank, grounding guardrail / web fallback, prompt, budget. */
+    private Prepared ground(ChatRequest req, Prepared head, List<DocumentRetrievalService.Scored> hits) {
+        final String tenantId = head.tenantId();
+        final String query    = head.query();
+        final var sel = head.sel();
+        final String modelId = head.modelId();
+        final ChatClient chatToUse = head.client();
+        final var profile = head.profile();
+        final var conversation = head.conversation();
+        final String sessionId = head.sessionId();
+        if (profile.rerank() && reranker != null) {
+            var retrieved = hits;
+            hits = StageTimings.time("rerank", () -> reranker.rerank(tenantId, query, retrieved));
+        }
+        List<DocumentRetrievalService.Scored> relevant = hits.stream()
                 .filter(s -> s.score() >= scoreThreshold)
-                .limit(5)
                 .toList();
+        List<DocumentRetrievalService.Scored> strong = contextAssembler != null
+                ? StageTimings.time("context", () -> contextAssembler.assemble(query, relevant,
+                        contextAssembler.budgetFor(modelId, profile.contextTokens()), profile.maxChunks()).chunks())
+                : withinContextBudget(relevant.stream().limit(profile.maxChunks()).toList(), profile.contextTokens());
 
         // 4) Guardrails: grounded-only unless allowWeb == true
         if (strong.isEmpty() && !req.allowWeb()) {
             metrics.counter("chat.requests", "tenantId", tenantId, "cache", "miss", "answer", "empty").increment();
             String noAns = "I don't know based on the provided knowledge.";
-            cacheService.save(tenantId, query, noAns);
-            String chatId = historyService.save(tenantId, query, noAns, false, List.of());
-            events.chat(tenantId, query, false);
+            if (!head.followUp()) saveSemanticCache(tenantId, query, noAns);
+            String chatId = saveHistory(tenantId, query, noAns, false, List.of(), sessionId);
+            publishChat(tenantId, query, false);
             chatMetrics.incMissEmpty(tenantId);
             // consider fallback features
             boolean fallbackAllowed = req.fallback() != null && Boolean.TRUE.equals(req.fallback().enabled());
             fallbackAllowed = fallbackAllowed || tenantSettings.getOrCreate(tenantId).isFallbackEnabled();
             if (fallbackAllowed) {
                 int maxCalls = req.fallback() != null && req.fallback().maxWebCalls() != null ? req.fallback().maxWebCalls() : 2;
-                List<org.springframework.ai.document.Document> webDocs = web.search(query, Math.max(1, maxCalls));
+                List<org.springframework.ai.document.Document> webDocs = StageTimings.time("web_search", () -> web.search(query, Math.max(1, maxCalls)));
                 if (!webDocs.isEmpty()) {
-                    StringBuilder webCtx = new StringBuilder();
-                    for (var d : webDocs) webCtx.append(d.getText()).append("\n---\n");
-                    String systemText = "Use ONLY the information in <CONTEXT> to answer. If unknown, say you don't know. <CONTEXT>\n" + webCtx + "\n</CONTEXT>";
+                    String systemText = withConversation(webPrompt(webDocs), conversation);
                     if (!budgets.allowSpend(tenantId, costPerCallUsd)) {
                         String msg = "Budget exceeded for this tenant. Please try later.";
-                        String id2 = historyService.save(tenantId, query, msg, false, List.of());
-                        return new ChatResponse(msg, List.of(), id2, "REFUSE");
+                        String id2 = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
+                        return Prepared.done(new ChatResponse(msg, List.of(), id2, "REFUSE"));
                     }
-                    String modelAnswer = (modelProxyClient != null && modelProxyClient.isEnabled())
-                            ? modelProxyClient.chat(tenantId, sel.provider(), sel.chatModel(), systemText, query)
-                            : chatToUse.prompt().system(systemText).user(query).call().content();
-                    // Post safety
-                    var outSafety = guardrails.classifyAnswer(modelAnswer);
-                    if (outSafety == GuardrailsService.SafetyOutcome.REFUSE) {
-                        String msg = "I can't provide that information.";
-                        String id2 = historyService.save(tenantId, query, msg, false, List.of());
-                        return new ChatResponse(msg, List.of(), id2, "REFUSE");
-                    }
-                    promptCache.save(tenantId, modelId, query, modelAnswer);
-                    String id2 = historyService.save(tenantId, query, modelAnswer, false, List.of());
-                    return new ChatResponse(modelAnswer, List.of(), id2, "SAFE");
+                    return new Prepared(tenantId, query, sel, modelId, chatToUse, systemText, List.of(), false, profile, conversation, Map.of(), null);
                 }
             }
-            return new ChatResponse(noAns, List.of(), chatId, "SAFE");
+            return Prepared.done(new ChatResponse(noAns, List.of(), chatId, "SAFE"));
         }
 
-        // 5) Build grounded context (Document#getText() in Spring AI 1.0+)
-        StringBuilder ctx = new StringBuilder();
-        for (var s : strong) {
-            ctx.append(s.doc().getText()).append("\n---\n");
+        // 5) Build grounded context: static instructions first, chunks in a stable order (prefix-cache friendly)
+        String systemText = withConversation(groundedPrompt(strong), conversation);
+
+        // 6) Cost guardrails (optional budget enforcement); a cascaded answer may pay for both tiers
+        double worstCaseUsd = costPerCallUsd
+                + (cascade != null && cascade.smallTierFor(sel).isPresent() ? cascade.smallCostPerCallUsd() : 0);
+        if (!budgets.allowSpend(tenantId, worstCaseUsd)) {
+            String msg = "Budget exceeded for this tenant. Please try later.";
+            String chatId = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
+            return Prepared.done(new ChatResponse(msg, List.of(), chatId, null));
         }
+        // Source versions as of retrieval, so an ingest while the model answers leaves the answer already stale.
+        Map<String, Long> kbVersions = this.kbVersions != null ? this.kbVersions.snapshot(tenantId, sourcesOf(strong)) : Map.of();
+        return new Prepared(tenantId, query, sel, modelId, chatToUse, systemText, strong, true, profile, conversation, kbVersions, null);
+    }
 
-        String systemText = """
-            You are Owl, a helpful assistant for enterprise knowledge.
-            Use ONLY the information inside <CONTEXT>. If the answer is not in <CONTEXT>,
-            reply exactly: "I don't know based on the provided knowledge."
-            Keep answers concise. If helpful, add a brief "Sources" list.
-            <CONTEXT>
-            """ + ctx + "\n</CONTEXT>";
+    private String groundedPrompt(List<DocumentRetrievalService.Scored> chunks) {
+        return promptLayout != null ? promptLayout.grounded(chunks)
+                : PromptLayout.render(PromptLayout.GROUNDED_INSTRUCTIONS, chunks.stream().map(DocumentRetrievalService.Scored::doc).toList());
+    }
 
-        // 6) Cost guardrails (optional budget enforcement)
-        if (!budgets.allowSpend(tenantId, costPerCallUsd)) {
-            String msg = "Budget exceeded for this tenant. Please try later.";
-            String chatId = historyService.save(tenantId, query, msg, false, List.of());
-            return new ChatResponse(msg, List.of(), chatId, null);
+    private String webPrompt(List<org.springframework.ai.document.Document> docs) {
+        return promptLayout != null ? promptLayout.web(docs) : PromptLayout.render(PromptLayout.WEB_INSTRUCTIONS, docs);
+    }
+
+    private void recordPrefix(String backend, String systemText) {
+        if (promptLayout != null) promptLayout.recordPrefix(backend, systemText);
+    }
+
+    /** systemText followed by the session's history block; the static prefix stays first. */
+    private static String withConversation(String systemText, ConversationService.History conversation) {
+        String block = ConversationService.render(conversation);
+        return block.isEmpty() ? systemText : systemText + "\n" + block;
+    }
+
+    /** Without a ContextAssembler: best-first chunks up to the mode's budget (~4 chars per token; 0 = unbounded), at least one. */
+    private static List<DocumentRetrievalService.Scored> withinContextBudget(List<DocumentRetrievalService.Scored> chunks, int tokens) {
+        if (tokens <= 0) return chunks;
+        long budgetChars = tokens * 4L;
+        long used = 0;
+        List<DocumentRetrievalService.Scored> kept = new java.util.ArrayList<>();
+        for (var c : chunks) {
+            int len = c.doc().getText() == null ? 0 : c.doc().getText().length();
+            if (!kept.isEmpty() && used + len > budgetChars) break;
+            kept.add(c);
+            used += len;
+        }
+        return kept;
+    }
+
+    /** The routed model's cached answer, else one the cascade's small tier gave (kept under that tier's id). */
+    private String promptCacheLookup(String tenantId, ModelRoutingService.Selection sel, String query) {
+        String cached = promptCache.lookup(tenantId, modelIdOf(sel), query);
+        if (cached != null || cascade == null) return cached;
+        var small = cascade.smallTierFor(sel);
+        return small.isPresent() ? promptCache.lookup(tenantId, modelIdOf(small.get()), query) : null;
+    }
+
+    private static String modelIdOf(ModelRoutingService.Selection sel) {
+        return (sel.provider() == null ? "ollama" : sel.provider()) + ":" + (sel.chatModel() == null ? "default" : sel.chatModel());
+    }
+
+    // Per-tenant bulkhead + fair queuing in front of every model call (see ModelCallScheduler).
+
+    private ModelCallScheduler.Permit acquireModelSlot(String tenantId) {
+        if (scheduler == null) return ModelCallScheduler.Permit.NONE;
+        return warming() ? scheduler.acquireBackground() : scheduler.acquire(tenantId);
+    }
+
+    private void releaseModelSlot(ModelCallScheduler.Permit slot) {
+        if (scheduler != null) scheduler.release(slot);
+    }
+
+    /**
+     * A model's answer, the backend that gave it (prompt-cache key) and the cost of every tier called for it;
+     * text is null for a cascade draft the verifier rejected.
+     */
+    private record ModelAnswer(String text, String modelId, double costUsd) {}
+
+    /** An answer from the routed model alone. */
+    private ModelAnswer routed(Prepared p, String text) {
+        return new ModelAnswer(text, p.modelId(), costPerCallUsd);
+    }
+
+    /**
+     * Call the model within the request deadline. With the cascade on, a grounded prompt is first drafted by
+     * the small tier and only escalates to the routed model when the verifier rejects it (see {@link ModelCascade}).
+     */
+    private ModelAnswer callModel(Prepared p) {
+        RequestDeadline.check("model");
+        var small = cascadeTier(p);
+        if (small == null) return routed(p, callRoutedModel(p));
+        ModelAnswer draft = draft(p, small);
+        if (draft.text() != null) return draft;
+        long t0 = System.nanoTime();
+        try {
+            return new ModelAnswer(callRoutedModel(p), p.modelId(), draft.costUsd() + costPerCallUsd);
+        } finally {
+            cascade.recordTier("large", System.nanoTime() - t0);
+        }
+    }
+
+    private ModelRoutingService.Selection cascadeTier(Prepared p) {
+        return cascade == null || !p.grounded() ? null : cascade.smallTierFor(p.sel()).orElse(null);
+    }
+
+    private ChatClient clientFor(String tenantId, ModelRoutingService.Selection sel) {
+        return modelRouter != null ? modelRouter.pinnedClientFor(tenantId, sel) : chatClient;
+    }
+
+    /** The small tier's draft; its text is null when the verifier rejects it (escalate), its cost 0 when the call failed. */
+    private ModelAnswer draft(Prepared p, ModelRoutingService.Selection small) {
+        ChatClient client = clientFor(p.tenantId(), small);
+        long t0 = System.nanoTime();
+        final String draft;
+        try {
+            draft = StageTimings.time("model_small", () -> callBounded(p, small, client));
+        } catch (DeadlineExceededException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            cascade.recordError();
+            return new ModelAnswer(null, modelIdOf(small), 0);
+        } finally {
+            cascade.recordTier("small", System.nanoTime() - t0);
+        }
+        return verified(p, small, draft);
+    }
+
+    private ModelAnswer verified(Prepared p, ModelRoutingService.Selection small, String draft) {
+        var verdict = StageTimings.time("verify", () -> cascade.verify(draft, p.strong()));
+        cascade.recordOutcome(verdict);
+        return new ModelAnswer(verdict.accepted() ? draft : null, modelIdOf(small), cascade.smallCostPerCallUsd());
+    }
+
+    /** The routed (large) model, hedged when enabled (see {@link HedgedModelCaller}). */
+    private String callRoutedModel(Prepared p) {
+        if (modelCaller == null) return callModel(p, p.sel(), p.client());
+        java.util.function.Supplier<String> hedge = null;
+        if (modelCaller.isEnabled()) {
+            var hedgeSel = (hedgeProvider == null || hedgeProvider.isBlank()) ? p.sel()
+                    : new ModelRoutingService.Selection(hedgeProvider, hedgeModel == null || hedgeModel.isBlank() ? null : hedgeModel, p.sel().embedModel());
+            ChatClient hedgeClient = hedgeSel == p.sel() ? p.client()
+                    : (modelRouter != null ? modelRouter.chatClientFor(p.tenantId(), hedgeSel) : chatClient);
+            hedge = () -> callModel(p, hedgeSel, hedgeClient);
+        }
+        return modelCaller.call(() -> callModel(p, p.sel(), p.client()), hedge);
+    }
+
+    /** A backend other than the routed model (small tier, fallback): not hedged, still cut off at the deadline. */
+    private String callBounded(Prepared p, ModelRoutingService.Selection sel, ChatClient client) {
+        if (modelCaller == null) {
+            RequestDeadline.check("model");
+            return callModel(p, sel, client);
         }
+        return modelCaller.bounded(() -> callModel(p, sel, client));
+    }
+
+    /** Call the model via the fluent ChatClient API (or the remote model proxy when configured). */
+    private String callModel(Prepared p, ModelRoutingService.Selection sel, ChatClient client) {
+        recordPrefix(modelIdOf(sel), p.systemText());
+        return callModel(p.tenantId(), sel, client, p.systemText(), p.query());
+    }
+
+    private String callModel(String tenantId, ModelRoutingService.Selection sel, ChatClient client, String system, String user) {
+        String backend = modelIdOf(sel);
+        java.util.function.Supplier<String> call = () -> (modelProxyClient != null && modelProxyClient.isEnabled())
+                ? modelProxyClient.chat(tenantId, sel.provider(), sel.chatModel(), system, user)
+                : client.prompt().system(system).user(user).call().content();
+        java.util.function.Supplier<String> limited = limiter == null ? call : () -> limiter.call(backend, call);
+        return breakers == null ? limited.get() : breakers.call(backend, limited);
+    }
 
-        // 7) Call the model via the fluent ChatClient API
-        Timer.Sample sample = Timer.start();
+    /**
+     * A model call made for the tenant outside a chat request (session summaries): the tenant's routed model
+     * behind its scheduler slot, adaptive limit and breaker, refused once over budget and charged like an
+     * answer. Throws when any of them refuses or the call fails.
+     */
+    String backgroundCall(String tenantId, String system, String user) {
+        if (!budgets.allowSpend(tenantId, costPerCallUsd)) throw new IllegalStateException("Budget exceeded for tenant " + tenantId);
+        var sel = modelRouting.getForTenant(tenantId);
+        ChatClient client = modelRouter != null ? modelRouter.chatClientFor(tenantId, sel) : chatClient;
         long t0 = System.currentTimeMillis();
-        String modelAnswer = (modelProxyClient != null && modelProxyClient.isEnabled())
-                ? modelProxyClient.chat(tenantId, sel.provider(), sel.chatModel(), systemText, query)
-                : chatToUse.prompt().system(systemText).user(query).call().content();
-        long dur = System.currentTimeMillis() - t0;
-        sample.stop(metrics.timer("chat.model.time", "tenantId", tenantId));
-        chatMetrics.addModelMs(tenantId, dur);
+        String out;
+        var slot = acquireModelSlot(tenantId);
+        try {
+            out = callModel(tenantId, sel, client, system, user);
+        } finally {
+            releaseModelSlot(slot);
+        }
         budgets.recordSpend(tenantId, costPerCallUsd);
         metrics.counter("chat.cost.usd", "tenantId", tenantId).increment(costPerCallUsd);
-        events.cost(tenantId, costPerCallUsd, dur);
+        events.cost(tenantId, costPerCallUsd, System.currentTimeMillis() - t0);
+        return out;
+    }
 
-        // 6) Append brief source hints
-        List<String> sources = strong.stream().map(s -> {
+    private Mono<ModelAnswer> callModelAsync(Prepared p) {
+        var small = cascadeTier(p);
+        if (small == null) return callModelAsync(p, p.sel(), p.client()).map(text -> routed(p, text));
+        Mono<String> large = cascadeTimed("large", callModelAsync(p, p.sel(), p.client()));
+        return cascadeTimed("small", callModelAsync(p, small, clientFor(p.tenantId(), small)))
+                .map(draft -> verified(p, small, draft))
+                .onErrorResume(e -> e instanceof DeadlineExceededException ? Mono.error(e)
+                        : Mono.fromRunnable(cascade::recordError).then(Mono.just(new ModelAnswer(null, modelIdOf(small), 0))))
+                .flatMap(draft -> draft.text() != null ? Mono.just(draft)
+                        : large.map(text -> new ModelAnswer(text, p.modelId(), draft.costUsd() + costPerCallUsd)));
+    }
+
+    private Mono<String> cascadeTimed(String tier, Mono<String> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doFinally(signal -> cascade.recordTier(tier, System.nanoTime() - start));
+        });
+    }
+
+    private Mono<String> callModelAsync(Prepared p, ModelRoutingService.Selection sel, ChatClient client) {
+        Mono<String> call = (modelProxyClient != null && modelProxyClient.isEnabled())
+                ? modelProxyClient.chatAsync(p.tenantId(), sel.provider(), sel.chatModel(), p.systemText(), p.query())
+                : client.prompt().system(p.systemText()).user(p.query()).stream().content()
+                        .collect(Collectors.joining());
+        recordPrefix(modelIdOf(sel), p.systemText());
+        if (limiter == null && breakers == null) return call;
+        return Mono.defer(() -> {
+            var g = guardCall(modelIdOf(sel));
+            return call.doOnSuccess(v -> g.onSuccess()).doOnError(g::onError).doOnCancel(g::onIgnore);
+        });
+    }
+
+    /** Token stream under the backend's breaker and adaptive limit; latency is sampled at stream completion. */
+    private Flux<String> guardedStream(Prepared p, Flux<String> tokens) {
+        recordPrefix(p.modelId(), p.systemText());
+        if (limiter == null && breakers == null) return tokens;
+        return Flux.defer(() -> {
+            var g = guardCall(p.modelId());
+            return tokens.doOnComplete(g::onSuccess).doOnError(g::onError).doOnCancel(g::onIgnore);
+        });
+    }
+
+    /** Breaker permission plus limiter slot for one reactive call; throws when either refuses it. */
+    private GuardedCall guardCall(String backend) {
+        var g = breakers != null ? breakers.acquire(backend) : ModelCircuitBreakers.Guard.NONE;
+        try {
+            return new GuardedCall(g, limiter != null ? limiter.acquire(backend) : AdaptiveConcurrencyLimiter.Listener.NONE);
+        } catch (RuntimeException e) {
+            g.onError(e); // limiter shedding is an ignored exception: frees the permission without a failure
+            throw e;
+        }
+    }
+
+    private record GuardedCall(ModelCircuitBreakers.Guard breaker, AdaptiveConcurrencyLimiter.Listener limit) {
+        void onSuccess() { limit.onSuccess(); breaker.onSuccess(); }
+        void onError(Throwable t) { limit.onError(t); breaker.onError(t); }
+        void onIgnore() { limit.onIgnore(); breaker.onIgnore(); }
+    }
+
+    /**
+     * Degraded mode after a failed model call (or an open circuit): the alternate model
+     * (owl.llm.fallback.provider/model), then a stale semantic-cache answer, then for KB-grounded prompts an
+     * extract of the retrieved chunks. Rethrows cause when nothing applies; an open circuit then surfaces
+     * as 503 with Retry-After. Degraded answers are kept out of the caches.
+     */
+    private ChatResponse recover(Prepared p, RuntimeException cause) {
+        if (breakers == null || cause instanceof DeadlineExceededException) throw cause;
+        final String tenantId = p.tenantId();
+        final String query = p.query();
+        final String sessionId = p.sessionId();
+
+        var alternate = breakers.alternateFor(p.sel()).filter(s -> breakers.isCallPermitted(modelIdOf(s)));
+        if (alternate.isPresent()) {
+            var sel = alternate.get();
+            ChatClient client = modelRouter != null ? modelRouter.chatClientFor(tenantId, sel) : chatClient;
+            try {
+                long t0 = System.currentTimeMillis();
+                String answer;
+                var slot = acquireModelSlot(tenantId); // the failed call's slot is already released
+                try {
+                    answer = StageTimings.time("model_fallback", () -> callBounded(p, sel, client));
+                } finally {
+                    releaseModelSlot(slot);
+                }
+                countDegraded(tenantId, "alternate_model");
+                return complete(p, new ModelAnswer(answer, modelIdOf(sel), costPerCallUsd), System.currentTimeMillis() - t0, false);
+            } catch (DeadlineExceededException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+
+        var stale = staleAnswer(p);
+        if (stale.isPresent()) return stale.get();
+
+        if (p.grounded()) {
+            String extract = ExtractiveAnswers.from(query, p.strong(), 3);
+            if (!extract.isEmpty()) {
+                List<String> sources = sourcesOf(p.strong());
+                StringBuilder sb = new StringBuilder("The assistant is temporarily unavailable. ")
+                        .append("The most relevant passages from the knowledge base:\n\n").append(extract);
+                if (!sources.isEmpty()) {
+                    sb.append("\n\nSources:\n");
+                    for (var name : sources) sb.append("- ").append(name).append("\n");
+                }
+                String answer = sb.toString();
+                countDegraded(tenantId, "extractive");
+                String chatId = saveHistory(tenantId, query, answer, false, sources, sessionId);
+                publishChat(tenantId, query, false);
+                return new ChatResponse(answer, sources, chatId, "SAFE");
+            }
+        }
+
+        if (cause instanceof CallNotPermittedException) {
+            throw new OverloadedException("Model backend " + p.modelId() + " is unavailable",
+                    breakers.retryAfterSeconds(p.modelId()));
+        }
+        throw cause;
+    }
+
+    /** Nearest semantic-cache answer above owl.llm.fallback.stale-cache-threshold, recorded as a cache hit. */
+    private java.util.Optional<ChatResponse> staleAnswer(Prepared p) {
+        if (staleCacheThreshold <= 0 || p.followUp()) return java.util.Optional.empty();
+        final String tenantId = p.tenantId();
+        final String query = p.query();
+        final String sessionId = p.sessionId();
+        var stale = StageTimings.time("stale_cache", () -> cacheService.lookup(tenantId, query, staleCacheThreshold));
+        if (stale.isEmpty()) return java.util.Optional.empty();
+        countDegraded(tenantId, "stale_cache");
+        String chatId = saveHistory(tenantId, query, stale.get(), true, List.of(), sessionId);
+        publishChat(tenantId, query, true);
+        return java.util.Optional.of(new ChatResponse(stale.get(), List.of(), chatId, "SAFE"));
+    }
+
+    private void countDegraded(String tenantId, String via) {
+        metrics.counter("chat.degraded", "tenantId", tenantId, "via", via).increment();
+    }
+
+    private static List<String> sourcesOf(List<DocumentRetrievalService.Scored> strong) {
+        return strong.stream().map(s -> {
             var md = s.doc().getMetadata();
             return Objects.toString(md.getOrDefault("filename", md.getOrDefault("url", "doc")));
         }).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * Post-model stages: cost accounting, source hints, post-safety, caching and history. The prompt cache is
+     * keyed by the backend that answered (answer.modelId()).
+     */
+    private ChatResponse complete(Prepared p, ModelAnswer answer, long dur) {
+        return complete(p, answer, dur, true);
+    }
+
+    /** cacheable false: a degraded answer (not from p.modelId()), returned and recorded but never cached. */
+    private ChatResponse complete(Prepared p, ModelAnswer answer, long dur, boolean cacheable) {
+        final String tenantId = p.tenantId();
+        final String query = p.query();
+        final String sessionId = p.sessionId();
+        final String modelAnswer = answer.text();
+
+        if (!p.grounded()) {
+            // Post safety
+            var outSafety = StageTimings.time("post_safety", () -> guardrails.classifyAnswer(modelAnswer));
+            if (outSafety == GuardrailsService.SafetyOutcome.REFUSE) {
+                String msg = "I can't provide that information.";
+                String id2 = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
+                return new ChatResponse(msg, List.of(), id2, "REFUSE");
+            }
+            if (cacheable && !p.followUp()) savePromptCache(tenantId, answer.modelId(), query, modelAnswer);
+            String id2 = saveHistory(tenantId, query, modelAnswer, false, List.of(), sessionId);
+            return new ChatResponse(modelAnswer, List.of(), id2, "SAFE");
+        }
+
+        metrics.timer("chat.model.time", "tenantId", tenantId).record(dur, TimeUnit.MILLISECONDS);
+        chatMetrics.addModelMs(tenantId, dur);
+        if (!warming()) { // warming is platform spend, not the tenant's
+            budgets.recordSpend(tenantId, answer.costUsd());
+            metrics.counter("chat.cost.usd", "tenantId", tenantId).increment(answer.costUsd());
+            events.cost(tenantId, answer.costUsd(), dur);
+        }
+
+        // 6) Append brief source hints
+        List<String> sources = sourcesOf(p.strong());
 
         StringBuilder sb = new StringBuilder(modelAnswer);
         if (!sources.isEmpty()) {
@@ -242,21 +982,72 @@ public class ChatService {
         String finalAnswer = sb.toString();
 
         // Post-safety check
-        var outSafety = guardrails.classifyAnswer(finalAnswer);
+        var outSafety = StageTimings.time("post_safety", () -> guardrails.classifyAnswer(finalAnswer));
         if (outSafety == GuardrailsService.SafetyOutcome.REFUSE) {
             String msg = "I can't provide that information.";
-            String id2 = historyService.save(tenantId, query, msg, false, List.of());
+            String id2 = saveHistory(tenantId, query, msg, false, List.of(), sessionId);
             return new ChatResponse(msg, List.of(), id2, "REFUSE");
         }
 
-        // 7) Cache final answer
-        cacheService.save(tenantId, query, finalAnswer);
-        promptCache.save(tenantId, modelId, query, finalAnswer);
-        String chatId = historyService.save(tenantId, query, finalAnswer, false, sources);
-        events.chat(tenantId, query, false);
+        // 7) Cache final answer (not follow-ups: their answer depends on the conversation)
+        if (cacheable && !p.followUp()) {
+            saveSemanticCache(tenantId, query, finalAnswer, p.kbVersions());
+            savePromptCache(tenantId, answer.modelId(), query, finalAnswer, p.kbVersions());
+        }
+        String chatId = saveHistory(tenantId, query, finalAnswer, false, sources, sessionId);
+        publishChat(tenantId, query, false);
         metrics.counter("chat.requests", "tenantId", tenantId, "cache", "miss", "answer", "ok").increment();
         chatMetrics.incMissOk(tenantId);
 
         return new ChatResponse(finalAnswer, sources, chatId, "SAFE");
     }
+
+    // Side effects of an answer: queued on the write-behind pipeline when available, otherwise inline.
+
+    private String saveHistory(String tenantId, String query, String answer, boolean cacheHit, List<String> sources,
+                               String sessionId) {
+        if (warming()) return null;
+        if (sessionId == null) {
+            return StageTimings.time("persist", () -> writeBehind != null
+                    ? writeBehind.history(tenantId, query, answer, cacheHit, sources)
+                    : historyService.save(tenantId, query, answer, cacheHit, sources));
+        }
+        if (conversations != null) conversations.append(tenantId, sessionId, query, answer);
+        return StageTimings.time("persist", () -> writeBehind != null
+                ? writeBehind.history(tenantId, query, answer, cacheHit, sources, sessionId)
+                : historyService.save(tenantId, query, answer, cacheHit, sources, sessionId));
+    }
+
+    private void saveSemanticCache(String tenantId, String query, String answer) {
+        saveSemanticCache(tenantId, query, answer, Map.of());
+    }
+
+    /** kbVersions: source versions the answer was grounded on (empty when not versioned). */
+    private void saveSemanticCache(String tenantId, String query, String answer, Map<String, Long> kbVersions) {
+        StageTimings.time("persist", () -> {
+            if (writeBehind != null) writeBehind.semanticCache(tenantId, query, answer, kbVersions);
+            else if (kbVersions.isEmpty()) cacheService.save(tenantId, query, answer);
+            else cacheService.save(tenantId, query, answer, kbVersions);
+        });
+    }
+
+    private void savePromptCache(String tenantId, String modelId, String query, String answer) {
+        savePromptCache(tenantId, modelId, query, answer, Map.of());
+    }
+
+    private void savePromptCache(String tenantId, String modelId, String query, String answer, Map<String, Long> kbVersions) {
+        StageTimings.time("persist", () -> {
+            if (writeBehind != null) writeBehind.promptCache(tenantId, modelId, query, answer, kbVersions);
+            else if (kbVersions.isEmpty()) promptCache.save(tenantId, modelId, query, answer);
+            else promptCache.save(tenantId, modelId, query, answer, kbVersions);
+        });
+    }
+
+    private void publishChat(String tenantId, String query, boolean cacheHit) {
+        if (warming()) return;
+        StageTimings.time("persist", () -> {
+            if (writeBehind != null) writeBehind.chatEvent(tenantId, query, cacheHit);
+            else events.chat(tenantId, query, cacheHit);
+        });
+    }
 }
@@ -0,0 +1,147 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Builds the grounded prompt's context within a token budget: the smaller of the model's budget
+ * (owl.chat.context.model-budgets, "provider:model=tokens,...", "default" as fallback) and the chat mode's.
+ * Candidates are taken best score first; near-duplicates of an already kept chunk (term-set Jaccard
+ * >= dedupe-threshold) are dropped, chunks over chunk-tokens are trimmed to their most query-relevant
+ * sentences (kept in document order), and each chunk is added while it still fits. Tokens are counted
+ * with the cl100k tokenizer (JTokkit, as TokenTextSplitter uses on ingest).
+ *
+ * Metrics: chat.context.tokens, chat.context.dropped{reason=duplicate|budget}, chat.context.trimmed.
+ */
+@Component
+public class ContextAssembler {
+
+    public record Context(List<DocumentRetrievalService.Scored> chunks, int tokens) {}
+
+    private final MeterRegistry metrics;
+    private final TokenCountEstimator tokenizer;
+    private final Map<String, Integer> modelBudgets = new HashMap<>();
+    private final int defaultBudget;
+    private final int chunkTokens;
+    private final double dedupeThreshold;
+
+    public ContextAssembler(MeterRegistry metrics,
+                            @Value("${owl.chat.context.model-budgets:default=3000}") String modelBudgets,
+                            @Value("${owl.chat.context.chunk-tokens:400}") int chunkTokens,
+                            @Value("${owl.chat.context.dedupe-threshold:0.85}") double dedupeThreshold) {
+        this(metrics, new JTokkitTokenCountEstimator(), modelBudgets, chunkTokens, dedupeThreshold);
+    }
+
+    ContextAssembler(MeterRegistry metrics, TokenCountEstimator tokenizer, String modelBudgets,
+                     int chunkTokens, double dedupeThreshold) {
+        this.metrics = metrics;
+        this.tokenizer = tokenizer;
+        ModelCallScheduler.parse(modelBudgets).forEach((k, v) -> this.modelBudgets.put(k, Math.max(1, v.intValue())));
+        this.defaultBudget = this.modelBudgets.getOrDefault("default", 3000);
+        this.chunkTokens = Math.max(1, chunkTokens);
+        this.dedupeThreshold = dedupeThreshold;
+    }
+
+    public int tokens(String text) {
+        return text == null || text.isEmpty() ? 0 : tokenizer.estimate(text);
+    }
+
+    /** Token budget for modelId, capped by the mode's budget (0 = no mode cap). */
+    public int budgetFor(String modelId, int modeTokens) {
+        int model = modelBudgets.getOrDefault(modelId, defaultBudget);
+        return modeTokens > 0 ? Math.min(model, modeTokens) : model;
+    }
+
+    /** At most maxChunks of candidates within budget tokens, best score first; never empty when candidates is not. */
+    public Context assemble(String query, List<DocumentRetrievalService.Scored> candidates, int budget, int maxChunks) {
+        Set<String> queryTerms = ExtractiveAnswers.terms(query);
+        List<DocumentRetrievalService.Scored> ranked = candidates.stream()
+                .sorted(Comparator.comparingDouble(DocumentRetrievalService.Scored::score).reversed())
+                .toList();
+        List<DocumentRetrievalService.Scored> kept = new ArrayList<>();
+        List<Set<String>> keptTerms = new ArrayList<>();
+        int used = 0;
+        for (var c : ranked) {
+            if (kept.size() >= maxChunks) break;
+            String text = c.doc().getText() == null ? "" : c.doc().getText();
+            Set<String> terms = ExtractiveAnswers.terms(text);
+            if (keptTerms.stream().anyMatch(k -> jaccard(k, terms) >= dedupeThreshold)) {
+                metrics.counter("chat.context.dropped", "reason", "duplicate").increment();
+                continue;
+            }
+            int room = budget - used;
+            // The best chunk always goes in, trimmed to the whole budget if need be.
+            int cap = kept.isEmpty() ? Math.min(chunkTokens, Math.max(1, room)) : Math.min(chunkTokens, room);
+            String trimmed = trim(text, queryTerms, cap);
+            int t = tokens(trimmed);
+            if (trimmed.isEmpty() || (!kept.isEmpty() && t > room)) {
+                metrics.counter("chat.context.dropped", "reason", "budget").increment();
+                continue;
+            }
+            if (!trimmed.equals(text)) metrics.counter("chat.context.trimmed").increment();
+            kept.add(trimmed.equals(text) ? c : new DocumentRetrievalService.Scored(
+                    new Document(c.doc().getId(), trimmed, c.doc().getMetadata()), c.score()));
+            keptTerms.add(terms);
+            used += t;
+        }
+        metrics.summary("chat.context.tokens").record(used);
+        return new Context(kept, used);
+    }
+
+    /**
+     * text when it fits in maxTokens, else its sentences ranked by query-term overlap (ties: earlier first)
+     * added while they fit and re-joined in document order. When not even one sentence fits, the longest
+     * word-aligned prefix of text that does.
+     */
+    String trim(String text, Set<String> queryTerms, int maxTokens) {
+        if (tokens(text) <= maxTokens) return text;
+        List<String> sentences = ExtractiveAnswers.sentences(text);
+        List<Integer> order = IntStream.range(0, sentences.size()).boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> -ExtractiveAnswers.overlap(queryTerms, sentences.get(i)))
+                        .thenComparingInt(i -> i))
+                .toList();
+        boolean[] keep = new boolean[sentences.size()];
+        int used = 0;
+        for (int i : order) {
+            int t = tokens(sentences.get(i)) + 1;
+            if (used + t > maxTokens) continue;
+            keep[i] = true;
+            used += t;
+        }
+        String kept = IntStream.range(0, sentences.size()).filter(i -> keep[i])
+                .mapToObj(sentences::get).collect(Collectors.joining(" "));
+        return kept.isEmpty() ? prefix(text, maxTokens) : kept;
+    }
+
+    /** Longest prefix of text's words within maxTokens (binary search on the word count); "" when none fits. */
+    private String prefix(String text, int maxTokens) {
+        String[] words = text.strip().split("\\s+");
+        int lo = 0, hi = words.length;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (tokens(String.join(" ", Arrays.asList(words).subList(0, mid))) <= maxTokens) lo = mid;
+            else hi = mid - 1;
+        }
+        return String.join(" ", Arrays.asList(words).subList(0, lo));
+    }
+
+    static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) return 1.0;
+        long shared = a.stream().filter(b::contains).count();
+        return (double) shared / (a.size() + b.size() - shared);
+    }
+}
@@ -0,0 +1,347 @@
+package com.owl.service;
+
+import com.owl.model.ChatRecord;
+import com.owl.model.ChatSession;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side conversation sessions (ChatRequest.sessionId). {@link #start} opens one under an unguessable
+ * server-issued id (128 random bits), recorded in the tenant's chat_sessions with the principal that opened
+ * it; {@link #authorize} treats ids the tenant never issued, and sessions of another principal, as unknown.
+ *
+ * Each session keeps a hot window of its last window-turns turns in memory; older turns are folded into a
+ * running summary in the background, extractively unless owl.chat.session.summarizer=model, in which case
+ * the {@link Summarizer} (ChatService: the tenant's routed model, behind its scheduler slot, limiter, breaker
+ * and budget) writes it. The history a prompt carries thus stays within summary-tokens + window-turns x 2 x
+ * turn-tokens however long the conversation runs. A session not in memory (restart, other replica, idle eviction) is reloaded from the
+ * tenant's ChatRecord store: the last cold-load-turns records, the older of which are summarized.
+ * At most max-sessions are held; idle ones are evicted after idle-minutes.
+ *
+ * Metrics: chat.sessions.active, chat.sessions.loads{source=memory|store}, chat.sessions.summaries{via=model|extractive},
+ * chat.sessions.history.tokens.
+ */
+@Service
+public class ConversationService {
+    private static final Logger log = LoggerFactory.getLogger(ConversationService.class);
+
+    public record Turn(String question, String answer) {}
+
+    /** What a prompt carries of a session: the running summary (may be empty) and the recent turns, oldest first. */
+    public record History(String sessionId, String summary, List<Turn> turns) {
+        public static final History NONE = new History(null, "", List.of());
+
+        /** True when the session has earlier turns, i.e. the question may refer back to them. */
+        public boolean isFollowUp() {
+            return !turns.isEmpty() || !summary.isEmpty();
+        }
+    }
+
+    /** Model call for a tenant's summary; throws when the call is refused or fails. */
+    @FunctionalInterface
+    public interface Summarizer {
+        String summarize(String tenantId, String system, String user);
+    }
+
+    private static final class Session {
+        final String tenantId;
+        final String owner;
+        final Deque<Turn> window = new ArrayDeque<>();
+        final List<Turn> pending = new ArrayList<>(); // left the window, not yet in the summary
+        String summary = "";
+        boolean summarizing;
+        volatile long lastAccess = System.nanoTime();
+        Session(String tenantId, String owner) { this.tenantId = tenantId; this.owner = owner; }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ChatHistoryService historyService;
+    private final MeterRegistry metrics;
+    private final TokenCountEstimator tokenizer;
+    private final boolean enabled;
+    private final int windowTurns;
+    private final int turnTokens;
+    private final int summaryTokens;
+    private final int coldLoadTurns;
+    private final int maxSessions;
+    private final long idleNanos;
+    private final boolean modelSummaries;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private Executor executor; // null -> summaries are folded on the caller's thread
+    private Summarizer summarizer; // null -> summaries are extractive
+
+    public ConversationService(ChatHistoryService historyService, MeterRegistry metrics,
+                               @Value("${owl.chat.session.enabled:true}") boolean enabled,
+                               @Value("${owl.chat.session.window-turns:6}") int windowTurns,
+                               @Value("${owl.chat.session.turn-tokens:300}") int turnTokens,
+                               @Value("${owl.chat.session.summary-tokens:400}") int summaryTokens,
+                               @Value("${owl.chat.session.cold-load-turns:20}") int coldLoadTurns,
+                               @Value("${owl.chat.session.max-sessions:10000}") int maxSessions,
+                               @Value("${owl.chat.session.idle-minutes:60}") long idleMinutes,
+                               @Value("${owl.chat.session.summarizer:extractive}") String summarizer) {
+        this.historyService = historyService;
+        this.metrics = metrics;
+        this.tokenizer = new JTokkitTokenCountEstimator();
+        this.enabled = enabled;
+        this.windowTurns = Math.max(1, windowTurns);
+        this.turnTokens = Math.max(16, turnTokens);
+        this.summaryTokens = Math.max(16, summaryTokens);
+        this.coldLoadTurns = Math.max(this.windowTurns, coldLoadTurns);
+        this.maxSessions = Math.max(1, maxSessions);
+        this.idleNanos = TimeUnit.MINUTES.toNanos(Math.max(1, idleMinutes));
+        this.modelSummaries = "model".equalsIgnoreCase(summarizer);
+        metrics.gauge("chat.sessions.active", Tags.empty(), sessions, Map::size);
+    }
+
+    @Autowired(required = false)
+    public void setExecutor(@Qualifier("applicationTaskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    public void setSummarizer(Summarizer summarizer) {
+        this.summarizer = summarizer;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** Opens a session for tenantId owned by owner (the caller's principal, may be null); returns its id. */
+    public String start(String tenantId, String owner) {
+        if (!enabled) throw new IllegalStateException("Conversation sessions are disabled");
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        historyService.saveSession(new ChatSession(id, tenantId, owner));
+        if (sessions.size() >= maxSessions) evictOldest();
+        sessions.put(key(tenantId, id), new Session(tenantId, owner));
+        return id;
+    }
+
+    /**
+     * Throws NoSuchElementException unless sessionId was issued to tenantId and is owned by principal (or by
+     * nobody). A null sessionId (stateless) always passes.
+     */
+    public void authorize(String tenantId, String sessionId, String principal) {
+        if (!enabled || sessionId == null) return;
+        Session s = session(tenantId, sessionId);
+        if (s.owner != null && !s.owner.equals(principal)) throw unknown();
+    }
+
+    /** The session's summary and recent turns, each turn cut to turn-tokens; NONE for a null sessionId. */
+    public History history(String tenantId, String sessionId) {
+        if (!enabled || sessionId == null) return History.NONE;
+        Session s = session(tenantId, sessionId);
+        History h;
+        synchronized (s) {
+            h = new History(sessionId, s.summary, s.window.stream()
+                    .map(t -> new Turn(cut(t.question()), cut(t.answer()))).toList());
+        }
+        metrics.summary("chat.sessions.history.tokens").record(tokens(render(h)));
+        return h;
+    }
+
+    /** Records an answered turn; a turn leaving the window is queued for the running summary. */
+    public void append(String tenantId, String sessionId, String question, String answer) {
+        if (!enabled || sessionId == null) return;
+        Session s = session(tenantId, sessionId);
+        boolean summarize;
+        synchronized (s) {
+            s.window.addLast(new Turn(question, answer == null ? "" : answer));
+            while (s.window.size() > windowTurns) s.pending.add(s.window.removeFirst());
+            summarize = !s.pending.isEmpty() && !s.summarizing;
+            if (summarize) s.summarizing = true;
+        }
+        if (summarize) summarizeLater(s);
+    }
+
+    /** The history as a prompt block (empty for a first turn); goes after the static prefix and context. */
+    public static String render(History h) {
+        if (!h.isFollowUp()) return "";
+        StringBuilder sb = new StringBuilder("<CONVERSATION>\n")
+                .append("Earlier turns of this conversation, to resolve follow-up questions; answer only from <CONTEXT>.\n");
+        if (!h.summary().isEmpty()) sb.append("Summary: ").append(h.summary()).append('\n');
+        for (Turn t : h.turns()) {
+            sb.append("User: ").append(t.question()).append('\n')
+              .append("Assistant: ").append(t.answer()).append('\n');
+        }
+        return sb.append("</CONVERSATION>").toString();
+    }
+
+    private static String key(String tenantId, String sessionId) {
+        return tenantId + "|" + sessionId;
+    }
+
+    private static NoSuchElementException unknown() {
+        return new NoSuchElementException("Unknown session");
+    }
+
+    /** The session, from memory or the store; throws NoSuchElementException for an id the tenant never issued. */
+    private Session session(String tenantId, String sessionId) {
+        String key = key(tenantId, sessionId);
+        Session s = sessions.get(key);
+        if (s != null) {
+            metrics.counter("chat.sessions.loads", "source", "memory").increment();
+        } else {
+            if (sessions.size() >= maxSessions) evictOldest();
+            s = sessions.computeIfAbsent(key, k -> load(tenantId, sessionId));
+        }
+        s.lastAccess = System.nanoTime();
+        return s;
+    }
+
+    private Session load(String tenantId, String sessionId) {
+        ChatSession issued = historyService.findSession(tenantId, sessionId);
+        if (issued == null) throw unknown();
+        Session s = new Session(tenantId, issued.getOwner());
+        metrics.counter("chat.sessions.loads", "source", "store").increment();
+        List<ChatRecord> recs;
+        try {
+            recs = historyService.recentForSession(tenantId, sessionId, coldLoadTurns);
+        } catch (Exception e) {
+            log.warn("Could not load session {} for tenant {}: {}", sessionId, tenantId, e.toString());
+            return s;
+        }
+        for (ChatRecord r : recs) s.window.addLast(new Turn(r.getQuestion(), r.getAnswer() == null ? "" : r.getAnswer()));
+        while (s.window.size() > windowTurns) s.pending.add(s.window.removeFirst());
+        if (!s.pending.isEmpty()) {
+            s.summarizing = true;
+            summarizeLater(s);
+        }
+        return s;
+    }
+
+    private void summarizeLater(Session s) {
+        if (executor == null) {
+            summarize(s);
+            return;
+        }
+        try {
+            executor.execute(() -> summarize(s));
+        } catch (RuntimeException e) {
+            summarize(s); // executor saturated or shut down
+        }
+    }
+
+    /** Folds pending turns into the summary until none are left; one summarizer per session at a time. */
+    void summarize(Session s) {
+        while (true) {
+            String previous;
+            List<Turn> batch;
+            synchronized (s) {
+                if (s.pending.isEmpty()) {
+                    s.summarizing = false;
+                    return;
+                }
+                previous = s.summary;
+                batch = List.copyOf(s.pending);
+            }
+            String next;
+            try {
+                next = fold(s.tenantId, previous, batch);
+            } catch (RuntimeException e) {
+                log.warn("Session summary failed: {}", e.toString());
+                next = extractive(previous, batch);
+            }
+            synchronized (s) {
+                s.summary = next;
+                s.pending.subList(0, batch.size()).clear();
+            }
+        }
+    }
+
+    private String fold(String tenantId, String previous, List<Turn> turns) {
+        if (!modelSummaries || summarizer == null) return extractive(previous, turns);
+        StringBuilder user = new StringBuilder();
+        if (!previous.isEmpty()) user.append("Summary so far: ").append(previous).append("\n\n");
+        user.append("New turns:\n");
+        for (Turn t : turns) user.append("User: ").append(cut(t.question())).append("\nAssistant: ").append(cut(t.answer())).append('\n');
+        String out = summarizer.summarize(tenantId,
+                "Update the conversation summary with the new turns. Keep names, facts and open questions the user "
+                        + "may refer back to. Reply with the summary only, under " + (summaryTokens * 3 / 4) + " words.",
+                user.toString());
+        if (out == null || out.isBlank()) return extractive(previous, turns);
+        metrics.counter("chat.sessions.summaries", "via", "model").increment();
+        return fit(out.strip());
+    }
+
+    /** Previous summary plus each turn's question and the first sentence of its answer, oldest dropped first. */
+    String extractive(String previous, List<Turn> turns) {
+        StringBuilder sb = new StringBuilder(previous);
+        for (Turn t : turns) {
+            List<String> first = ExtractiveAnswers.sentences(t.answer());
+            if (sb.length() > 0) sb.append(' ');
+            sb.append("User asked: ").append(t.question().strip()).append(" Answer: ")
+              .append(first.isEmpty() ? "" : first.get(0));
+        }
+        metrics.counter("chat.sessions.summaries", "via", "extractive").increment();
+        return fit(sb.toString());
+    }
+
+    /** text within summary-tokens, keeping its most recent sentences. */
+    private String fit(String text) {
+        if (tokens(text) <= summaryTokens) return text;
+        List<String> sentences = ExtractiveAnswers.sentences(text);
+        Deque<String> kept = new ArrayDeque<>();
+        int used = 0;
+        for (int i = sentences.size() - 1; i >= 0; i--) {
+            int t = tokens(sentences.get(i)) + 1;
+            if (used + t > summaryTokens) break;
+            kept.addFirst(sentences.get(i));
+            used += t;
+        }
+        return String.join(" ", kept);
+    }
+
+    /** text cut to about turn-tokens (whole leading sentences where possible). */
+    private String cut(String text) {
+        if (text == null) return "";
+        if (tokens(text) <= turnTokens) return text;
+        StringBuilder sb = new StringBuilder();
+        int used = 0;
+        for (String sentence : ExtractiveAnswers.sentences(text)) {
+            int t = tokens(sentence) + 1;
+            if (used + t > turnTokens) break;
+            sb.append(sb.length() > 0 ? " " : "").append(sentence);
+            used += t;
+        }
+        if (sb.length() == 0) sb.append(text, 0, Math.min(text.length(), turnTokens * 3));
+        return sb.append(" …").toString();
+    }
+
+    private int tokens(String text) {
+        return text == null || text.isEmpty() ? 0 : tokenizer.estimate(text);
+    }
+
+    @Scheduled(fixedDelayString = "${owl.chat.session.evict-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(s -> now - s.lastAccess > idleNanos);
+    }
+
+    private void evictOldest() {
+        sessions.entrySet().stream()
+                .min((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess))
+                .ifPresent(e -> sessions.remove(e.getKey(), e.getValue()));
+    }
+}
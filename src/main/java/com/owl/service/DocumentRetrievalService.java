@@ -1,9 +1,15 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
 
@@ -17,18 +23,24 @@ import java.util.List;
  *   Spring AI's VectorStore may (or may not) populate a similarity score in metadata
  *   (e.g., "score" or "distance"). We attempt to read "score" and default to 0.0 if absent.
  *   Callers should be robust to missing scores (e.g., rely on rank or apply a conservative threshold).
+ *
+ * Metrics: vector.search.fallback{caller=retrieval} counts Qdrant searches that failed over to the VectorStore.
  */
 @Service
 public class DocumentRetrievalService {
+    private static final Logger log = LoggerFactory.getLogger(DocumentRetrievalService.class);
 
     private final VectorStore store;
     private final TenantVectorService tenantVectors;
     private final RemoteRetrievalClient remote;
+    private final MeterRegistry metrics;
 
-    public DocumentRetrievalService(VectorStore store, TenantVectorService tenantVectors, RemoteRetrievalClient remote) {
+    public DocumentRetrievalService(VectorStore store, TenantVectorService tenantVectors, RemoteRetrievalClient remote,
+                                    MeterRegistry metrics) {
         this.store = store;
         this.tenantVectors = tenantVectors;
         this.remote = remote;
+        this.metrics = metrics;
     }
 
     /** Simple wrapper carrying the Spring AI Document and an optional similarity score. */
@@ -51,7 +63,9 @@ public class DocumentRetrievalService {
             String filter = buildFilter(tenantId, scopeDocument);
             try {
                 docs = tenantVectors.search(tenantId, query, scopeDocument, topK);
-            } catch (UnsupportedOperationException e) {
+            } catch (UnsupportedOperationException | WebClientException e) {
+                // Qdrant REST unavailable: fall back to the VectorStore (embeds the query itself)
+                if (e instanceof WebClientException) countFallback(tenantId, e);
                 SearchRequest req = SearchRequest.builder()
                         .query(query)
                         .topK(topK)
@@ -64,6 +78,44 @@ public class DocumentRetrievalService {
         return docs.stream().map(d -> new Scored(d, readScore(d))).toList();
     }
 
+    /**
+     * Non-blocking variant of {@link #search} for the reactive chat path: the Qdrant REST / remote
+     * retrieval calls are composed instead of blocked on; the VectorStore fallback runs on boundedElastic.
+     */
+    public Mono<List<Scored>> searchAsync(String tenantId, String query, String scopeDocument, int topK) {
+        Mono<List<Document>> docs;
+        if (remote != null && remote.isEnabled()) {
+            docs = remote.searchAsync(tenantId, query, scopeDocument, topK);
+        } else {
+            SearchRequest fallback = SearchRequest.builder()
+                    .query(query)
+                    .topK(topK)
+                    .similarityThreshold(0.0)
+                    .filterExpression(buildFilter(tenantId, scopeDocument))
+                    .build();
+            Mono<List<Document>> viaStore = Mono.fromCallable(() -> store.similaritySearch(fallback))
+                    .subscribeOn(Schedulers.boundedElastic());
+            Mono<List<Document>> viaQdrant;
+            try {
+                viaQdrant = tenantVectors.searchAsync(tenantId, query, scopeDocument, topK);
+            } catch (UnsupportedOperationException e) {
+                viaQdrant = viaStore;
+            }
+            docs = viaQdrant
+                    .onErrorResume(UnsupportedOperationException.class, e -> viaStore)
+                    .onErrorResume(WebClientException.class, e -> {
+                        countFallback(tenantId, e);
+                        return viaStore;
+                    });
+        }
+        return docs.map(list -> list.stream().map(d -> new Scored(d, readScore(d))).toList());
+    }
+
+    private void countFallback(String tenantId, Exception e) {
+        log.warn("Qdrant search failed for tenant {}, falling back to the VectorStore: {}", tenantId, e.toString());
+        metrics.counter("vector.search.fallback", "caller", "retrieval").increment();
+    }
+
     private static String buildFilter(String tenantId, String scopeDocument) {
         StringBuilder sb = new StringBuilder("tenantId == '").append(escape(tenantId)).append("'");
         if (scopeDocument != null && !scopeDocument.isBlank()) {
@@ -1,31 +1,95 @@
 package com.owl.service;
 
+import com.owl.model.BatchChatRequest;
+import com.owl.model.BatchChatResult;
 import com.owl.model.ChatRequest;
 import com.owl.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+/**
+ * Runs golden questions through chat and checks each answer contains the expected text. Goldens are kept
+ * per tenant (eval_goldens) so the cache warmer can pre-answer them.
+ */
 @Service
 public class EvalService {
+    private static final String GOLDENS = "eval_goldens";
+
     private final ChatService chat;
+    private BatchChatService batch; // null -> goldens answered one by one
+    private TenantMongoManager tenants; // null -> goldens are not kept
 
     public static record Golden(String question, String mustContain) {}
     public static record Result(int total, int passed, List<String> failures) {}
 
     public EvalService(ChatService chat) { this.chat = chat; }
 
+    @Autowired(required = false)
+    public void setBatch(BatchChatService batch) { this.batch = batch; }
+
+    @Autowired(required = false)
+    public void setTenants(TenantMongoManager tenants) { this.tenants = tenants; }
+
     public Result run(String tenantId, List<Golden> goldens) {
+        remember(tenantId, goldens);
+        ChatResponse[] answers = answerAll(tenantId, goldens);
         int total = 0, passed = 0; List<String> failures = new ArrayList<>();
-        for (Golden g : goldens) {
+        for (int i = 0; i < goldens.size(); i++) {
+            Golden g = goldens.get(i);
             total++;
-            ChatRequest req = new ChatRequest(tenantId, g.question(), false, null, null);
-            ChatResponse r = chat.answer(req);
-            if (r.answer() != null && r.answer().toLowerCase().contains(g.mustContain().toLowerCase())) passed++;
+            ChatResponse r = answers[i];
+            if (r != null && r.answer() != null && r.answer().toLowerCase().contains(g.mustContain().toLowerCase())) passed++;
             else failures.add(g.question());
         }
         return new Result(total, passed, failures);
     }
-}
 
+    /** The tenant's goldens from past runs, most recently run first. */
+    public List<Golden> goldens(String tenantId, int limit) {
+        if (tenants == null) return List.of();
+        Query q = new Query().with(Sort.by(Sort.Direction.DESC, "lastRunAt")).limit(limit);
+        return tenants.templateForTenant(tenantId).find(q, Map.class, GOLDENS).stream()
+                .map(m -> new Golden(Objects.toString(m.get("_id")), Objects.toString(m.get("mustContain"), "")))
+                .toList();
+    }
+
+    private void remember(String tenantId, List<Golden> goldens) {
+        if (tenants == null || goldens.isEmpty()) return;
+        try {
+            MongoTemplate tpl = tenants.templateForTenant(tenantId);
+            BulkOperations ops = tpl.bulkOps(BulkOperations.BulkMode.UNORDERED, GOLDENS);
+            Date now = new Date();
+            for (Golden g : goldens) {
+                ops.upsert(Query.query(Criteria.where("_id").is(g.question())),
+                        new Update().set("mustContain", g.mustContain()).set("lastRunAt", now));
+            }
+            ops.execute();
+        } catch (Exception ignored) {} // best-effort: the eval itself must not fail on it
+    }
+
+    private ChatResponse[] answerAll(String tenantId, List<Golden> goldens) {
+        ChatResponse[] out = new ChatResponse[goldens.size()];
+        if (batch == null || goldens.isEmpty()) {
+            for (int i = 0; i < goldens.size(); i++) {
+                out[i] = chat.answer(new ChatRequest(tenantId, goldens.get(i).question(), false, null, null));
+            }
+            return out;
+        }
+        List<String> questions = goldens.stream().map(Golden::question).toList();
+        List<BatchChatResult> results = batch.answer(new BatchChatRequest(tenantId, questions, false, null)).collectList().block();
+        if (results != null) for (BatchChatResult r : results) out[r.index()] = r.response();
+        return out;
+    }
+}
@@ -0,0 +1,59 @@
+package com.owl.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieval-only answers for when no model can be reached: the sentences of the retrieved chunks that
+ * share the most terms with the question, quoted in chunk order. No generation, so nothing to hallucinate.
+ */
+final class ExtractiveAnswers {
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+|\\n{2,}");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private ExtractiveAnswers() {}
+
+    /** Up to maxSentences sentences from chunks, best query overlap first per chunk; empty when none overlap. */
+    static String from(String query, List<DocumentRetrievalService.Scored> chunks, int maxSentences) {
+        Set<String> terms = terms(query);
+        List<String> picked = new ArrayList<>();
+        for (var c : chunks) {
+            if (picked.size() >= maxSentences) break;
+            String text = c.doc().getText();
+            if (text == null) continue;
+            sentences(text).stream()
+                    .filter(s -> overlap(terms, s) > 0)
+                    .max(Comparator.comparingDouble(s -> overlap(terms, s)))
+                    .ifPresent(picked::add);
+        }
+        if (picked.isEmpty()) return "";
+        return picked.stream().map(s -> "> " + s).collect(Collectors.joining("\n"));
+    }
+
+    static List<String> sentences(String text) {
+        return Arrays.stream(SENTENCE_END.split(text.strip()))
+                .map(s -> s.replaceAll("\\s+", " ").strip())
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    static Set<String> terms(String text) {
+        return Arrays.stream(NON_WORD.split(text.toLowerCase(Locale.ROOT)))
+                .filter(t -> t.length() > 2)
+                .collect(Collectors.toSet());
+    }
+
+    /** Fraction of the query terms that occur in sentence. */
+    static double overlap(Set<String> queryTerms, String sentence) {
+        if (queryTerms.isEmpty()) return 0;
+        Set<String> s = terms(sentence);
+        long shared = queryTerms.stream().filter(s::contains).count();
+        return (double) shared / queryTerms.size();
+    }
+}
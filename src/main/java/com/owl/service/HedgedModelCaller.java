@@ -0,0 +1,119 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Runs model calls within the request deadline and, when owl.chat.hedge.enabled, hedges them: if the
+ * primary call has not answered after the hedge delay, a second call (alternate provider/model, or the
+ * same one to reach another replica) is fired and the first answer wins; the loser is cancelled, which
+ * interrupts its blocking call. The delay is owl.chat.hedge.delay-ms, or with 0 the observed p95 of
+ * recent primary latencies (never below min-delay-ms; no hedging until the window has samples).
+ *
+ * Metrics: chat.model.hedge{outcome=not_fired|primary|hedge}.
+ */
+@Component
+public class HedgedModelCaller {
+    private static final int MIN_SAMPLES = 20;
+
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final long delayMs;
+    private final long minDelayMs;
+    private final AtomicLongArray window;
+    private final AtomicInteger writes = new AtomicInteger();
+
+    public HedgedModelCaller(MeterRegistry metrics,
+                             @Value("${owl.chat.hedge.enabled:false}") boolean enabled,
+                             @Value("${owl.chat.hedge.delay-ms:0}") long delayMs,
+                             @Value("${owl.chat.hedge.min-delay-ms:500}") long minDelayMs,
+                             @Value("${owl.chat.hedge.window:200}") int window) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.delayMs = delayMs;
+        this.minDelayMs = minDelayMs;
+        this.window = new AtomicLongArray(Math.max(MIN_SAMPLES, window));
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    private record Won<T>(T value, String by) {}
+
+    /** hedge may be null (no hedging for this call). */
+    public <T> T call(Supplier<T> primary, Supplier<T> hedge) {
+        Duration left = RequestDeadline.remaining();
+        Duration delay = enabled && hedge != null ? hedgeDelay() : null;
+        if (left == null && delay == null) {
+            return observe(primary);
+        }
+        RequestDeadline.check("model");
+        String region = TenantRegionContext.getOverrideRegion();
+        AtomicBoolean fired = new AtomicBoolean();
+        Mono<Won<T>> race = attempt(() -> observe(primary), region).map(v -> new Won<>(v, "primary"));
+        if (delay != null && (left == null || delay.compareTo(left) < 0)) {
+            Mono<Won<T>> second = Mono.delay(delay)
+                    .doOnNext(t -> fired.set(true))
+                    .then(attempt(hedge, region))
+                    .map(v -> new Won<>(v, "hedge"));
+            race = Mono.firstWithValue(race, second);
+        }
+        if (left != null) race = race.timeout(left, Mono.error(() -> new DeadlineExceededException("model")));
+        try {
+            Won<T> won = race.block();
+            if (delay != null) metrics.counter("chat.model.hedge", "outcome", fired.get() ? won.by() : "not_fired").increment();
+            return won.value();
+        } catch (NoSuchElementException e) {
+            // firstWithValue: every attempt failed; surface the primary's error
+            for (Throwable s : e.getSuppressed()) if (s instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    /**
+     * Runs call within the request deadline, neither hedged nor sampled for the hedge delay: for calls to
+     * other backends than the routed model (the cascade's small tier, the fallback model).
+     */
+    public <T> T bounded(Supplier<T> call) {
+        Duration left = RequestDeadline.remaining();
+        if (left == null) return call.get();
+        RequestDeadline.check("model");
+        return attempt(call, TenantRegionContext.getOverrideRegion())
+                .timeout(left, Mono.error(() -> new DeadlineExceededException("model")))
+                .block();
+    }
+
+    private static <T> Mono<T> attempt(Supplier<T> call, String region) {
+        return Mono.fromCallable(() -> TenantRegionContext.callWith(region, call)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private <T> T observe(Supplier<T> primary) {
+        long t0 = System.nanoTime();
+        T v = primary.get();
+        int i = Math.floorMod(writes.getAndIncrement(), window.length());
+        window.set(i, (System.nanoTime() - t0) / 1_000_000);
+        return v;
+    }
+
+    Duration hedgeDelay() {
+        if (delayMs > 0) return Duration.ofMillis(delayMs);
+        int n = Math.min(writes.get(), window.length());
+        if (n < MIN_SAMPLES) return null;
+        long[] samples = new long[n];
+        for (int i = 0; i < n; i++) samples[i] = window.get(i);
+        Arrays.sort(samples);
+        long p95 = samples[Math.min(n - 1, (int) Math.ceil(n * 0.95) - 1)];
+        return Duration.ofMillis(Math.max(minDelayMs, p95));
+    }
+}
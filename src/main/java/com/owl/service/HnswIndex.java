@@ -0,0 +1,211 @@
+package com.owl.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hierarchical navigable small-world graph (Malkov and Yashunin) for cosine nearest-neighbour search over
+ * unit-normalized vectors. Each node links to up to m neighbours per layer (2m on layer 0); search descends
+ * greedily from the top layer and runs a best-first search of width ef on layer 0. Below exactThreshold live
+ * nodes a linear scan is both faster and exact, so small tenants never pay for graph recall.
+ * Removal tombstones a node (still traversed, never returned); callers rebuild once tombstones pile up.
+ * Not thread-safe: callers hold a read lock for {@link #search} and a write lock for mutation.
+ */
+final class HnswIndex<T> {
+
+    record Result<T>(int id, T value, double score) {}
+
+    private static final class Node<T> {
+        final float[] vector;
+        final T value;
+        final int[][] links;
+        final int[] counts;
+        boolean deleted;
+
+        Node(float[] vector, T value, int level, int m) {
+            this.vector = vector;
+            this.value = value;
+            this.links = new int[level + 1][];
+            this.counts = new int[level + 1];
+            for (int l = 0; l <= level; l++) links[l] = new int[(l == 0 ? 2 * m : m) + 1];
+        }
+
+        int level() { return links.length - 1; }
+    }
+
+    private record Candidate(int id, double distance) {}
+
+    private final int m;
+    private final int efConstruction;
+    private final int exactThreshold;
+    private final double levelMultiplier;
+    private final List<Node<T>> nodes = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int deleted;
+
+    HnswIndex(int m, int efConstruction, int exactThreshold) {
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.exactThreshold = Math.max(0, exactThreshold);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+    }
+
+    int size() { return nodes.size() - deleted; }
+
+    int tombstones() { return deleted; }
+
+    float[] vector(int id) { return nodes.get(id).vector; }
+
+    T value(int id) { return nodes.get(id).value; }
+
+    /** Adds vector (normalized here) with value; returns its id. */
+    int add(float[] vector, T value) {
+        float[] v = normalize(vector);
+        int level = (int) Math.floor(-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        int id = nodes.size();
+        Node<T> node = new Node<>(v, value, level, m);
+        nodes.add(node);
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return id;
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) ep = greedy(v, ep, l);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> found = searchLayer(v, ep, efConstruction, l);
+            int max = l == 0 ? 2 * m : m;
+            List<Candidate> selected = found.subList(0, Math.min(m, found.size()));
+            for (Candidate c : selected) {
+                link(node, l, c.id(), max);
+                link(nodes.get(c.id()), l, id, max);
+            }
+            ep = found.get(0).id();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = id;
+        }
+        return id;
+    }
+
+    void remove(int id) {
+        Node<T> n = nodes.get(id);
+        if (n.deleted) return;
+        n.deleted = true;
+        deleted++;
+    }
+
+    /** Up to k live nodes with cosine similarity to query, best first. */
+    List<Result<T>> search(float[] query, int k, int ef) {
+        if (size() == 0) return List.of();
+        float[] q = normalize(query);
+        List<Candidate> found;
+        if (size() <= exactThreshold) {
+            found = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!nodes.get(i).deleted) found.add(new Candidate(i, distance(q, nodes.get(i).vector)));
+            }
+            found.sort(Comparator.comparingDouble(Candidate::distance));
+        } else {
+            int ep = entryPoint;
+            for (int l = maxLevel; l > 0; l--) ep = greedy(q, ep, l);
+            found = searchLayer(q, ep, Math.max(ef, k), 0);
+        }
+        List<Result<T>> out = new ArrayList<>(k);
+        for (Candidate c : found) {
+            Node<T> n = nodes.get(c.id());
+            if (n.deleted) continue;
+            out.add(new Result<>(c.id(), n.value, 1.0 - c.distance()));
+            if (out.size() == k) break;
+        }
+        return out;
+    }
+
+    private int greedy(float[] q, int ep, int level) {
+        double best = distance(q, nodes.get(ep).vector);
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            Node<T> n = nodes.get(ep);
+            for (int i = 0; i < n.counts[level]; i++) {
+                int nb = n.links[level][i];
+                double d = distance(q, nodes.get(nb).vector);
+                if (d < best) {
+                    best = d;
+                    ep = nb;
+                    moved = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /** Best-first search of width ef on one layer; results nearest first. */
+    private List<Candidate> searchLayer(float[] q, int ep, int ef, int level) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance));
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance).reversed());
+        Candidate start = new Candidate(ep, distance(q, nodes.get(ep).vector));
+        visited.set(ep);
+        candidates.add(start);
+        results.add(start);
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (c.distance() > results.peek().distance() && results.size() >= ef) break;
+            Node<T> n = nodes.get(c.id());
+            if (level > n.level()) continue;
+            for (int i = 0; i < n.counts[level]; i++) {
+                int nb = n.links[level][i];
+                if (visited.get(nb)) continue;
+                visited.set(nb);
+                double d = distance(q, nodes.get(nb).vector);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    Candidate next = new Candidate(nb, d);
+                    candidates.add(next);
+                    results.add(next);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+        List<Candidate> out = new ArrayList<>(results);
+        out.sort(Comparator.comparingDouble(Candidate::distance));
+        return out;
+    }
+
+    /** Links from to target on level; over max links, keeps the max nearest to from. */
+    private void link(Node<T> from, int level, int target, int max) {
+        int[] links = from.links[level];
+        for (int i = 0; i < from.counts[level]; i++) if (links[i] == target) return;
+        links[from.counts[level]++] = target;
+        if (from.counts[level] <= max) return;
+        Integer[] order = new Integer[from.counts[level]];
+        for (int i = 0; i < order.length; i++) order[i] = links[i];
+        Arrays.sort(order, Comparator.comparingDouble(id -> distance(from.vector, nodes.get(id).vector)));
+        for (int i = 0; i < max; i++) links[i] = order[i];
+        from.counts[level] = max;
+    }
+
+    private static double distance(float[] a, float[] b) {
+        double dot = 0;
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) dot += a[i] * b[i];
+        return 1.0 - dot;
+    }
+
+    static float[] normalize(float[] v) {
+        double norm = 0;
+        for (float f : v) norm += f * f;
+        norm = Math.sqrt(norm);
+        if (norm == 0 || Math.abs(norm - 1.0) < 1e-6) return v;
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = (float) (v[i] / norm);
+        return out;
+    }
+}
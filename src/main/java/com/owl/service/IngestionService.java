@@ -5,6 +5,7 @@ import org.springframework.ai.reader.jsoup.JsoupDocumentReader;
 import org.springframework.ai.reader.tika.TikaDocumentReader;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -15,6 +16,7 @@ import java.util.Map;
 /**
  * Ingests PDFs/Office docs via Tika, and single URLs via Jsoup.
  * Each chunk gets tenantId + source metadata (filename or url).
+ * Storing new chunks bumps the source's KB version, invalidating cached answers built from it.
  * (No ExtractedTextFormatter used -> compatible with Spring AI 1.0.1)
  */
 @Service
@@ -26,6 +28,7 @@ public class IngestionService {
     private final SitemapCrawler crawler;
     private final DlpService dlp;
     private final RemoteRetrievalClient remote;
+    private KnowledgeVersionService kbVersions; // null -> cached answers are not invalidated by ingestion
 
     public IngestionService(TenantVectorService tenantVectors, EventPublisher events, DedupService dedup, SitemapCrawler crawler, DlpService dlp, RemoteRetrievalClient remote) {
         this.tenantVectors = tenantVectors;
@@ -36,6 +39,11 @@ public class IngestionService {
         this.remote = remote;
     }
 
+    @Autowired(required = false)
+    public void setKnowledgeVersions(KnowledgeVersionService kbVersions) {
+        this.kbVersions = kbVersions;
+    }
+
     public int ingestFile(String tenantId, MultipartFile file) throws Exception {
         try (var in = file.getInputStream()) {
             // Simple constructor works across versions
@@ -108,6 +116,7 @@ public class IngestionService {
         if (!out.isEmpty()) {
             if (remote != null && remote.isEnabled()) remote.add(tenantId, out);
             else tenantVectors.add(tenantId, out);
+            if (kbVersions != null) kbVersions.bump(tenantId, source);
         }
         return out.size();
     }
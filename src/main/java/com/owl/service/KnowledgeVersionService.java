@@ -0,0 +1,170 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-tenant knowledge-base versions, one counter per source (filename or url, as in chunk metadata) in the
+ * tenant's kb_versions collection. IngestionService.persist and QdrantAdminClient.purgeBySource bump the
+ * source they changed; cached answers record the versions of the sources they were grounded on
+ * ({@link #snapshot}) and are served only while those are still current ({@link #isCurrent}), so an
+ * ingest invalidates exactly the answers built from that source. With owl.kb.versions.scope=tenant every
+ * answer also records a tenant-wide counter, so any change invalidates all of them.
+ *
+ * Versions are read through a per-tenant copy refreshed every refresh-ms (bumps on other replicas are seen
+ * within that); a bump also publishes {@link Changed} so the caches on this replica can drop affected
+ * entries at once.
+ *
+ * Metrics: kb.versions.bumps, kb.versions.loads.
+ */
+@Service
+public class KnowledgeVersionService {
+    private static final Logger log = LoggerFactory.getLogger(KnowledgeVersionService.class);
+    private static final String COLLECTION = "kb_versions";
+
+    /** Counter bumped on every change of the tenant's KB. */
+    public static final String TENANT_WIDE = "*";
+
+    /** Published after a source's version was bumped. */
+    public record Changed(String tenantId, String source, long version) {}
+
+    private static final class Versions {
+        final Map<String, Long> bySource = new ConcurrentHashMap<>();
+        final AtomicBoolean loading = new AtomicBoolean();
+        volatile long loadedAt;
+        volatile boolean loaded;
+    }
+
+    private final TenantMongoManager tenants;
+    private final ApplicationEventPublisher publisher;
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final boolean tenantScope;
+    private final long refreshNanos;
+    private final Map<String, Versions> byTenant = new ConcurrentHashMap<>();
+
+    public KnowledgeVersionService(TenantMongoManager tenants, ApplicationEventPublisher publisher, MeterRegistry metrics,
+                                   @Value("${owl.kb.versions.enabled:true}") boolean enabled,
+                                   @Value("${owl.kb.versions.scope:source}") String scope,
+                                   @Value("${owl.kb.versions.refresh-ms:5000}") long refreshMs) {
+        this.tenants = tenants;
+        this.publisher = publisher;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.tenantScope = "tenant".equalsIgnoreCase(scope);
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshMs));
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** Bumps source (and the tenant-wide counter); returns the source's new version. */
+    public long bump(String tenantId, String source) {
+        if (!enabled) return 0;
+        Versions v = versions(tenantId);
+        long version;
+        long tenantVersion;
+        try {
+            MongoTemplate tpl = tenants.templateForTenant(tenantId);
+            version = increment(tpl, source);
+            tenantVersion = increment(tpl, TENANT_WIDE);
+        } catch (Exception e) {
+            // Still invalidate locally; other replicas catch up on the next successful bump.
+            log.warn("Could not persist KB version of {} for tenant {}: {}", source, tenantId, e.toString());
+            version = v.bySource.getOrDefault(source, 0L) + 1;
+            tenantVersion = v.bySource.getOrDefault(TENANT_WIDE, 0L) + 1;
+        }
+        v.bySource.merge(source, version, Math::max);
+        v.bySource.merge(TENANT_WIDE, tenantVersion, Math::max);
+        metrics.counter("kb.versions.bumps").increment();
+        publisher.publishEvent(new Changed(tenantId, source, version));
+        return version;
+    }
+
+    /** Current versions of sources (0 for never-bumped ones), plus the tenant-wide one in tenant scope. */
+    public Map<String, Long> snapshot(String tenantId, Collection<String> sources) {
+        if (!enabled) return Map.of();
+        Map<String, Long> out = new LinkedHashMap<>();
+        Versions v = versions(tenantId);
+        for (String s : sources) out.put(s, v.bySource.getOrDefault(s, 0L));
+        if (tenantScope) out.put(TENANT_WIDE, v.bySource.getOrDefault(TENANT_WIDE, 0L));
+        return out;
+    }
+
+    /** True when none of the recorded sources changed since (an empty record is always current). */
+    public boolean isCurrent(String tenantId, Map<String, Long> recorded) {
+        if (!enabled || recorded == null || recorded.isEmpty()) return true;
+        Versions v = versions(tenantId);
+        for (var e : recorded.entrySet()) {
+            if (v.bySource.getOrDefault(e.getKey(), 0L) > e.getValue()) return false;
+        }
+        return true;
+    }
+
+    /** The tenant's versions, reloaded by one caller at a time once older than refresh-ms (others read the old copy). */
+    private Versions versions(String tenantId) {
+        Versions v = byTenant.computeIfAbsent(tenantId, t -> new Versions());
+        if ((!v.loaded || System.nanoTime() - v.loadedAt > refreshNanos) && v.loading.compareAndSet(false, true)) {
+            try {
+                for (Map<?, ?> doc : tenants.templateForTenant(tenantId).findAll(Map.class, COLLECTION)) {
+                    if (doc.get("version") instanceof Number n) v.bySource.merge(Objects.toString(doc.get("_id")), n.longValue(), Math::max);
+                }
+                v.loaded = true;
+                metrics.counter("kb.versions.loads").increment();
+            } catch (Exception e) {
+                log.debug("Could not load KB versions for tenant {}: {}", tenantId, e.toString());
+            } finally {
+                v.loadedAt = System.nanoTime();
+                v.loading.set(false);
+            }
+        }
+        return v;
+    }
+
+    private static long increment(MongoTemplate tpl, String source) {
+        Map<?, ?> doc = tpl.findAndModify(Query.query(Criteria.where("_id").is(source)),
+                new Update().inc("version", 1L).set("updatedAt", new Date()),
+                FindAndModifyOptions.options().upsert(true).returnNew(true), Map.class, COLLECTION);
+        return doc != null && doc.get("version") instanceof Number n ? n.longValue() : 1L;
+    }
+
+    /**
+     * Versions as stored with cache entries: a list of {name, version} (source names contain dots, which
+     * Mongo does not allow as keys); the inverse is {@link #fromStored}.
+     */
+    public static List<Map<String, Object>> toStored(Map<String, Long> versions) {
+        List<Map<String, Object>> out = new ArrayList<>(versions.size());
+        versions.forEach((name, version) -> out.add(Map.of("name", name, "version", version)));
+        return out;
+    }
+
+    public static Map<String, Long> fromStored(Object stored) {
+        if (!(stored instanceof List<?> list) || list.isEmpty()) return Map.of();
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (Object o : list) {
+            if (o instanceof Map<?, ?> m && m.get("name") != null && m.get("version") instanceof Number n) {
+                out.put(m.get("name").toString(), n.longValue());
+            }
+        }
+        return out;
+    }
+}
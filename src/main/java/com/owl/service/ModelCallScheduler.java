@@ -0,0 +1,359 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import com.owl.exception.OverloadedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admission for LLM calls: a global concurrency cap shared by all tenants, a per-tenant cap (bulkhead) by
+ * plan, and weighted fair queuing between waiting tenants. Each waiter gets a virtual finish tag of
+ * max(virtual time, tenant's last tag) + 1/weight(plan); free slots go to the smallest tag whose tenant is
+ * under its cap, so an enterprise tenant drains ~weight times faster than a free one and a noisy tenant
+ * only queues behind itself. Waits are bounded by the request deadline; a full queue sheds with 503.
+ *
+ * Plans come from TenantSettings.plan (cached for plan-cache-seconds). A tenant without a plan, or with one
+ * missing from tenant-limits/weights, is only bounded by max-concurrency and has weight 1. Queue waits also feed
+ * the {@link AdmissionController}, which sheds new chat requests once the queue stops draining; the part of a
+ * wait spent with the tenant at its own cap is left out, so one tenant saturating its plan does not put
+ * everyone else into cache-only.
+ * Metrics: llm.scheduler.queue.wait{plan}, llm.scheduler.queue.depth{plan}, llm.scheduler.inflight,
+ * llm.scheduler.rejected{plan}.
+ */
+@Component
+public class ModelCallScheduler {
+    /** Plan label of tenants without TenantSettings.plan. */
+    static final String DEFAULT_PLAN = "default";
+
+    private final TenantSettingsService settings;
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final int maxQueue;
+    private final Map<String, Double> weights;
+    private final Map<String, Integer> tenantLimits;
+    private final long planCacheNanos;
+    private AdmissionController admission; // null -> waits are only reported as metrics
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>();
+    private final Map<String, TenantState> tenants = new HashMap<>();
+    private final Map<String, CachedPlan> plans = new ConcurrentHashMap<>();
+    private int inFlight;
+    private double virtualTime;
+    private long seq;
+
+    /** A granted slot; hand it back with {@link #release(Permit)}. */
+    public static final class Permit {
+        /** Held when no admission applies (scheduler disabled or absent); releasing it is a no-op. */
+        public static final Permit NONE = new Permit(null);
+        private final TenantState tenant; // null -> a background slot outside every tenant cap
+        private Permit(TenantState tenant) { this.tenant = tenant; }
+    }
+
+    private static final class TenantState {
+        final String tenantId;
+        String plan;
+        int inFlight;
+        int queued;
+        double lastTag;
+        long atCapSince; // 0 while below its cap
+        long atCapNanos; // time spent at its cap before atCapSince
+        TenantState(String tenantId) { this.tenantId = tenantId; }
+
+        /** Total time this tenant has spent at its own cap, up to now. */
+        long atCap(long now) { return atCapNanos + (atCapSince != 0 ? now - atCapSince : 0); }
+    }
+
+    private record CachedPlan(String plan, long loadedAt) {}
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final TenantState tenant;
+        final double tag;
+        final long seq;
+        final long atCapMark;
+        volatile long ownCapNanos; // part of the wait the tenant's own cap was the blocker, set when granted
+        final CompletableFuture<Permit> granted = new CompletableFuture<>();
+        Waiter(TenantState tenant, double tag, long seq, long atCapMark) {
+            this.tenant = tenant; this.tag = tag; this.seq = seq; this.atCapMark = atCapMark;
+        }
+        @Override public int compareTo(Waiter o) {
+            int c = Double.compare(tag, o.tag);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    public ModelCallScheduler(TenantSettingsService settings, MeterRegistry metrics,
+                              @Value("${owl.llm.scheduler.enabled:true}") boolean enabled,
+                              @Value("${owl.llm.scheduler.max-concurrency:8}") int maxConcurrency,
+                              @Value("${owl.llm.scheduler.max-queue:500}") int maxQueue,
+                              @Value("${owl.llm.scheduler.weights:free=1,pro=4,enterprise=10}") String weights,
+                              @Value("${owl.llm.scheduler.tenant-limits:free=1,pro=4,enterprise=8}") String tenantLimits,
+                              @Value("${owl.llm.scheduler.plan-cache-seconds:60}") long planCacheSeconds) {
+        this.settings = settings;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.weights = new HashMap<>();
+        parse(weights).forEach((k, v) -> this.weights.put(k, Math.max(0.01, v)));
+        this.tenantLimits = new HashMap<>();
+        parse(tenantLimits).forEach((k, v) -> this.tenantLimits.put(k, Math.max(1, v.intValue())));
+        this.planCacheNanos = TimeUnit.SECONDS.toNanos(Math.max(0, planCacheSeconds));
+        metrics.gauge("llm.scheduler.inflight", Tags.empty(), this, s -> s.inFlight);
+        Set<String> labels = new HashSet<>(this.weights.keySet());
+        labels.add(DEFAULT_PLAN);
+        for (String plan : labels) {
+            metrics.gauge("llm.scheduler.queue.depth", Tags.of("plan", plan), this, s -> s.depth(plan));
+        }
+    }
+
+    static Map<String, Double> parse(String spec) {
+        Map<String, Double> out = new HashMap<>();
+        if (spec == null) return out;
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=", 2);
+            if (kv.length == 2 && !kv[0].isBlank()) {
+                try { out.put(kv[0].trim(), Double.parseDouble(kv[1].trim())); } catch (NumberFormatException ignored) {}
+            }
+        }
+        return out;
+    }
+
+    @Autowired(required = false)
+    public void setAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * True when nobody is queued and at least reserve (0..1) of the global slots are free: background work
+     * (cache warming) only starts a model call then, so it never competes with live requests.
+     */
+    public boolean hasSpareCapacity(double reserve) {
+        if (!enabled) return true;
+        lock.lock();
+        try {
+            return queue.isEmpty() && inFlight < maxConcurrency * (1.0 - reserve);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Runs call once the tenant is granted a slot. */
+    public <T> T run(String tenantId, Supplier<T> call) {
+        if (!enabled) return call.get();
+        Permit permit = acquire(tenantId);
+        try {
+            return call.get();
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * A global slot outside every tenant cap, for background work (cache warming): granted at once while nobody
+     * is queued and a slot is free, so it never holds a tenant's own slots against its live requests; throws
+     * {@link OverloadedException} otherwise instead of queueing.
+     */
+    public Permit acquireBackground() {
+        if (!enabled) return Permit.NONE;
+        lock.lock();
+        try {
+            if (!queue.isEmpty() || inFlight >= maxConcurrency) {
+                throw new OverloadedException("No spare model capacity for background work.", 2);
+            }
+            inFlight++;
+            return new Permit(null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Blocks until a slot is granted (at most until the request deadline); {@link Permit#NONE} when disabled. */
+    public Permit acquire(String tenantId) {
+        if (!enabled) return Permit.NONE;
+        String plan = planOf(tenantId);
+        long t0 = System.nanoTime();
+        Waiter w;
+        lock.lock();
+        try {
+            TenantState ts = tenants.computeIfAbsent(tenantId, TenantState::new);
+            ts.plan = plan;
+            trackCap(ts, t0);
+            if (queue.isEmpty() && inFlight < maxConcurrency && ts.inFlight < limit(ts)) {
+                recordWait(tenantId, plan, t0, 0);
+                return grant(ts);
+            }
+            if (queue.size() >= maxQueue) {
+                metrics.counter("llm.scheduler.rejected", "plan", plan).increment();
+                throw new OverloadedException("Model capacity exhausted; try again shortly.", 2);
+            }
+            double tag = Math.max(virtualTime, ts.lastTag) + 1.0 / weight(plan);
+            ts.lastTag = tag;
+            ts.queued++;
+            w = new Waiter(ts, tag, seq++, ts.atCap(t0));
+            queue.add(w);
+            dispatch(); // a free slot may be held back only by other tenants' caps
+        } finally {
+            lock.unlock();
+        }
+        return await(w, tenantId, plan, t0);
+    }
+
+    public void release(Permit permit) {
+        if (permit == null || permit == Permit.NONE) return;
+        lock.lock();
+        try {
+            inFlight--;
+            if (permit.tenant != null) {
+                permit.tenant.inFlight--;
+                trackCap(permit.tenant, System.nanoTime());
+            }
+            dispatch();
+            if (permit.tenant != null) forgetIfIdle(permit.tenant);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit await(Waiter w, String tenantId, String plan, long t0) {
+        Duration left = RequestDeadline.remaining();
+        try {
+            Permit p = left == null ? w.granted.get() : w.granted.get(left.toNanos(), TimeUnit.NANOSECONDS);
+            recordWait(tenantId, plan, t0, w.ownCapNanos);
+            return p;
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            long ownCap = abandon(w);
+            if (admission != null) admission.recordQueueTime(tenantId, Math.max(0, System.nanoTime() - t0 - ownCap));
+            throw e instanceof TimeoutException ? new DeadlineExceededException("model-queue")
+                    : new IllegalStateException("Interrupted while queued for the model", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Leaves the queue; a slot granted in the meantime is handed back. Returns how long of the wait the tenant
+     * was at its own cap.
+     */
+    private long abandon(Waiter w) {
+        lock.lock();
+        try {
+            if (queue.remove(w)) {
+                w.tenant.queued--;
+                long ownCap = w.tenant.atCap(System.nanoTime()) - w.atCapMark;
+                forgetIfIdle(w.tenant);
+                return ownCap;
+            }
+            if (w.granted.isDone()) release(w.granted.getNow(null));
+            return w.ownCapNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Grants free slots in tag order, skipping tenants at their cap. Caller holds the lock. */
+    private void dispatch() {
+        List<Waiter> blocked = new ArrayList<>();
+        while (inFlight < maxConcurrency && !queue.isEmpty()) {
+            Waiter w = queue.poll();
+            if (w.tenant.inFlight >= limit(w.tenant)) {
+                blocked.add(w);
+                continue;
+            }
+            virtualTime = Math.max(virtualTime, w.tag);
+            w.tenant.queued--;
+            w.ownCapNanos = w.tenant.atCap(System.nanoTime()) - w.atCapMark;
+            w.granted.complete(grant(w.tenant));
+        }
+        queue.addAll(blocked);
+    }
+
+    /** Idle tenants are dropped; a returning tenant starts again from the current virtual time. */
+    private void forgetIfIdle(TenantState ts) {
+        if (ts.inFlight == 0 && ts.queued == 0) tenants.remove(ts.tenantId, ts);
+    }
+
+    private Permit grant(TenantState ts) {
+        inFlight++;
+        ts.inFlight++;
+        trackCap(ts, System.nanoTime());
+        return new Permit(ts);
+    }
+
+    /** Opens or closes the tenant's at-cap interval after its in-flight count changed. Caller holds the lock. */
+    private void trackCap(TenantState ts, long now) {
+        boolean atCap = ts.inFlight >= limit(ts);
+        if (atCap && ts.atCapSince == 0) {
+            ts.atCapSince = now;
+        } else if (!atCap && ts.atCapSince != 0) {
+            ts.atCapNanos += now - ts.atCapSince;
+            ts.atCapSince = 0;
+        }
+    }
+
+    /** The full wait goes to metrics; admission only sees the part spent waiting for a global slot. */
+    private void recordWait(String tenantId, String plan, long t0, long ownCapNanos) {
+        long waited = System.nanoTime() - t0;
+        metrics.timer("llm.scheduler.queue.wait", "plan", plan).record(waited, TimeUnit.NANOSECONDS);
+        if (admission != null) admission.recordQueueTime(tenantId, Math.max(0, waited - ownCapNanos));
+        StageTimings t = StageTimings.current();
+        if (t != null) t.record("model_queue", t0, t0 + waited);
+    }
+
+    private int limit(TenantState ts) {
+        return Math.min(maxConcurrency, tenantLimits.getOrDefault(ts.plan, maxConcurrency));
+    }
+
+    private double weight(String plan) {
+        return weights.getOrDefault(plan, 1.0);
+    }
+
+    private int depth(String plan) {
+        lock.lock();
+        try {
+            int n = 0;
+            for (Waiter w : queue) if (plan.equals(w.tenant.plan)) n++;
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String planOf(String tenantId) {
+        CachedPlan c = plans.get(tenantId);
+        long now = System.nanoTime();
+        if (c != null && now - c.loadedAt() < planCacheNanos) return c.plan();
+        String plan = DEFAULT_PLAN;
+        try {
+            String p = settings.getOrCreate(tenantId).getPlan();
+            if (p != null && !p.isBlank()) plan = p;
+        } catch (Exception ignored) {
+            if (c != null) plan = c.plan();
+        }
+        plans.put(tenantId, new CachedPlan(plan, now));
+        return plan;
+    }
+}
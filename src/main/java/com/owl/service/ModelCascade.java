@@ -0,0 +1,105 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two-tier model cascade for KB-grounded answers: a small, fast model drafts first and the tenant's
+ * configured model is only called when a cheap verifier rejects the draft. The verifier is lexical
+ * groundedness: the share of the draft's sentences whose content words mostly occur in the retrieved
+ * chunks. Empty drafts and "I don't know" drafts are rejected too (the larger model may still find the
+ * answer in the same context). SSE streaming is not cascaded, since a draft must be complete to be verified.
+ * A drafted answer costs small.cost-per-call-usd; an escalated one that plus owl.cost.estimatePerCallUsd.
+ *
+ * Metrics: llm.cascade.time{tier=small|large}, llm.cascade.drafts{outcome=accepted|escalated},
+ * llm.cascade.escalations{reason=ungrounded|refused|empty|error}, llm.cascade.groundedness.
+ * Escalation rate = drafts{outcome=escalated} / drafts.
+ */
+@Component
+public class ModelCascade {
+
+    private static final double SENTENCE_SUPPORT = 0.5;
+
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final String smallProvider;
+    private final String smallModel;
+    private final double minGroundedness;
+    private final double smallCostPerCallUsd;
+
+    public ModelCascade(MeterRegistry metrics,
+                        @Value("${owl.llm.cascade.enabled:false}") boolean enabled,
+                        @Value("${owl.llm.cascade.small.provider:ollama}") String smallProvider,
+                        @Value("${owl.llm.cascade.small.model:}") String smallModel,
+                        @Value("${owl.llm.cascade.min-groundedness:0.6}") double minGroundedness,
+                        @Value("${owl.llm.cascade.small.cost-per-call-usd:0.0001}") double smallCostPerCallUsd) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.smallProvider = smallProvider;
+        this.smallModel = smallModel;
+        this.minGroundedness = minGroundedness;
+        this.smallCostPerCallUsd = Math.max(0, smallCostPerCallUsd);
+    }
+
+    /** Estimated cost of one small-tier call, charged whether or not its draft is accepted. */
+    public double smallCostPerCallUsd() { return smallCostPerCallUsd; }
+
+    public record Verdict(boolean accepted, double groundedness, String reason) {}
+
+    /** The small tier for a request routed to sel; empty when the cascade is off or sel already is that model. */
+    public Optional<ModelRoutingService.Selection> smallTierFor(ModelRoutingService.Selection sel) {
+        if (!enabled || smallModel == null || smallModel.isBlank()) return Optional.empty();
+        String provider = smallProvider == null || smallProvider.isBlank() ? "ollama" : smallProvider;
+        if (provider.equals(sel.provider()) && smallModel.equals(sel.chatModel())) return Optional.empty();
+        return Optional.of(new ModelRoutingService.Selection(provider, smallModel, sel.embedModel()));
+    }
+
+    /** Accepts draft when it is non-empty, not a refusal, and grounded in context above min-groundedness. */
+    public Verdict verify(String draft, List<DocumentRetrievalService.Scored> context) {
+        if (draft == null || draft.isBlank()) return new Verdict(false, 0, "empty");
+        if (draft.toLowerCase(Locale.ROOT).contains("i don't know")) return new Verdict(false, 0, "refused");
+        double g = groundedness(draft, context);
+        metrics.summary("llm.cascade.groundedness").record(g);
+        return g >= minGroundedness ? new Verdict(true, g, null) : new Verdict(false, g, "ungrounded");
+    }
+
+    /** Share of the draft's sentences (with at least three content words) that are mostly found in context. */
+    static double groundedness(String draft, List<DocumentRetrievalService.Scored> context) {
+        Set<String> contextTerms = new HashSet<>();
+        for (var c : context) {
+            if (c.doc().getText() != null) contextTerms.addAll(ExtractiveAnswers.terms(c.doc().getText()));
+        }
+        int considered = 0;
+        int supported = 0;
+        for (String sentence : ExtractiveAnswers.sentences(draft)) {
+            Set<String> terms = ExtractiveAnswers.terms(sentence);
+            if (terms.size() < 3) continue;
+            considered++;
+            long found = terms.stream().filter(contextTerms::contains).count();
+            if ((double) found / terms.size() >= SENTENCE_SUPPORT) supported++;
+        }
+        return considered == 0 ? 1.0 : (double) supported / considered;
+    }
+
+    public void recordTier(String tier, long nanos) {
+        metrics.timer("llm.cascade.time", "tier", tier).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordOutcome(Verdict v) {
+        metrics.counter("llm.cascade.drafts", "outcome", v.accepted() ? "accepted" : "escalated").increment();
+        if (!v.accepted()) metrics.counter("llm.cascade.escalations", "reason", v.reason()).increment();
+    }
+
+    /** The small model failed outright; the request escalates. */
+    public void recordError() {
+        recordOutcome(new Verdict(false, 0, "error"));
+    }
+}
@@ -0,0 +1,124 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import com.owl.exception.OverloadedException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * One resilience4j circuit breaker per model backend (provider:model, as keyed by ChatService), all built
+ * from the "llm" config under resilience4j.circuitbreaker.configs. An open circuit rejects calls with
+ * {@link CallNotPermittedException} before they reach the backend; ChatService then walks its degraded
+ * chain (alternate model, stale semantic-cache answer, retrieval-only extract).
+ *
+ * Shedding by our own limits (OverloadedException) and expired request deadlines do not count against a
+ * backend. State is on /actuator/circuitbreakers and /actuator/health, and as
+ * resilience4j.circuitbreaker.* meters tagged by name.
+ */
+@Component
+public class ModelCircuitBreakers {
+
+    static final String CONFIG = "llm";
+
+    private final CircuitBreakerRegistry registry;
+    private final boolean enabled;
+    private final String fallbackProvider;
+    private final String fallbackModel;
+
+    public ModelCircuitBreakers(CircuitBreakerRegistry registry,
+                                @Value("${owl.llm.circuit-breaker.enabled:true}") boolean enabled,
+                                @Value("${owl.llm.fallback.provider:}") String fallbackProvider,
+                                @Value("${owl.llm.fallback.model:}") String fallbackModel) {
+        this.registry = registry;
+        this.enabled = enabled;
+        this.fallbackProvider = fallbackProvider;
+        this.fallbackModel = fallbackModel;
+    }
+
+    /** Outcome callback for one permitted call (streams, Monos); the first report wins. */
+    public static final class Guard {
+        static final Guard NONE = new Guard(null);
+        private final CircuitBreaker breaker;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Guard(CircuitBreaker breaker) { this.breaker = breaker; }
+
+        public void onSuccess() {
+            if (breaker != null && done.compareAndSet(false, true)) breaker.onSuccess(elapsed(), TimeUnit.NANOSECONDS);
+        }
+        public void onError(Throwable t) {
+            if (breaker != null && done.compareAndSet(false, true)) breaker.onError(elapsed(), TimeUnit.NANOSECONDS, t);
+        }
+        /** Cancelled by the caller: gives the permission back without recording an outcome. */
+        public void onIgnore() {
+            if (breaker != null && done.compareAndSet(false, true)) breaker.releasePermission();
+        }
+        private long elapsed() { return System.nanoTime() - start; }
+    }
+
+    public <T> T call(String backend, Supplier<T> body) {
+        Guard g = acquire(backend);
+        try {
+            T v = body.get();
+            g.onSuccess();
+            return v;
+        } catch (RuntimeException | Error e) {
+            if (Thread.currentThread().isInterrupted()) g.onIgnore(); else g.onError(e);
+            throw e;
+        }
+    }
+
+    /** Takes a permission on backend's breaker, or throws {@link CallNotPermittedException} while it is open. */
+    public Guard acquire(String backend) {
+        if (!enabled) return Guard.NONE;
+        CircuitBreaker cb = breaker(backend);
+        cb.acquirePermission();
+        return new Guard(cb);
+    }
+
+    public boolean isCallPermitted(String backend) {
+        if (!enabled) return true;
+        var state = breaker(backend).getState();
+        return state != CircuitBreaker.State.OPEN && state != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    public CircuitBreaker.State stateOf(String backend) {
+        return breaker(backend).getState();
+    }
+
+    /** The configured alternate model (owl.llm.fallback.*) when it differs from sel, else empty. */
+    public Optional<ModelRoutingService.Selection> alternateFor(ModelRoutingService.Selection sel) {
+        if (fallbackProvider == null || fallbackProvider.isBlank()) return Optional.empty();
+        String model = fallbackModel == null || fallbackModel.isBlank() ? null : fallbackModel;
+        if (fallbackProvider.equals(sel.provider()) && java.util.Objects.equals(model, sel.chatModel())) return Optional.empty();
+        return Optional.of(new ModelRoutingService.Selection(fallbackProvider, model, sel.embedModel()));
+    }
+
+    /** Seconds until an open breaker half-opens, for Retry-After when nothing could answer. */
+    public long retryAfterSeconds(String backend) {
+        var wait = breaker(backend).getCircuitBreakerConfig().getWaitIntervalFunctionInOpenState().apply(1);
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(wait));
+    }
+
+    private CircuitBreaker breaker(String backend) {
+        return registry.getConfiguration(CONFIG).isPresent()
+                ? registry.circuitBreaker(backend, CONFIG)
+                : registry.circuitBreaker(backend, defaults());
+    }
+
+    /** Used when no "llm" config is defined (e.g. tests building their own registry). */
+    static CircuitBreakerConfig defaults() {
+        return CircuitBreakerConfig.custom()
+                .ignoreExceptions(OverloadedException.class, DeadlineExceededException.class)
+                .build();
+    }
+}
@@ -4,16 +4,21 @@ import com.owl.model.ModelCredentials;
 import com.owl.service.ModelRoutingService.Selection;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.openai.OpenAiChatModel;
 import org.springframework.ai.openai.api.OpenAiApi;
 // import org.springframework.ai.azure.openai.AzureOpenAiChatModel;
 // import org.springframework.ai.azure.openai.api.AzureOpenAiApi;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Service
 public class ModelProviderRouter {
     private final ChatClient defaultClient;
     private final ModelCredentialsService creds;
+    private final Map<String, ChatClient> pinned = new ConcurrentHashMap<>();
 
     public ModelProviderRouter(ChatClient defaultClient, ModelCredentialsService creds) {
         this.defaultClient = defaultClient;
@@ -30,6 +35,20 @@ public class ModelProviderRouter {
         };
     }
 
+    /**
+     * As {@link #chatClientFor}, with sel.chatModel() set as the client's default model option, so two
+     * models of one provider (e.g. the cascade's small and large tier on Ollama) get distinct clients.
+     */
+    public ChatClient pinnedClientFor(String tenantId, Selection sel) {
+        ChatClient base = chatClientFor(tenantId, sel);
+        if (sel.chatModel() == null || sel.chatModel().isBlank()) return base;
+        String provider = sel.provider() == null ? "ollama" : sel.provider();
+        String key = ("ollama".equals(provider) ? "" : tenantId) + "|" + provider + ":" + sel.chatModel();
+        return pinned.computeIfAbsent(key, k -> base.mutate()
+                .defaultOptions(ChatOptions.builder().model(sel.chatModel()).build())
+                .build());
+    }
+
     private ChatClient openAiClient(String tenantId, String model) {
         // TODO: Fix OpenAI integration when proper API classes are available
         return defaultClient;
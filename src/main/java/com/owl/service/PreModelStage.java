@@ -0,0 +1,111 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * One independent pre-model lookup of a chat request (quota, safety, caches).
+ * With an executor the lookup starts immediately in the background; without one it runs
+ * lazily on the caller's thread at the first {@link #join()}, which keeps the original serial behaviour;
+ * later joins (including those of stages chained with {@link #then}) reuse that result, so every stage
+ * runs exactly once in both modes.
+ * The caller joins stages in priority order and cancels the rest once one is decisive. A stage that needs
+ * another's result is chained with {@link #then}, never by joining inside a stage: that would park a pool
+ * thread on work queued to the same pool.
+ */
+final class PreModelStage<T> {
+
+    private final Executor executor;
+    private final Supplier<T> body;
+    private final CompletableFuture<T> async;
+    private final Long deadline;
+    private boolean ran; // serial mode: body already ran, its outcome is value or failure
+    private T value;
+    private RuntimeException failure;
+
+    PreModelStage(Executor executor, Supplier<T> body) {
+        this.executor = executor;
+        this.deadline = RequestDeadline.current();
+        this.body = body;
+        Context ctx = Context.capture();
+        this.async = executor == null ? null : CompletableFuture.supplyAsync(() -> ctx.call(body), executor);
+    }
+
+    private PreModelStage(Executor executor, Supplier<T> body, CompletableFuture<T> async, Long deadline) {
+        this.executor = executor;
+        this.body = body;
+        this.async = async;
+        this.deadline = deadline;
+    }
+
+    /** A stage computing next from this stage's result, started on the executor once this one completes. */
+    <R> PreModelStage<R> then(Function<T, R> next) {
+        Supplier<R> lazy = () -> next.apply(join());
+        if (async == null) return new PreModelStage<>(null, lazy, null, deadline);
+        Context ctx = Context.capture();
+        CompletableFuture<R> chained = async.thenApplyAsync(v -> ctx.call(() -> next.apply(v)), executor);
+        return new PreModelStage<>(executor, lazy, chained, deadline);
+    }
+
+    /** Region override, query embedding, stage timings and deadline are thread-local; carried to the stage thread. */
+    private record Context(String region, QueryEmbeddingContext embedding, StageTimings timings, Long deadline) {
+        static Context capture() {
+            return new Context(TenantRegionContext.getOverrideRegion(), QueryEmbeddingContext.current(),
+                    StageTimings.current(), RequestDeadline.current());
+        }
+
+        <V> V call(Supplier<V> body) {
+            return TenantRegionContext.callWith(region, () -> QueryEmbeddingContext.callWith(embedding,
+                    () -> StageTimings.callWith(timings, () -> RequestDeadline.callWith(deadline, body))));
+        }
+    }
+
+    /** Waits for the lookup, at most until the request deadline. */
+    T join() {
+        if (async == null) {
+            if (!ran) {
+                RequestDeadline.check("pre-model");
+                try {
+                    value = body.get();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                ran = true;
+            }
+            if (failure != null) throw failure;
+            return value;
+        }
+        Duration left = RequestDeadline.remaining(deadline);
+        try {
+            return left == null ? async.join() : async.get(left.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            async.cancel(true);
+            throw new DeadlineExceededException("pre-model");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (CompletionException | ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw e instanceof CompletionException ce ? ce : new CompletionException(e.getCause());
+        }
+    }
+
+    /** Abandons a lookup that is no longer needed; a stage that has not started yet will not run. */
+    void cancel() {
+        if (async != null) async.cancel(true);
+    }
+
+    static void cancelAll(PreModelStage<?>... stages) {
+        for (PreModelStage<?> s : stages) s.cancel();
+    }
+}
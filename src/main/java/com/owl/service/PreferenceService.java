@@ -1,26 +1,50 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientException;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Highly rated answers (type=pref) reused for near-identical questions.
+ *
+ * Metrics: vector.search.fallback{caller=preference} counts Qdrant searches that failed over to the VectorStore.
+ */
 @Service
 public class PreferenceService {
+    private static final Logger log = LoggerFactory.getLogger(PreferenceService.class);
+
     private final VectorStore store;
+    private final TenantVectorService vectors; // null -> VectorStore search (embeds the query itself)
+    private final MeterRegistry metrics;
     private final double threshold;
 
+    @Autowired
     public PreferenceService(VectorStore store,
+                             TenantVectorService vectors,
+                             MeterRegistry metrics,
                              @Value("${owl.preference.similarity-threshold:0.92}") double threshold) {
         this.store = store;
+        this.vectors = vectors;
+        this.metrics = metrics;
         this.threshold = threshold;
     }
 
+    PreferenceService(VectorStore store, double threshold) {
+        this(store, null, new SimpleMeterRegistry(), threshold);
+    }
+
     public Optional<String> lookup(String tenantId, String query) {
         SearchRequest req = SearchRequest.builder()
                 .query(query)
@@ -28,7 +52,18 @@ public class PreferenceService {
                 .similarityThreshold(0.0)
                 .filterExpression("tenantId == '" + tenantId.replace("'","\\'") + "' && type == 'pref'")
                 .build();
-        List<Document> hits = store.similaritySearch(req);
+        List<Document> hits = null;
+        if (vectors != null) {
+            try {
+                hits = vectors.searchShared(query, List.of(
+                        Map.of("key", "tenantId", "match", Map.of("value", tenantId)),
+                        Map.of("key", "type", "match", Map.of("value", "pref"))), 1);
+            } catch (WebClientException e) {
+                log.warn("Qdrant preference search failed for tenant {}, falling back to the VectorStore: {}", tenantId, e.toString());
+                metrics.counter("vector.search.fallback", "caller", "preference").increment();
+            }
+        }
+        if (hits == null) hits = store.similaritySearch(req);
         if (hits == null || hits.isEmpty()) return Optional.empty();
         Document d = hits.get(0);
         double score = readScore(d);
@@ -1,47 +1,288 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Exact prompt/model answer cache. L2 is the tenant's Mongo prompt_cache collection (TTL index on
+ * createdAt, {@link #TTL}); L1 is an in-process W-TinyLFU cache per tenant ({@link TinyLfuCache}) keyed by
+ * the same hash, weighted by approximate bytes, capped at owl.prompt-cache.l1.tenant-max-bytes per tenant
+ * and owl.prompt-cache.l1.max-bytes overall (the largest tenant gives way first). L1 entries expire
+ * with the L2 document they came from. Saves write through both levels.
+ * Grounded answers record the KB versions of their sources; an answer whose source changed since is a miss
+ * at either level, and a {@link KnowledgeVersionService.Changed} event deletes its L2 documents.
+ * With a {@link QueryCanonicalizer} in ON mode prompts are keyed by their canonical form. In SHADOW mode
+ * keys stay verbatim and each lookup is also classified against the canonical keys of the last shadow-window
+ * answers saved or found per tenant on this replica: gain = a verbatim miss that canonical keys would have
+ * hit, so gain / all is the expected hit-rate increase.
+ *
+ * Metrics: prompt.cache.requests{level=l1|l2,result=hit|miss|stale}, prompt.cache.l1.evictions{cause=size|rejected|expired|global},
+ * prompt.cache.l1.bytes, prompt.cache.l1.entries, prompt.cache.canonical{result=hit|gain|miss} (shadow mode).
+ */
 @Service
 public class PromptCacheService {
 
+    static final Duration TTL = Duration.ofDays(7);
+    private static final String COLLECTION = "prompt_cache";
+
+    /** An L1 value: the answer and the source versions it was grounded on. */
+    private record Cached(String answer, Map<String, Long> sources) {}
+
     private final TenantMongoManager tenants;
+    private final MeterRegistry metrics;
+    private final boolean l1Enabled;
+    private final long maxBytes;
+    private final long tenantMaxBytes;
+    private final Map<String, TinyLfuCache<String, Cached>> l1 = new ConcurrentHashMap<>();
+    private final AtomicLong l1Bytes = new AtomicLong();
+    private final Set<MongoTemplate> indexed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final int shadowWindow;
+    private final Map<String, Map<String, String>> shadowKeys = new ConcurrentHashMap<>(); // canonical -> verbatim key
+    private KnowledgeVersionService kbVersions; // null -> answers are served regardless of KB changes
+    private QueryCanonicalizer canonicalizer; // null -> prompts are keyed verbatim
 
-    public PromptCacheService(TenantMongoManager tenants) {
+    @Autowired
+    public PromptCacheService(TenantMongoManager tenants, MeterRegistry metrics,
+                              @Value("${owl.prompt-cache.l1.enabled:true}") boolean l1Enabled,
+                              @Value("${owl.prompt-cache.l1.max-bytes:67108864}") long maxBytes,
+                              @Value("${owl.prompt-cache.l1.tenant-max-bytes:8388608}") long tenantMaxBytes,
+                              @Value("${owl.query.canonical.shadow-window:10000}") int shadowWindow) {
+        this.shadowWindow = Math.max(1, shadowWindow);
         this.tenants = tenants;
+        this.metrics = metrics;
+        this.l1Enabled = l1Enabled;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.tenantMaxBytes = Math.max(1, Math.min(tenantMaxBytes, this.maxBytes));
+        metrics.gauge("prompt.cache.l1.bytes", Tags.empty(), l1Bytes, AtomicLong::get);
+        metrics.gauge("prompt.cache.l1.entries", Tags.empty(), l1, m -> m.values().stream().mapToInt(PromptCacheService::sizeOf).sum());
+    }
+
+    public PromptCacheService(TenantMongoManager tenants, MeterRegistry metrics, boolean l1Enabled, long maxBytes,
+                              long tenantMaxBytes) {
+        this(tenants, metrics, l1Enabled, maxBytes, tenantMaxBytes, 10_000);
+    }
+
+    @Autowired(required = false)
+    public void setKnowledgeVersions(KnowledgeVersionService kbVersions) {
+        this.kbVersions = kbVersions;
+    }
+
+    @Autowired(required = false)
+    public void setCanonicalizer(QueryCanonicalizer canonicalizer) {
+        this.canonicalizer = canonicalizer;
     }
 
     public String lookup(String tenantId, String model, String prompt) {
+        String key = keyOf(tenantId, model, prompt);
+        String answer = find(tenantId, key);
+        if (shadowing()) shadowLookup(tenantId, model, prompt, key, answer != null);
+        return answer;
+    }
+
+    private String find(String tenantId, String key) {
+        if (l1Enabled) {
+            var seg = l1.get(tenantId);
+            Cached hit = null;
+            if (seg != null) {
+                long delta;
+                synchronized (seg) {
+                    long before = seg.weight();
+                    hit = seg.get(key, System.nanoTime());
+                    if (hit != null && !current(tenantId, hit.sources())) {
+                        seg.remove(key, TinyLfuCache.Removal.EXPLICIT);
+                        hit = null;
+                    }
+                    delta = seg.weight() - before; // an expired or stale entry was dropped
+                }
+                if (delta != 0) l1Bytes.addAndGet(delta);
+            }
+            metrics.counter("prompt.cache.requests", "level", "l1", "result", hit != null ? "hit" : "miss").increment();
+            if (hit != null) return hit.answer();
+        }
         MongoTemplate tpl = tenants.templateForTenant(tenantId);
         ensureIndex(tpl);
-        String key = hash(model + "|" + prompt);
-        Map doc = tpl.findOne(Query.query(Criteria.where("_id").is(key)), Map.class, "prompt_cache");
-        return doc == null ? null : (String) doc.get("answer");
+        Map doc = tpl.findOne(Query.query(Criteria.where("_id").is(key)), Map.class, COLLECTION);
+        long age = doc == null ? 0 : ageMillis(doc.get("createdAt"));
+        String answer = doc == null || age >= TTL.toMillis() ? null : (String) doc.get("answer"); // not yet reaped
+        Map<String, Long> sources = doc == null ? Map.of() : KnowledgeVersionService.fromStored(doc.get("sources"));
+        if (answer != null && !current(tenantId, sources)) {
+            metrics.counter("prompt.cache.requests", "level", "l2", "result", "stale").increment();
+            return null; // overwritten by the fresh answer's save
+        }
+        metrics.counter("prompt.cache.requests", "level", "l2", "result", answer != null ? "hit" : "miss").increment();
+        if (answer != null && l1Enabled) putL1(tenantId, key, new Cached(answer, sources), TTL.toMillis() - age);
+        return answer;
     }
 
     public void save(String tenantId, String model, String prompt, String answer) {
+        save(tenantId, model, prompt, answer, Map.of());
+    }
+
+    /** Saves an answer grounded on sources at these KB versions ({@link KnowledgeVersionService#snapshot}). */
+    public void save(String tenantId, String model, String prompt, String answer, Map<String, Long> sources) {
         MongoTemplate tpl = tenants.templateForTenant(tenantId);
         ensureIndex(tpl);
-        String key = hash(model + "|" + prompt);
-        tpl.save(Map.of("_id", key, "model", model, "answer", answer, "createdAt", System.currentTimeMillis()), "prompt_cache");
+        String key = keyOf(tenantId, model, prompt);
+        if (shadowing()) rememberShadow(tenantId, hash(model + "|" + canonicalizer.canonicalize(tenantId, prompt)), key);
+        // A Date, not epoch millis: the TTL index only expires date-typed fields.
+        Map<String, Object> doc = new HashMap<>(Map.of("_id", key, "model", model, "answer", answer, "createdAt", new Date()));
+        if (sources != null && !sources.isEmpty()) doc.put("sources", KnowledgeVersionService.toStored(sources));
+        tpl.save(doc, COLLECTION);
+        if (l1Enabled) putL1(tenantId, key, new Cached(answer, sources == null ? Map.of() : sources), TTL.toMillis());
+    }
+
+    /** A source changed: delete the L2 answers grounded on it (L1 copies are dropped when next read). */
+    @EventListener
+    public void onKnowledgeChanged(KnowledgeVersionService.Changed e) {
+        try {
+            tenants.templateForTenant(e.tenantId())
+                    .remove(Query.query(Criteria.where("sources.name").is(e.source())), COLLECTION);
+        } catch (Exception ignored) {} // the version check at lookup still refuses them
+    }
+
+    private String keyOf(String tenantId, String model, String prompt) {
+        boolean canonical = canonicalizer != null && canonicalizer.mode() == QueryCanonicalizer.Mode.ON;
+        return hash(model + "|" + (canonical ? canonicalizer.canonicalize(tenantId, prompt) : prompt));
+    }
+
+    private boolean shadowing() {
+        return canonicalizer != null && canonicalizer.mode() == QueryCanonicalizer.Mode.SHADOW;
+    }
+
+    /** Classifies a verbatim lookup: hit, gain (another phrasing of it is cached) or miss. */
+    private void shadowLookup(String tenantId, String model, String prompt, String key, boolean hit) {
+        String canonicalKey = hash(model + "|" + canonicalizer.canonicalize(tenantId, prompt));
+        String result;
+        if (hit) {
+            rememberShadow(tenantId, canonicalKey, key);
+            result = "hit";
+        } else {
+            Map<String, String> recent = shadowKeys.get(tenantId);
+            String cachedKey = null;
+            if (recent != null) {
+                synchronized (recent) {
+                    cachedKey = recent.get(canonicalKey);
+                }
+            }
+            result = cachedKey != null && !cachedKey.equals(key) ? "gain" : "miss";
+        }
+        metrics.counter("prompt.cache.canonical", "result", result).increment();
+    }
+
+    private void rememberShadow(String tenantId, String canonicalKey, String key) {
+        Map<String, String> recent = shadowKeys.computeIfAbsent(tenantId, t -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > shadowWindow;
+            }
+        });
+        synchronized (recent) {
+            recent.put(canonicalKey, key);
+        }
+    }
+
+    private boolean current(String tenantId, Map<String, Long> sources) {
+        return kbVersions == null || kbVersions.isCurrent(tenantId, sources);
+    }
+
+    private void putL1(String tenantId, String key, Cached answer, long ttlMillis) {
+        var seg = l1.computeIfAbsent(tenantId, t -> new TinyLfuCache<>(tenantMaxBytes,
+                (int) Math.min(1 << 20, tenantMaxBytes / 1024), PromptCacheService::weigh,
+                (k, v, cause) -> metrics.counter("prompt.cache.l1.evictions", "cause", cause.name().toLowerCase()).increment()));
+        long delta;
+        synchronized (seg) {
+            long before = seg.weight();
+            seg.put(key, answer, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+            delta = seg.weight() - before;
+        }
+        if (l1Bytes.addAndGet(delta) > maxBytes) shrinkGlobal();
+    }
+
+    /** Over the global cap: evict from the largest tenant segment until back under it. */
+    private void shrinkGlobal() {
+        while (l1Bytes.get() > maxBytes) {
+            var largest = l1.values().stream().max(Comparator.comparingLong(PromptCacheService::weightOf));
+            if (largest.isEmpty()) return;
+            var seg = largest.get();
+            long delta;
+            synchronized (seg) {
+                long before = seg.weight();
+                if (!seg.evictOne(TinyLfuCache.Removal.SIZE)) return;
+                delta = seg.weight() - before;
+            }
+            l1Bytes.addAndGet(delta);
+            metrics.counter("prompt.cache.l1.evictions", "cause", "global").increment();
+        }
+    }
+
+    /** Drops expired L1 entries. */
+    @Scheduled(fixedDelayString = "${owl.prompt-cache.l1.cleanup-interval-ms:300000}")
+    public void expireL1() {
+        long now = System.nanoTime();
+        for (var seg : l1.values()) {
+            long delta;
+            synchronized (seg) {
+                long before = seg.weight();
+                seg.expire(now);
+                delta = seg.weight() - before;
+            }
+            l1Bytes.addAndGet(delta);
+        }
+    }
+
+    /** Approximate heap bytes of an entry: UTF-16 answer, 43-char key, node and map overhead, source versions. */
+    private static long weigh(Cached c) {
+        long sources = 0;
+        for (String s : c.sources().keySet()) sources += 2L * s.length() + 96;
+        return 2L * c.answer().length() + 2L * 43 + 160 + sources;
+    }
+
+    private static long weightOf(TinyLfuCache<String, Cached> seg) {
+        synchronized (seg) { return seg.weight(); }
+    }
+
+    private static int sizeOf(TinyLfuCache<String, Cached> seg) {
+        synchronized (seg) { return seg.size(); }
+    }
+
+    private static long ageMillis(Object createdAt) {
+        long at = createdAt instanceof Date d ? d.getTime() : createdAt instanceof Number n ? n.longValue() : System.currentTimeMillis();
+        return Math.max(0, System.currentTimeMillis() - at);
     }
 
     private void ensureIndex(MongoTemplate tpl) {
-        IndexOperations ops = tpl.indexOps("prompt_cache");
+        if (indexed.contains(tpl)) return;
+        IndexOperations ops = tpl.indexOps(COLLECTION);
         try {
             ops.ensureIndex(new Index()
                     .on("createdAt", org.springframework.data.domain.Sort.Direction.DESC)
-                    .expire(java.time.Duration.ofDays(7)));
+                    .expire(TTL));
+            indexed.add(tpl);
         } catch (Exception ignored) {}
     }
 
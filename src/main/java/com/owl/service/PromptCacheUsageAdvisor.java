@@ -0,0 +1,62 @@
+package com.owl.service;
+
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.core.Ordered;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reports provider prefix-cache usage for ChatClient calls to {@link PromptLayout#recordUsage}. Only
+ * providers that return cached-token counts are reported (OpenAI's usage.prompt_tokens_details); for
+ * streams, the last usage seen (OpenAI sends it on the final chunk) is recorded on completion.
+ */
+public class PromptCacheUsageAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private final PromptLayout layout;
+
+    public PromptCacheUsageAdvisor(PromptLayout layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public String getName() { return "promptCacheUsage"; }
+
+    @Override
+    public int getOrder() { return Ordered.LOWEST_PRECEDENCE; }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        ChatClientResponse response = chain.nextCall(request);
+        record(response.chatResponse());
+        return response;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        AtomicReference<ChatResponse> withUsage = new AtomicReference<>();
+        return chain.nextStream(request)
+                .doOnNext(r -> { if (openAiUsage(r.chatResponse()) != null) withUsage.set(r.chatResponse()); })
+                .doOnComplete(() -> record(withUsage.get()));
+    }
+
+    private void record(ChatResponse response) {
+        OpenAiApi.Usage usage = openAiUsage(response);
+        if (usage == null) return;
+        Integer cached = usage.promptTokensDetails() == null ? null : usage.promptTokensDetails().cachedTokens();
+        layout.recordUsage("openai:" + response.getMetadata().getModel(), usage.promptTokens(), cached == null ? 0 : cached);
+    }
+
+    static OpenAiApi.Usage openAiUsage(ChatResponse response) {
+        if (response == null || response.getMetadata() == null || response.getMetadata().getUsage() == null) return null;
+        return response.getMetadata().getUsage().getNativeUsage() instanceof OpenAiApi.Usage u
+                && u.promptTokens() != null && u.promptTokens() > 0 ? u : null;
+    }
+}
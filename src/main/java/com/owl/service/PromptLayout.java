@@ -0,0 +1,138 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Lays out system prompts so providers can reuse their prefix (KV) cache: the static instructions come
+ * first and are byte-identical on every call, the context follows in a deterministic order (by source,
+ * then chunk id, then text, rather than by retrieval score, which jitters between calls), and chunk text
+ * is whitespace-normalized. The same set of chunks therefore always yields the same bytes, whatever order
+ * retrieval or reranking returned them in. The user's question stays in the user message, after the prefix.
+ * With owl.chat.prompt.stable-order=false chunks keep their best-first order.
+ *
+ * Prefix reuse is tracked two ways: an app-side estimate (was the same system prompt sent to the same
+ * backend within owl.chat.prompt.prefix-ttl-seconds, e.g. Ollama's keep-alive), and, when the provider
+ * reports it (OpenAI usage.prompt_tokens_details.cached_tokens, or the model proxy's usage), the tokens
+ * actually served from its cache. Hit rate = llm.prompt.cached_tokens / llm.prompt.tokens.
+ *
+ * Metrics: llm.prompt.prefix{backend,reuse=hit|miss}, llm.prompt.tokens{backend}, llm.prompt.cached_tokens{backend}.
+ */
+@Component
+public class PromptLayout {
+
+    static final String GROUNDED_INSTRUCTIONS = """
+            You are Owl, a helpful assistant for enterprise knowledge.
+            Use ONLY the information inside <CONTEXT>. If the answer is not in <CONTEXT>,
+            reply exactly: "I don't know based on the provided knowledge."
+            Keep answers concise. If helpful, add a brief "Sources" list.
+            """;
+
+    static final String WEB_INSTRUCTIONS = "Use ONLY the information in <CONTEXT> to answer. If unknown, say you don't know.\n";
+
+    private final MeterRegistry metrics;
+    private final boolean stableOrder;
+    private final int prefixWindow;
+    private final long prefixTtlNanos;
+    private final Map<String, Map<String, Long>> recentPrefixes = new ConcurrentHashMap<>();
+
+    public PromptLayout(MeterRegistry metrics,
+                        @Value("${owl.chat.prompt.stable-order:true}") boolean stableOrder,
+                        @Value("${owl.chat.prompt.prefix-window:1024}") int prefixWindow,
+                        @Value("${owl.chat.prompt.prefix-ttl-seconds:300}") long prefixTtlSeconds) {
+        this.metrics = metrics;
+        this.stableOrder = stableOrder;
+        this.prefixWindow = Math.max(1, prefixWindow);
+        this.prefixTtlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, prefixTtlSeconds));
+    }
+
+    /** System prompt for KB-grounded answers over chunks. */
+    public String grounded(List<DocumentRetrievalService.Scored> chunks) {
+        return layout(GROUNDED_INSTRUCTIONS, chunks, DocumentRetrievalService.Scored::doc);
+    }
+
+    /** System prompt for web-fallback answers over docs. */
+    public String web(List<Document> docs) {
+        return layout(WEB_INSTRUCTIONS, docs, Function.identity());
+    }
+
+    private <T> String layout(String instructions, List<T> items, Function<T, Document> doc) {
+        List<Document> docs = items.stream().map(doc).toList();
+        return render(instructions, stableOrder ? docs.stream().sorted(CANONICAL).toList() : docs);
+    }
+
+    /** instructions, then docs in the given order inside &lt;CONTEXT&gt;, whitespace-normalized. */
+    static String render(String instructions, List<Document> docs) {
+        StringBuilder sb = new StringBuilder(instructions).append("<CONTEXT>\n");
+        for (Document d : docs) sb.append(normalize(d.getText())).append("\n---\n");
+        return sb.append("</CONTEXT>").toString();
+    }
+
+    /** Source (filename or url), then id, then text: independent of score, stable across calls. */
+    static final Comparator<Document> CANONICAL = Comparator
+            .comparing((Document d) -> sourceOf(d))
+            .thenComparing(d -> Objects.toString(d.getId(), ""))
+            .thenComparing(d -> Objects.toString(d.getText(), ""));
+
+    static String sourceOf(Document d) {
+        Object s = d.getMetadata().getOrDefault("filename", d.getMetadata().get("url"));
+        return s == null ? "" : s.toString();
+    }
+
+    /** Unix newlines, no trailing whitespace per line, no blank edges. */
+    static String normalize(String text) {
+        if (text == null) return "";
+        return text.replace("\r\n", "\n").replace('\r', '\n').replaceAll("[ \\t]+\n", "\n").strip();
+    }
+
+    /** Counts whether systemText went to backend recently enough for its prefix to still be cached there. */
+    public void recordPrefix(String backend, String systemText) {
+        if (systemText == null) return;
+        String key = digest(systemText);
+        long now = System.nanoTime();
+        Map<String, Long> recent = recentPrefixes.computeIfAbsent(backend, b -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > prefixWindow;
+            }
+        });
+        Long last;
+        synchronized (recent) {
+            last = recent.put(key, now);
+        }
+        boolean hit = last != null && now - last < prefixTtlNanos;
+        metrics.counter("llm.prompt.prefix", "backend", backend, "reuse", hit ? "hit" : "miss").increment();
+    }
+
+    /** Provider-reported prompt usage; cachedTokens null when the provider does not report prefix-cache hits. */
+    public void recordUsage(String backend, Integer promptTokens, Integer cachedTokens) {
+        if (promptTokens == null || promptTokens <= 0 || cachedTokens == null) return;
+        metrics.counter("llm.prompt.tokens", "backend", backend).increment(promptTokens);
+        metrics.counter("llm.prompt.cached_tokens", "backend", backend).increment(Math.min(cachedTokens, promptTokens));
+    }
+
+    static String digest(String text) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) sb.append(String.format("%02x", h[i]));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.owl.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -14,6 +15,9 @@ public class QdrantAdminClient {
 
     private final WebClient http;
     private final String collection;
+    private SemanticCacheIndex cacheIndex; // null -> no in-process cache index to drop
+    private KnowledgeVersionService kbVersions; // null -> answers built from a purged source stay cached
+    private CacheWarmer warmer; // null -> a purged cache fills again from live traffic only
 
     public QdrantAdminClient(@Value("${QDRANT_URL:http://localhost:6333}") String qdrantUrl,
                              @Value("${spring.ai.vectorstore.qdrant.collection-name}") String collection) {
@@ -21,6 +25,22 @@ public class QdrantAdminClient {
         this.collection = collection;
     }
 
+    @Autowired(required = false)
+    public void setCacheIndex(SemanticCacheIndex cacheIndex) {
+        this.cacheIndex = cacheIndex;
+    }
+
+    @Autowired(required = false)
+    public void setKnowledgeVersions(KnowledgeVersionService kbVersions) {
+        this.kbVersions = kbVersions;
+    }
+
+    @Autowired(required = false)
+    public void setWarmer(CacheWarmer warmer) {
+        this.warmer = warmer;
+    }
+
+    /** Deletes the source's chunks (and, with includeCache, its cache points) and bumps its KB version. */
     public void purgeBySource(String tenantId, String source, boolean includeCache) {
         var must = new java.util.ArrayList<Map<String, Object>>();
         must.add(Map.of("key", "tenantId", "match", Map.of("value", tenantId)));
@@ -30,6 +50,7 @@ public class QdrantAdminClient {
         )));
         if (!includeCache) must.add(Map.of("key", "type", "match", Map.of("value", "kb")));
         deleteByFilter(Map.of("must", must));
+        if (kbVersions != null) kbVersions.bump(tenantId, source);
     }
 
     public void purgeCache(String tenantId) {
@@ -38,6 +59,8 @@ public class QdrantAdminClient {
                 Map.of("key", "type", "match", Map.of("value", "cache"))
         );
         deleteByFilter(Map.of("must", must));
+        if (cacheIndex != null) cacheIndex.clear(tenantId);
+        if (warmer != null) warmer.warmTenant(tenantId);
     }
 
     private void deleteByFilter(Map<String, Object> filter) {
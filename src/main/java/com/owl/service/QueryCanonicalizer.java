@@ -0,0 +1,16 @@
+package com.owl.service;
+
+/**
+ * Maps equivalent phrasings of a question to one canonical string for exact cache keys (prompt cache,
+ * single-flight). Implementations must be deterministic and should only drop or rewrite text that does
+ * not change the answer. {@link #mode()} decides whether the canonical form is used for keys (ON) or
+ * only measured against the verbatim keys (SHADOW).
+ */
+public interface QueryCanonicalizer {
+
+    enum Mode { OFF, SHADOW, ON }
+
+    Mode mode();
+
+    String canonicalize(String tenantId, String query);
+}
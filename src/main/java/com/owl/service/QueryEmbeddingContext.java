@@ -0,0 +1,65 @@
+package com.owl.service;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Request-scoped embedding of the user question. ChatService opens a context per request so the
+ * semantic cache, preference memory and KB retrieval all search with one embedding call instead of
+ * embedding the same text three or more times. Thread-local like {@link TenantRegionContext};
+ * {@link PreModelStage} carries it to stage threads.
+ */
+public final class QueryEmbeddingContext {
+    private static final ThreadLocal<QueryEmbeddingContext> TL = new ThreadLocal<>();
+
+    private final String query;
+    private final ReentrantLock lock = new ReentrantLock(); // not synchronized: embedding blocks on I/O and would pin a virtual thread
+    private float[] vector;
+
+    private QueryEmbeddingContext(String query) { this.query = query; }
+
+    public static QueryEmbeddingContext current() { return TL.get(); }
+
+    /** A detached context for query, for callers that hand it across threads themselves (reactive path). */
+    public static QueryEmbeddingContext of(String query) { return new QueryEmbeddingContext(query); }
+
+    /** A context whose vector was already computed, e.g. by one batched embedding call for many questions. */
+    public static QueryEmbeddingContext of(String query, float[] vector) {
+        QueryEmbeddingContext ctx = new QueryEmbeddingContext(query);
+        ctx.vector = vector;
+        return ctx;
+    }
+
+    /** Runs body with a context for query, reusing the open one when it is for the same text. */
+    public static <T> T callWith(String query, Supplier<T> body) {
+        QueryEmbeddingContext open = TL.get();
+        if (open != null && open.query.equals(query)) return body.get();
+        return callWith(new QueryEmbeddingContext(query), body);
+    }
+
+    /** Runs body with an existing context (null clears it), restoring the previous one afterwards. */
+    public static <T> T callWith(QueryEmbeddingContext ctx, Supplier<T> body) {
+        QueryEmbeddingContext prev = TL.get();
+        if (ctx == null) TL.remove(); else TL.set(ctx);
+        try { return body.get(); } finally { if (prev == null) TL.remove(); else TL.set(prev); }
+    }
+
+    /** Embeds query, reusing the request's vector when the open context is for the same text. */
+    public static float[] embed(EmbeddingModel model, String query) {
+        QueryEmbeddingContext ctx = TL.get();
+        if (ctx != null && ctx.query.equals(query)) return ctx.vector(model);
+        return model.embed(query);
+    }
+
+    private float[] vector(EmbeddingModel model) {
+        lock.lock();
+        try {
+            if (vector == null) vector = StageTimings.time("embed", () -> model.embed(query));
+            return vector;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.owl.service;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
@@ -35,5 +36,11 @@ public class QuotaService {
         used++;
         core.save(Map.of("tenantId", tenantId, "month", mk, "requests", used), "usage_counters");
     }
+
+    /** Gives back a request recorded this month that was then not served (shed by admission control). */
+    public void refundRequest(String tenantId) {
+        core.updateFirst(Query.query(Criteria.where("tenantId").is(tenantId).and("month").is(monthKeyNow()).and("requests").gt(0)),
+                new Update().inc("requests", -1), "usage_counters");
+    }
 }
 
@@ -1,16 +1,20 @@
 package com.owl.service;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @Component
 public class RemoteModelProxyClient {
     private final WebClient http;
     private final boolean enabled;
+    private PromptLayout promptLayout;
 
     public RemoteModelProxyClient(@Value("${MODEL_PROXY_URL:}") String url) {
         this.enabled = url != null && !url.isBlank();
@@ -19,17 +23,43 @@ public class RemoteModelProxyClient {
 
     public boolean isEnabled() { return enabled; }
 
+    @Autowired(required = false)
+    public void setPromptLayout(PromptLayout promptLayout) {
+        this.promptLayout = promptLayout;
+    }
+
     public String chat(String tenantId, String provider, String model, String system, String user) {
-        if (!enabled) throw new IllegalStateException("Model proxy not enabled");
-        Map<String, Object> req = Map.of("tenantId", tenantId, "provider", provider, "model", model, "system", system, "user", user);
-        Map<?, ?> res = http.post().uri("/v1/chat")
+        return RequestDeadline.block(chatAsync(tenantId, provider, model, system, user), "model");
+    }
+
+    /** Non-blocking variant of {@link #chat}; a null provider or model is left out (the proxy's default). */
+    public Mono<String> chatAsync(String tenantId, String provider, String model, String system, String user) {
+        if (!enabled) return Mono.error(new IllegalStateException("Model proxy not enabled"));
+        Map<String, Object> req = new HashMap<>();
+        req.put("tenantId", tenantId);
+        if (provider != null) req.put("provider", provider);
+        if (model != null) req.put("model", model);
+        req.put("system", system);
+        req.put("user", user);
+        return http.post().uri("/v1/chat")
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(req)
                 .retrieve()
                 .bodyToMono(Map.class)
-                .block();
-        Object answer = res.get("answer");
-        return answer != null ? answer.toString() : "";
+                .map(res -> {
+                    if (promptLayout != null) recordUsage((provider == null ? "ollama" : provider) + ":" + (model == null ? "default" : model), res.get("usage"));
+                    Object answer = res.get("answer");
+                    return answer != null ? answer.toString() : "";
+                });
     }
-}
 
+    /** Prefix-cache usage when the proxy passes it through: usage.prompt_tokens plus cached_tokens or prompt_tokens_details.cached_tokens. */
+    private void recordUsage(String backend, Object usage) {
+        if (!(usage instanceof Map<?, ?> u)) return;
+        Object cached = u.get("cached_tokens");
+        if (cached == null && u.get("prompt_tokens_details") instanceof Map<?, ?> details) cached = details.get("cached_tokens");
+        if (u.get("prompt_tokens") instanceof Number prompt && cached instanceof Number c) {
+            promptLayout.recordUsage(backend, prompt.intValue(), c.intValue());
+        }
+    }
+}
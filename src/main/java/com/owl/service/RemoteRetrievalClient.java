@@ -5,8 +5,10 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 // import java.util.Collections; // unused
 import java.util.List;
 import java.util.Map;
@@ -25,19 +27,27 @@ public class RemoteRetrievalClient {
 
     public List<Document> search(String tenantId, String q, String document, int topK) {
         if (!enabled) throw new IllegalStateException("Remote retrieval not enabled");
-        Map<String, Object> req = Map.of(
-                "tenantId", tenantId,
-                "q", q,
-                "document", document,
-                "topK", topK
-        );
-        Map<?, ?> res = http.post().uri("/v1/search")
+        return RequestDeadline.block(searchAsync(tenantId, q, document, topK), "retrieval");
+    }
+
+    /** Non-blocking variant of {@link #search}. */
+    public Mono<List<Document>> searchAsync(String tenantId, String q, String document, int topK) {
+        if (!enabled) return Mono.error(new IllegalStateException("Remote retrieval not enabled"));
+        Map<String, Object> req = new HashMap<>();
+        req.put("tenantId", tenantId);
+        req.put("q", q);
+        req.put("document", document);
+        req.put("topK", topK);
+        return http.post().uri("/v1/search")
                 .contentType(MediaType.APPLICATION_JSON)
                 .bodyValue(req)
                 .retrieve()
                 .bodyToMono(Map.class)
-                .block();
-        @SuppressWarnings("unchecked")
+                .map(RemoteRetrievalClient::toDocuments);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> toDocuments(Map<?, ?> res) {
         List<Map<String, Object>> docs = (List<Map<String, Object>>) res.get("docs");
         if (docs == null) docs = new ArrayList<>();
         List<Document> out = new ArrayList<>();
@@ -0,0 +1,91 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for model calls: concurrent identical questions (tenant + model + scope +
+ * normalized question) wait on one in-flight call and share its result instead of each calling the LLM.
+ * A joiner waits at most until its own {@link RequestDeadline}, then fails with DeadlineExceededException.
+ *
+ * Metrics: chat.coalesce{outcome=leader|join} counts executed vs joined calls;
+ * chat.coalesce.wait times how long joiners waited for the leader; chat.coalesce.inflight is the
+ * number of distinct calls currently in flight.
+ */
+@Component
+public class RequestCoalescer {
+
+    /** value is the leader's result; joined is true when this caller did not execute the call itself. */
+    public record Shared<V>(V value, boolean joined) {}
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+
+    public RequestCoalescer(MeterRegistry metrics,
+                            @Value("${owl.chat.coalesce.enabled:true}") boolean enabled) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        metrics.gaugeMapSize("chat.coalesce.inflight", Tags.empty(), inFlight);
+    }
+
+    public static String key(String tenantId, String modelId, String scopeDocument, String question) {
+        return tenantId + "|" + modelId + "|" + (scopeDocument == null ? "" : scopeDocument) + "|" + normalize(question);
+    }
+
+    static String normalize(String question) {
+        return question == null ? "" : question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <V> Shared<V> execute(String key, Supplier<V> call) {
+        if (!enabled) return new Shared<>(call.get(), false);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            metrics.counter("chat.coalesce", "outcome", "join").increment();
+            long t0 = System.nanoTime();
+            Duration left = RequestDeadline.remaining();
+            try {
+                V v = (V) (left == null ? existing.join() : existing.get(left.toNanos(), TimeUnit.NANOSECONDS));
+                return new Shared<>(v, true);
+            } catch (TimeoutException e) {
+                throw new DeadlineExceededException("coalesced model call");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (CompletionException | ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                if (e.getCause() instanceof Error err) throw err;
+                throw e instanceof CompletionException ce ? ce : new CompletionException(e.getCause());
+            } finally {
+                metrics.timer("chat.coalesce.wait").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            }
+        }
+        metrics.counter("chat.coalesce", "outcome", "leader").increment();
+        try {
+            V v = call.get();
+            mine.complete(v);
+            return new Shared<>(v, false);
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Per-request deadline (System.nanoTime based), set by the chat interceptor in WebConfig from
+ * X-Request-Timeout-Ms or owl.chat.deadline-ms. Thread-local like {@link TenantRegionContext};
+ * {@link PreModelStage} carries it to stage threads. Stages bound their waits by {@link #remaining()}
+ * and fail with {@link DeadlineExceededException} (HTTP 504) once it has passed.
+ */
+public final class RequestDeadline {
+    private static final ThreadLocal<Long> TL = new ThreadLocal<>();
+    private RequestDeadline() {}
+
+    public static void startIn(Duration budget) { TL.set(System.nanoTime() + budget.toNanos()); }
+    public static void clear() { TL.remove(); }
+
+    /** Deadline in System.nanoTime() units, or null when the request has none. */
+    public static Long current() { return TL.get(); }
+
+    /** Runs body with the given deadline (null clears it), restoring the previous one afterwards. */
+    public static <T> T callWith(Long deadlineNanos, Supplier<T> body) {
+        Long prev = TL.get();
+        if (deadlineNanos == null) TL.remove(); else TL.set(deadlineNanos);
+        try { return body.get(); } finally { if (prev == null) TL.remove(); else TL.set(prev); }
+    }
+
+    /** Time left, or null when there is no deadline. Never negative. */
+    public static Duration remaining() {
+        return remaining(TL.get());
+    }
+
+    public static Duration remaining(Long deadlineNanos) {
+        if (deadlineNanos == null) return null;
+        return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+    }
+
+    /** Fails fast when the deadline has already passed, before starting stage. */
+    public static void check(String stage) {
+        Duration left = remaining();
+        if (left != null && left.isZero()) throw new DeadlineExceededException(stage);
+    }
+
+    /** Blocks on mono for at most the remaining time (unbounded when there is no deadline). */
+    public static <T> T block(Mono<T> mono, String stage) {
+        Duration left = remaining();
+        if (left == null) return mono.block();
+        check(stage);
+        return mono.timeout(left, Mono.error(() -> new DeadlineExceededException(stage))).block();
+    }
+}
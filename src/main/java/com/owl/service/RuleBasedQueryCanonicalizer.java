@@ -0,0 +1,208 @@
+package com.owl.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default {@link QueryCanonicalizer} (owl.query.canonical.*): NFKC normalization, lower-casing, whitespace
+ * collapse, punctuation stripped from the ends of words (kept inside them, "3.5" and "e-mail", and where it
+ * carries meaning: '#' and '%' as in "c#" and "5%", a leading '-' or '.' as in "-40" and ".net"), filler
+ * phrases removed from the start and end of the question ("please", "thank you"; inside it they may be the
+ * subject: "how to say thank you in french"), optionally stop words, then the tenant's synonyms
+ * (TenantSettings.synonyms, cached for tenant-cache-seconds) replace whole words or phrases. A question
+ * reduced to nothing keeps its normalized words. Stop-word removal is off by default: it can merge
+ * questions that differ ("what is" vs "what was").
+ */
+@Component
+public class RuleBasedQueryCanonicalizer implements QueryCanonicalizer {
+
+    private record CachedSynonyms(List<Rule> rules, long loadedAt) {}
+
+    /** Replaces the words of from (a phrase) with those of to (empty = drop). */
+    private record Rule(String[] from, String[] to) {}
+
+    private final TenantSettingsService settings;
+    private final Mode mode;
+    private final boolean unicode;
+    private final boolean punctuation;
+    private final List<Rule> fillers;
+    private final Set<String> stopWords;
+    private final long tenantCacheNanos;
+    private final Map<String, CachedSynonyms> synonyms = new ConcurrentHashMap<>();
+
+    public RuleBasedQueryCanonicalizer(TenantSettingsService settings,
+                                       @Value("${owl.query.canonical.mode:shadow}") String mode,
+                                       @Value("${owl.query.canonical.unicode:true}") boolean unicode,
+                                       @Value("${owl.query.canonical.punctuation:true}") boolean punctuation,
+                                       @Value("${owl.query.canonical.fillers:please,pls,plz,kindly,thanks,thank you,thx,hi,hello,hey}") String fillers,
+                                       @Value("${owl.query.canonical.stop-words:}") String stopWords,
+                                       @Value("${owl.query.canonical.tenant-cache-seconds:60}") long tenantCacheSeconds) {
+        this.settings = settings;
+        this.mode = parseMode(mode);
+        this.unicode = unicode;
+        this.punctuation = punctuation;
+        List<Rule> f = new ArrayList<>();
+        for (String phrase : split(fillers)) f.add(new Rule(words(phrase), new String[0]));
+        this.fillers = longestFirst(f);
+        this.stopWords = new HashSet<>(split(stopWords));
+        this.tenantCacheNanos = TimeUnit.SECONDS.toNanos(Math.max(0, tenantCacheSeconds));
+    }
+
+    static Mode parseMode(String mode) {
+        try {
+            return mode == null || mode.isBlank() ? Mode.OFF : Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Mode.OFF;
+        }
+    }
+
+    @Override
+    public Mode mode() { return mode; }
+
+    @Override
+    public String canonicalize(String tenantId, String query) {
+        if (query == null) return "";
+        String text = unicode ? Normalizer.normalize(query, Normalizer.Form.NFKC) : query;
+        List<String> tokens = new ArrayList<>();
+        for (String w : words(text)) {
+            String t = punctuation ? stripPunctuation(w) : w;
+            if (!t.isEmpty()) tokens.add(t);
+        }
+        if (tokens.isEmpty()) return String.join(" ", words(text));
+        List<String> out = stripFillers(tokens);
+        if (!stopWords.isEmpty()) out.removeIf(stopWords::contains);
+        if (out.isEmpty()) out = tokens;
+        out = apply(out, synonymsFor(tenantId));
+        return String.join(" ", out);
+    }
+
+    /** Lower-cased whitespace-separated words. */
+    private static String[] words(String text) {
+        String s = text.strip().toLowerCase(Locale.ROOT);
+        return s.isEmpty() ? new String[0] : s.split("\\s+");
+    }
+
+    /**
+     * Drops leading and trailing punctuation (Unicode category P) except '#' and '%', and a '-' or '.' right
+     * before a letter or digit at the start; symbols such as + or $ stay.
+     */
+    private static String stripPunctuation(String w) {
+        int from = 0, to = w.length();
+        while (from < to && strippable(w.codePointAt(from)) && !signOrDot(w, from, to)) {
+            from += Character.charCount(w.codePointAt(from));
+        }
+        while (to > from && strippable(w.codePointBefore(to))) to -= Character.charCount(w.codePointBefore(to));
+        return w.substring(from, to);
+    }
+
+    /** A '-' or '.' starting a number or name: "-40", ".5", ".net". */
+    private static boolean signOrDot(String w, int at, int to) {
+        char c = w.charAt(at);
+        return (c == '-' || c == '.') && (at == 0 || w.charAt(at - 1) != c) // not the last of "..." or "--"
+                && at + 1 < to && Character.isLetterOrDigit(w.codePointAt(at + 1));
+    }
+
+    private static boolean strippable(int cp) {
+        return cp != '#' && cp != '%' && isPunctuation(cp);
+    }
+
+    private static boolean isPunctuation(int cp) {
+        return switch (Character.getType(cp)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                 Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION, Character.FINAL_QUOTE_PUNCTUATION,
+                 Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+
+    /** Drops filler phrases from the start and the end, longest first, until neither end has one. */
+    private List<String> stripFillers(List<String> tokens) {
+        int from = 0, to = tokens.size();
+        boolean stripped = true;
+        while (stripped && from < to) {
+            stripped = false;
+            for (Rule r : fillers) {
+                int n = r.from().length;
+                if (n > to - from) continue;
+                if (matches(tokens, from, r.from())) {
+                    from += n;
+                } else if (matches(tokens, to - n, r.from())) {
+                    to -= n;
+                } else {
+                    continue;
+                }
+                stripped = true;
+                break;
+            }
+        }
+        return new ArrayList<>(tokens.subList(from, to));
+    }
+
+    /** Rewrites tokens left to right; at each position the longest matching rule wins. */
+    private static List<String> apply(List<String> tokens, List<Rule> rules) {
+        if (rules.isEmpty()) return new ArrayList<>(tokens);
+        List<String> out = new ArrayList<>(tokens.size());
+        int i = 0;
+        next:
+        while (i < tokens.size()) {
+            for (Rule r : rules) {
+                if (matches(tokens, i, r.from())) {
+                    out.addAll(Arrays.asList(r.to()));
+                    i += r.from().length;
+                    continue next;
+                }
+            }
+            out.add(tokens.get(i++));
+        }
+        return out;
+    }
+
+    private static boolean matches(List<String> tokens, int at, String[] phrase) {
+        if (phrase.length == 0 || at + phrase.length > tokens.size()) return false;
+        for (int j = 0; j < phrase.length; j++) if (!tokens.get(at + j).equals(phrase[j])) return false;
+        return true;
+    }
+
+    private List<Rule> synonymsFor(String tenantId) {
+        if (tenantId == null) return List.of();
+        CachedSynonyms c = synonyms.get(tenantId);
+        long now = System.nanoTime();
+        if (c != null && now - c.loadedAt() < tenantCacheNanos) return c.rules();
+        List<Rule> rules = c != null ? c.rules() : List.of();
+        try {
+            Map<String, String> map = settings.getOrCreate(tenantId).getSynonyms();
+            List<Rule> loaded = new ArrayList<>();
+            if (map != null) map.forEach((term, canonical) -> loaded.add(new Rule(words(term), words(canonical))));
+            rules = longestFirst(loaded);
+        } catch (Exception ignored) {} // keep the previous map
+        synonyms.put(tenantId, new CachedSynonyms(rules, now));
+        return rules;
+    }
+
+    private static List<Rule> longestFirst(List<Rule> rules) {
+        rules.removeIf(r -> r.from().length == 0);
+        rules.sort(Comparator.comparingInt((Rule r) -> r.from().length).reversed());
+        return List.copyOf(rules);
+    }
+
+    private static List<String> split(String csv) {
+        List<String> out = new ArrayList<>();
+        if (csv == null) return out;
+        for (String s : csv.split(",")) {
+            if (!s.isBlank()) out.add(s.strip().toLowerCase(Locale.ROOT));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,551 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+
+/**
+ * In-process semantic-cache index: one HNSW graph ({@link HnswIndex}) per tenant over the cached questions'
+ * vectors, with answers held alongside, so a cache lookup is a microsecond graph search instead of a Qdrant
+ * round-trip. Qdrant stays the durable store: the index loads every type=cache point at startup (in the
+ * background; until then CacheService searches Qdrant) and picks up other replicas' entries every
+ * refresh-ms by scrolling points newer than the last sync. Points written before cache entries carried
+ * their answer (vector of the answer, not the question) are skipped.
+ *
+ * Deletions reach the other replicas too: {@link #clear} bumps the tenant's counter in the core
+ * cache_generations collection, and every refresh drops the entries created before a clear it has not seen
+ * yet; every reconcile-ms the index lists the cache point ids in Qdrant and drops entries whose point is
+ * gone (invalidated, evicted or compacted elsewhere).
+ *
+ * The index also bounds the cache. Entries live for owl.cache.ttl-hours from creation. A tenant holds at
+ * most owl.cache.max-entries-per-tenant and all tenants together owl.cache.index.max-entries; past either
+ * cap the least frequently (lfu, hit counts halved every compaction) or least recently (lru) used entries
+ * are evicted, 5% at a time, from the tenant itself or, for the global cap, the largest tenant. A new entry whose question
+ * scores at least owl.cache.dedup-threshold against a live one is collapsed into it. Evicted ids are
+ * deleted from Qdrant in bulk by {@link #compact}, which also deletes every expired or legacy cache point
+ * by filter, so TTLs hold even with the index disabled. Hit counts are per replica.
+ *
+ * Metrics: cache.semantic.index.entries, cache.semantic.index.search (timer), cache.semantic.index.load (timer),
+ * cache.semantic.index.loaded{format=current|legacy}, cache.semantic.index.dropped{cause=cleared|deleted},
+ * cache.semantic.evictions{cause=ttl|capacity|global}, cache.semantic.collapsed, cache.semantic.deleted,
+ * cache.semantic.invalidated.
+ */
+@Component
+public class SemanticCacheIndex {
+    private static final Logger log = LoggerFactory.getLogger(SemanticCacheIndex.class);
+    private static final long SYNC_OVERLAP_MS = 5_000;
+    private static final int DELETE_BATCH = 1000;
+    private static final int ID_PAGE = 10_000;
+    private static final String GENERATIONS = "cache_generations";
+    private static final Map<String, Object> IS_CACHE = Map.of("key", "type", "match", Map.of("value", "cache"));
+
+    public enum Eviction { LFU, LRU }
+
+    /** A cached answer; createdAt is epoch millis, sources the KB versions it was grounded on. */
+    public record Entry(String id, String tenantId, String question, String answer, long createdAt,
+                        Map<String, Long> sources) {
+        public Entry(String id, String tenantId, String question, String answer, long createdAt) {
+            this(id, tenantId, question, answer, createdAt, Map.of());
+        }
+    }
+
+    public record Match(Entry entry, double score) {}
+
+    /** Bookkeeping for one indexed entry; hits and lastHit are updated under the read lock. */
+    private static final class Slot {
+        int node;
+        final long createdAt;
+        final AtomicInteger hits = new AtomicInteger();
+        volatile long lastHit;
+
+        Slot(int node, long createdAt) {
+            this.node = node;
+            this.createdAt = createdAt;
+            this.lastHit = createdAt;
+        }
+    }
+
+    private static final class Shard {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        HnswIndex<Entry> graph;
+        final Map<String, Slot> slots = new HashMap<>();
+        boolean cleared; // removed by clear; late adds go nowhere
+    }
+
+    private final TenantVectorService vectors;
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int exactBelow;
+    private final int pageSize;
+    private final long ttlMillis;
+    private final int maxPerTenant;
+    private final int maxEntries;
+    private final Eviction eviction;
+    private final double dedupThreshold;
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private final Queue<String> evicted = new ConcurrentLinkedQueue<>(); // point ids awaiting a bulk delete
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicBoolean shrinking = new AtomicBoolean();
+    private final Map<String, Long> generations = new ConcurrentHashMap<>(); // clears seen, by tenant
+    private volatile boolean ready;
+    private volatile long syncedUntil;
+    private Executor executor; // null -> startup load runs on its own thread
+    private MongoTemplate core; // null -> a clear only drops this replica's copy until reconcile
+
+    public SemanticCacheIndex(TenantVectorService vectors, MeterRegistry metrics,
+                              @Value("${owl.cache.index.enabled:true}") boolean enabled,
+                              @Value("${owl.cache.index.m:16}") int m,
+                              @Value("${owl.cache.index.ef-construction:100}") int efConstruction,
+                              @Value("${owl.cache.index.ef-search:64}") int efSearch,
+                              @Value("${owl.cache.index.exact-below:1024}") int exactBelow,
+                              @Value("${owl.cache.index.page-size:512}") int pageSize,
+                              @Value("${owl.cache.ttl-hours:168}") long ttlHours,
+                              @Value("${owl.cache.max-entries-per-tenant:5000}") int maxPerTenant,
+                              @Value("${owl.cache.index.max-entries:200000}") int maxEntries,
+                              @Value("${owl.cache.eviction:lfu}") String eviction,
+                              @Value("${owl.cache.dedup-threshold:0.97}") double dedupThreshold) {
+        this.vectors = vectors;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = Math.max(1, efSearch);
+        this.exactBelow = exactBelow;
+        this.pageSize = Math.max(1, pageSize);
+        this.ttlMillis = Duration.ofHours(Math.max(1, ttlHours)).toMillis();
+        this.maxPerTenant = Math.max(1, maxPerTenant);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.eviction = parseEviction(eviction);
+        this.dedupThreshold = dedupThreshold;
+        metrics.gauge("cache.semantic.index.entries", Tags.empty(), total, AtomicInteger::get);
+    }
+
+    static Eviction parseEviction(String eviction) {
+        try {
+            return eviction == null || eviction.isBlank() ? Eviction.LFU : Eviction.valueOf(eviction.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Eviction.LFU;
+        }
+    }
+
+    @Autowired(required = false)
+    public void setExecutor(@Qualifier("applicationTaskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    @Autowired(required = false)
+    public void setCore(MongoTemplate core) {
+        this.core = core;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** True once the startup load finished; before that lookups must go to Qdrant. */
+    public boolean isReady() { return enabled && ready; }
+
+    /**
+     * The tenant's live cached question nearest to vector (cosine) scoring at least minScore, if any;
+     * a returned match counts as a use of that entry for eviction.
+     */
+    public Optional<Match> nearest(String tenantId, float[] vector, double minScore) {
+        Shard s = shards.get(tenantId);
+        if (s == null) return Optional.empty();
+        long t0 = System.nanoTime();
+        s.lock.readLock().lock();
+        try {
+            Optional<Match> m = live(s, vector, System.currentTimeMillis() - ttlMillis).filter(x -> x.score() >= minScore);
+            m.ifPresent(x -> touch(s.slots.get(x.entry().id())));
+            return m;
+        } finally {
+            s.lock.readLock().unlock();
+            metrics.timer("cache.semantic.index.search").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Indexes e under vector (the question's embedding). Returns false when the id is already present or,
+     * with collapse, when a live entry scores at least dedup-threshold (that entry counts a use instead).
+     * Past the tenant or global cap the least valuable entries are evicted and queued for deletion.
+     */
+    public boolean add(Entry e, float[] vector, boolean collapse) {
+        if (!enabled) return false;
+        if (e.createdAt() < System.currentTimeMillis() - ttlMillis) return false;
+        Shard s = shards.computeIfAbsent(e.tenantId(), t -> newShard());
+        s.lock.writeLock().lock();
+        try {
+            if (s.cleared || s.slots.containsKey(e.id())) return false;
+            if (collapse) {
+                var dup = live(s, vector, System.currentTimeMillis() - ttlMillis).filter(x -> x.score() >= dedupThreshold);
+                if (dup.isPresent()) {
+                    touch(s.slots.get(dup.get().entry().id()));
+                    metrics.counter("cache.semantic.collapsed").increment();
+                    return false;
+                }
+            }
+            s.slots.put(e.id(), new Slot(s.graph.add(vector, e), e.createdAt()));
+            total.incrementAndGet();
+            if (s.slots.size() > maxPerTenant) evict(s, s.slots.size() - Math.max(1, maxPerTenant * 95 / 100), "capacity");
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+        if (total.get() > maxEntries) shrinkGlobal();
+        return true;
+    }
+
+    /** Drops id from the index (the caller deletes the Qdrant point). */
+    public void remove(String tenantId, String id) {
+        Shard s = shards.get(tenantId);
+        if (s == null) return;
+        s.lock.writeLock().lock();
+        try {
+            drop(s, id);
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /** Drops an entry that no longer holds (e.g. a source changed) and queues its point for deletion. */
+    public void invalidate(String tenantId, String id) {
+        remove(tenantId, id);
+        evicted.add(id);
+        metrics.counter("cache.semantic.invalidated").increment();
+    }
+
+    /** Invalidates every entry of the tenant grounded on source; returns how many. */
+    public int invalidateSource(String tenantId, String source) {
+        Shard s = shards.get(tenantId);
+        if (s == null) return 0;
+        List<String> ids;
+        s.lock.writeLock().lock();
+        try {
+            ids = s.slots.entrySet().stream()
+                    .filter(x -> s.graph.value(x.getValue().node).sources().containsKey(source))
+                    .map(Map.Entry::getKey).toList();
+            ids.forEach(id -> drop(s, id));
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+        evicted.addAll(ids);
+        metrics.counter("cache.semantic.invalidated").increment(ids.size());
+        return ids.size();
+    }
+
+    /** Drops the tenant's entries here and, at their next refresh, on the other replicas (the caller purges Qdrant). */
+    public void clear(String tenantId) {
+        Shard s = shards.remove(tenantId);
+        if (s != null) {
+            s.lock.writeLock().lock();
+            try {
+                total.addAndGet(-s.slots.size());
+                s.slots.clear();
+                s.cleared = true;
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+        }
+        if (core == null) return;
+        try {
+            Map<?, ?> doc = core.findAndModify(Query.query(Criteria.where("_id").is(tenantId)),
+                    new Update().inc("generation", 1L).set("clearedAt", System.currentTimeMillis()),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Map.class, GENERATIONS);
+            if (doc != null && doc.get("generation") instanceof Number n) generations.merge(tenantId, n.longValue(), Math::max);
+        } catch (Exception e) {
+            log.warn("Could not publish the cache clear of tenant {}, other replicas catch up on reconcile: {}", tenantId, e.toString());
+        }
+    }
+
+    public int size(String tenantId) {
+        Shard s = shards.get(tenantId);
+        if (s == null) return 0;
+        s.lock.readLock().lock();
+        try {
+            return s.slots.size();
+        } finally {
+            s.lock.readLock().unlock();
+        }
+    }
+
+    private Shard newShard() {
+        Shard s = new Shard();
+        s.graph = new HnswIndex<>(m, efConstruction, exactBelow);
+        return s;
+    }
+
+    /** Best match created after cutoff; a few neighbours are fetched so an expired nearest does not hide the next. */
+    private Optional<Match> live(Shard s, float[] vector, long cutoff) {
+        for (var r : s.graph.search(vector, 4, efSearch)) {
+            if (r.value().createdAt() >= cutoff) return Optional.of(new Match(r.value(), r.score()));
+        }
+        return Optional.empty();
+    }
+
+    private static void touch(Slot slot) {
+        if (slot == null) return;
+        slot.hits.incrementAndGet();
+        slot.lastHit = System.currentTimeMillis();
+    }
+
+    /** Evicts the count least valuable entries and queues their points for deletion (write lock held). */
+    private void evict(Shard s, int count, String cause) {
+        Comparator<Map.Entry<String, Slot>> order = eviction == Eviction.LFU
+                ? Comparator.comparingInt((Map.Entry<String, Slot> x) -> x.getValue().hits.get())
+                        .thenComparingLong(x -> x.getValue().lastHit)
+                : Comparator.comparingLong((Map.Entry<String, Slot> x) -> x.getValue().lastHit);
+        order = order.thenComparingLong(x -> x.getValue().createdAt).thenComparing(Map.Entry::getKey);
+        List<String> victims = s.slots.entrySet().stream().sorted(order)
+                .limit(Math.max(0, count)).map(Map.Entry::getKey).toList();
+        for (String id : victims) drop(s, id);
+        evicted.addAll(victims);
+        metrics.counter("cache.semantic.evictions", "cause", cause).increment(victims.size());
+    }
+
+    /** Over the global cap: evicts from the largest tenant until all tenants are back under 95% of it. */
+    private void shrinkGlobal() {
+        if (!shrinking.compareAndSet(false, true)) return;
+        try {
+            int target = Math.max(1, maxEntries * 95 / 100);
+            while (total.get() > target) {
+                var largest = shards.keySet().stream().max(Comparator.comparingInt(this::size));
+                Shard s = largest.map(shards::get).orElse(null);
+                if (s == null) return;
+                s.lock.writeLock().lock();
+                try {
+                    if (s.slots.isEmpty()) return;
+                    evict(s, Math.min(total.get() - target, s.slots.size()), "global");
+                } finally {
+                    s.lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            shrinking.set(false);
+        }
+    }
+
+    /** Drops the tenant's entries matching test without deleting their points (they are already gone); returns how many. */
+    private int dropIf(String tenantId, BiPredicate<String, Slot> test) {
+        Shard s = shards.get(tenantId);
+        if (s == null) return 0;
+        s.lock.writeLock().lock();
+        try {
+            List<String> ids = s.slots.entrySet().stream()
+                    .filter(x -> test.test(x.getKey(), x.getValue())).map(Map.Entry::getKey).toList();
+            ids.forEach(id -> drop(s, id));
+            return ids.size();
+        } finally {
+            s.lock.writeLock().unlock();
+        }
+    }
+
+    /** Tombstones id; rebuilds the graph once tombstones pile up (write lock held). */
+    private void drop(Shard s, String id) {
+        Slot slot = s.slots.remove(id);
+        if (slot == null) return;
+        total.decrementAndGet();
+        s.graph.remove(slot.node);
+        if (s.graph.tombstones() > Math.max(64, s.graph.size() / 4)) rebuild(s);
+    }
+
+    /** Re-inserts the live entries into a fresh graph, dropping tombstones (write lock held). */
+    private void rebuild(Shard s) {
+        HnswIndex<Entry> fresh = new HnswIndex<>(m, efConstruction, exactBelow);
+        for (Slot slot : s.slots.values()) slot.node = fresh.add(s.graph.vector(slot.node), s.graph.value(slot.node));
+        s.graph = fresh;
+    }
+
+    /**
+     * Expires entries past the TTL, ages LFU hit counts, deletes evicted points from Qdrant in batches and
+     * deletes expired and legacy cache points by filter (covering entries evicted on other replicas).
+     */
+    @Scheduled(fixedDelayString = "${owl.cache.compact-interval-ms:60000}", initialDelayString = "${owl.cache.compact-interval-ms:60000}")
+    public void compact() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (Shard s : shards.values()) {
+            s.lock.writeLock().lock();
+            try {
+                List<String> expired = s.slots.entrySet().stream()
+                        .filter(x -> x.getValue().createdAt < cutoff).map(Map.Entry::getKey).toList();
+                expired.forEach(id -> drop(s, id));
+                metrics.counter("cache.semantic.evictions", "cause", "ttl").increment(expired.size());
+                for (Slot slot : s.slots.values()) slot.hits.updateAndGet(h -> h >>> 1);
+            } finally {
+                s.lock.writeLock().unlock();
+            }
+        }
+        try {
+            List<String> batch = new ArrayList<>(DELETE_BATCH);
+            for (String id; (id = evicted.poll()) != null; ) {
+                batch.add(id);
+                if (batch.size() == DELETE_BATCH) deletePoints(batch);
+            }
+            if (!batch.isEmpty()) deletePoints(batch);
+            vectors.deleteShared(Map.of("must", List.of(IS_CACHE), "should", List.of(
+                    Map.of("key", "createdAt", "range", Map.of("lt", cutoff)),
+                    Map.of("is_empty", Map.of("key", "createdAt")))));
+        } catch (Exception e) {
+            log.warn("Semantic cache compaction failed, retrying next run: {}", e.toString());
+        }
+    }
+
+    private void deletePoints(List<String> batch) {
+        try {
+            vectors.deleteSharedPoints(List.copyOf(batch));
+            metrics.counter("cache.semantic.deleted").increment(batch.size());
+            batch.clear();
+        } catch (RuntimeException e) {
+            evicted.addAll(batch); // retried next run
+            batch.clear();
+            throw e;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (!enabled) return;
+        Runnable task = this::load;
+        if (executor != null) executor.execute(task);
+        else new Thread(task, "semantic-cache-load").start();
+    }
+
+    /** Loads every cache point from Qdrant; marks the index ready on success. */
+    void load() {
+        long start = System.currentTimeMillis();
+        try {
+            long t0 = System.nanoTime();
+            int n = scroll(List.of(IS_CACHE));
+            syncedUntil = start;
+            ready = true;
+            metrics.timer("cache.semantic.index.load").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            log.info("Semantic cache index loaded {} entries", n);
+        } catch (Exception e) {
+            log.warn("Semantic cache index load failed, retrying on next refresh: {}", e.toString());
+        }
+    }
+
+    /**
+     * Applies clears made on other replicas, then picks up entries they wrote since the last sync (or retries
+     * a failed startup load).
+     */
+    @Scheduled(fixedDelayString = "${owl.cache.index.refresh-ms:30000}", initialDelayString = "${owl.cache.index.refresh-ms:30000}")
+    public void refresh() {
+        if (!enabled) return;
+        if (!ready) {
+            load();
+            return;
+        }
+        syncClears();
+        long start = System.currentTimeMillis();
+        try {
+            scroll(List.of(IS_CACHE,
+                    Map.of("key", "createdAt", "range", Map.of("gt", syncedUntil - SYNC_OVERLAP_MS))));
+            syncedUntil = start;
+        } catch (Exception e) {
+            log.debug("Semantic cache index refresh failed: {}", e.toString());
+        }
+    }
+
+    /** Drops the entries created before each clear this replica has not applied yet. */
+    void syncClears() {
+        if (core == null) return;
+        try {
+            for (Map<?, ?> doc : core.findAll(Map.class, GENERATIONS)) {
+                String tenantId = Objects.toString(doc.get("_id"));
+                long generation = doc.get("generation") instanceof Number n ? n.longValue() : 0L;
+                if (generation <= generations.getOrDefault(tenantId, 0L)) continue;
+                long clearedAt = doc.get("clearedAt") instanceof Number n ? n.longValue() : Long.MAX_VALUE;
+                int dropped = dropIf(tenantId, (id, slot) -> slot.createdAt <= clearedAt);
+                metrics.counter("cache.semantic.index.dropped", "cause", "cleared").increment(dropped);
+                generations.merge(tenantId, generation, Math::max);
+            }
+        } catch (Exception e) {
+            log.debug("Semantic cache clears could not be read: {}", e.toString());
+        }
+    }
+
+    /**
+     * Drops entries whose Qdrant point is gone: invalidated, evicted or compacted on another replica. Entries
+     * younger than the sync overlap stay, as their point may still be on its way.
+     */
+    @Scheduled(fixedDelayString = "${owl.cache.index.reconcile-ms:300000}", initialDelayString = "${owl.cache.index.reconcile-ms:300000}")
+    public void reconcile() {
+        if (!isReady()) return;
+        long cutoff = System.currentTimeMillis() - SYNC_OVERLAP_MS;
+        Set<String> stored = new HashSet<>();
+        try {
+            Object offset = null;
+            do {
+                var page = vectors.scrollSharedIds(List.of(IS_CACHE), offset, ID_PAGE);
+                for (var p : page.points()) stored.add(p.id());
+                offset = page.nextOffset();
+            } while (offset != null);
+        } catch (Exception e) {
+            log.debug("Semantic cache reconcile failed: {}", e.toString());
+            return;
+        }
+        int dropped = 0;
+        for (String tenantId : shards.keySet()) {
+            dropped += dropIf(tenantId, (id, slot) -> slot.createdAt < cutoff && !stored.contains(id));
+        }
+        metrics.counter("cache.semantic.index.dropped", "cause", "deleted").increment(dropped);
+    }
+
+    private int scroll(List<Map<String, Object>> must) {
+        int added = 0;
+        Object offset = null;
+        do {
+            var page = vectors.scrollShared(must, offset, pageSize);
+            for (var p : page.points()) {
+                Object answer = p.payload().get("answer");
+                Object tenant = p.payload().get("tenantId");
+                if (answer == null || tenant == null) {
+                    metrics.counter("cache.semantic.index.loaded", "format", "legacy").increment();
+                    continue;
+                }
+                Object created = p.payload().get("createdAt");
+                // No collapse here: another replica may hold the near-duplicate we would keep instead.
+                if (add(new Entry(p.id(), tenant.toString(), Objects.toString(p.payload().get("question"), ""), answer.toString(),
+                        created instanceof Number n ? n.longValue() : 0L, KnowledgeVersionService.fromStored(p.payload().get("sources"))),
+                        p.vector(), false)) added++;
+                metrics.counter("cache.semantic.index.loaded", "format", "current").increment();
+            }
+            offset = page.nextOffset();
+        } while (offset != null);
+        return added;
+    }
+}
@@ -0,0 +1,82 @@
+package com.owl.service;
+
+import com.owl.model.ChatResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-request stage latency recorder for the chat pipeline (quota, safety, caches, embedding, retrieval,
+ * rerank, model, post-safety, persistence). Thread-local like {@link TenantRegionContext};
+ * {@link PreModelStage} carries it to stage threads, so concurrent stages are recorded as overlapping.
+ *
+ * Metrics (on {@link #publish}): chat.stage.time{stage} and chat.request.time{path}, histograms enabled
+ * via management.metrics.distribution.percentiles-histogram. No tenantId tag: histograms per tenant
+ * would multiply bucket series; tenant-level model time stays on chat.model.time.
+ */
+public final class StageTimings {
+    private static final ThreadLocal<StageTimings> TL = new ThreadLocal<>();
+
+    private record Entry(String stage, long startNanos, long endNanos) {}
+
+    private final long startNanos = System.nanoTime();
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+    public static StageTimings current() { return TL.get(); }
+
+    /** Runs body with timings as the current recorder (null clears it), restoring the previous one afterwards. */
+    public static <T> T callWith(StageTimings timings, Supplier<T> body) {
+        StageTimings prev = TL.get();
+        if (timings == null) TL.remove(); else TL.set(timings);
+        try { return body.get(); } finally { if (prev == null) TL.remove(); else TL.set(prev); }
+    }
+
+    /** Times body as stage on the current recorder; a no-op wrapper when none is open. */
+    public static <T> T time(String stage, Supplier<T> body) {
+        StageTimings t = TL.get();
+        if (t == null) return body.get();
+        long s = System.nanoTime();
+        try {
+            return body.get();
+        } finally {
+            t.record(stage, s, System.nanoTime());
+        }
+    }
+
+    public static void time(String stage, Runnable body) {
+        time(stage, () -> { body.run(); return null; });
+    }
+
+    /** Records a stage measured by the caller (e.g. across reactive signals). */
+    public void record(String stage, long startNanos, long endNanos) {
+        entries.add(new Entry(stage, startNanos, endNanos));
+    }
+
+    public ChatResponse.Debug toDebug() {
+        List<ChatResponse.Stage> stages = entries.stream()
+                .sorted(Comparator.comparingLong(Entry::startNanos))
+                .map(e -> new ChatResponse.Stage(e.stage(), ms(e.startNanos() - startNanos), ms(e.endNanos() - e.startNanos())))
+                .toList();
+        return new ChatResponse.Debug(ms(System.nanoTime() - startNanos), stages);
+    }
+
+    /** Publishes every recorded stage plus the request total; path is short_circuit, coalesced or model. */
+    public void publish(MeterRegistry metrics, String path) {
+        for (Entry e : entries) {
+            Timer.builder("chat.stage.time").tag("stage", e.stage()).register(metrics)
+                    .record(e.endNanos() - e.startNanos(), TimeUnit.NANOSECONDS);
+        }
+        Timer.builder("chat.request.time").tag("path", path).register(metrics)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static double ms(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+}
@@ -1,10 +1,18 @@
 package com.owl.service;
 
+import java.util.function.Supplier;
+
 public final class TenantRegionContext {
     private static final ThreadLocal<String> TL = new ThreadLocal<>();
     private TenantRegionContext() {}
     public static void setOverrideRegion(String r) { if (r == null) TL.remove(); else TL.set(r); }
     public static String getOverrideRegion() { return TL.get(); }
     public static void clear() { TL.remove(); }
-}
 
+    /** Runs body with the given region override on the current thread (for work handed off to other threads). */
+    public static <T> T callWith(String region, Supplier<T> body) {
+        String prev = TL.get();
+        setOverrideRegion(region);
+        try { return body.get(); } finally { setOverrideRegion(prev); }
+    }
+}
@@ -6,6 +6,10 @@ import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
 @Service
 public class TenantSettingsService {
     private final MongoTemplate core;
@@ -22,6 +26,26 @@ public class TenantSettingsService {
         TenantSettings s = getOrCreate(tenantId); s.setFallbackEnabled(enabled); core.save(s);
     }
 
+    public void setChatMode(String tenantId, String mode) {
+        if (mode != null && !ChatModeProfiles.isMode(mode)) throw new IllegalArgumentException("Unknown chat mode: " + mode);
+        TenantSettings s = getOrCreate(tenantId); s.setChatMode(mode); core.save(s);
+    }
+
+    /** Replaces the tenant's synonym map (term -> canonical term, both lower-cased); null or empty clears it. */
+    public void setSynonyms(String tenantId, Map<String, String> synonyms) {
+        Map<String, String> clean = new LinkedHashMap<>();
+        if (synonyms != null) {
+            synonyms.forEach((term, canonical) -> {
+                if (term == null || term.isBlank() || canonical == null || canonical.isBlank()) {
+                    throw new IllegalArgumentException("Synonyms need a term and a canonical term");
+                }
+                if (term.contains(".") || term.startsWith("$")) throw new IllegalArgumentException("Invalid synonym term: " + term);
+                clean.put(term.strip().toLowerCase(Locale.ROOT), canonical.strip().toLowerCase(Locale.ROOT));
+            });
+        }
+        TenantSettings s = getOrCreate(tenantId); s.setSynonyms(clean.isEmpty() ? null : clean); core.save(s);
+    }
+
     public void setGuardrailsEnabled(String tenantId, boolean enabled) {
         TenantSettings s = getOrCreate(tenantId); s.setGuardrailsEnabled(enabled); core.save(s);
     }
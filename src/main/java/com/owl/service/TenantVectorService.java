@@ -5,18 +5,24 @@ import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.*;
 // import java.util.Collections; // unused
 
 @Service
 public class TenantVectorService {
+    /** Payload key under which Spring AI's QdrantVectorStore keeps document text. */
+    static final String SHARED_TEXT_KEY = "doc_content";
+
     private final org.springframework.ai.vectorstore.VectorStore defaultStore;
     private final boolean perTenant;
     private final QdrantTenantCollections tenantCollections;
     private final EmbeddingModel embeddings;
     private final WebClient defaultQdrant;
     private final com.owl.config.RegionConfig regions;
+    private final String sharedCollection;
     private final java.util.concurrent.ConcurrentHashMap<String, WebClient> qdrantByRegion = new java.util.concurrent.ConcurrentHashMap<>();
 
     public TenantVectorService(org.springframework.ai.vectorstore.VectorStore defaultStore,
@@ -24,6 +30,7 @@ public class TenantVectorService {
                                EmbeddingModel embeddings,
                                @Value("${owl.isolation.collectionPerTenant:false}") boolean perTenant,
                                @Value("${QDRANT_URL:http://localhost:6333}") String qdrantUrl,
+                               @Value("${spring.ai.vectorstore.qdrant.collection-name:owl_kb}") String sharedCollection,
                                com.owl.config.RegionConfig regions) {
         this.defaultStore = defaultStore;
         this.tenantCollections = tenantCollections;
@@ -31,6 +38,7 @@ public class TenantVectorService {
         this.perTenant = perTenant;
         this.defaultQdrant = WebClient.builder().baseUrl(qdrantUrl).build();
         this.regions = regions;
+        this.sharedCollection = sharedCollection;
     }
 
     public void add(String tenantId, List<Document> docs) {
@@ -65,49 +73,190 @@ public class TenantVectorService {
                 .block();
     }
 
+    /**
+     * KB vector search for a tenant. Queries Qdrant REST directly with the request's shared query
+     * embedding (see {@link QueryEmbeddingContext}); in single-collection mode the shared Spring AI
+     * collection is searched with a tenantId filter.
+     */
     public List<Document> search(String tenantId, String query, String scopeDocument, int topK) {
+        float[] vector = QueryEmbeddingContext.embed(embeddings, query);
+        return RequestDeadline.block(vectorSearch(resolveQdrant(), collectionFor(tenantId), vector, kbFilter(tenantId, scopeDocument), topK, kbTextKey()), "retrieval");
+    }
+
+    /**
+     * Non-blocking variant of {@link #search}. Region and query embedding context are captured when the
+     * Mono is assembled; only the embedding call (a blocking client) runs on boundedElastic.
+     */
+    public Mono<List<Document>> searchAsync(String tenantId, String query, String scopeDocument, int topK) {
+        WebClient q = resolveQdrant();
+        QueryEmbeddingContext ctx = QueryEmbeddingContext.current();
+        String collection = collectionFor(tenantId);
+        List<Map<String, Object>> must = kbFilter(tenantId, scopeDocument);
+        return Mono.fromCallable(() -> QueryEmbeddingContext.callWith(ctx, () -> QueryEmbeddingContext.embed(embeddings, query)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(vector -> vectorSearch(q, collection, vector, must, topK, kbTextKey()));
+    }
+
+    /** Vector search over the shared collection, where cache and preference entries live in every isolation mode. */
+    public List<Document> searchShared(String query, List<Map<String, Object>> must, int topK) {
+        return RequestDeadline.block(vectorSearch(resolveQdrant(), sharedCollection, QueryEmbeddingContext.embed(embeddings, query), must, topK, SHARED_TEXT_KEY), "vector-search");
+    }
+
+    /** Embedding of text, reusing the request's query vector when text is the question. */
+    public float[] embed(String text) {
+        return QueryEmbeddingContext.embed(embeddings, text);
+    }
+
+    /** One embedding call for many texts (background writes). */
+    public List<float[]> embedAll(List<String> texts) {
+        return embeddings.embed(texts);
+    }
+
+    /** A point of the shared collection as read back by {@link #scrollShared}. */
+    public record Point(String id, float[] vector, Map<String, Object> payload) {}
+
+    /** A page of {@link #scrollShared}; nextOffset null on the last page. */
+    public record Page(List<Point> points, Object nextOffset) {}
+
+    /**
+     * Upserts points with precomputed vectors into the shared collection (id: UUID string; the payload
+     * should carry the text under {@link #SHARED_TEXT_KEY} so VectorStore searches read them like their own).
+     */
+    public void upsertShared(List<Point> points) {
+        if (points.isEmpty()) return;
+        List<Map<String, Object>> body = new ArrayList<>(points.size());
+        for (Point p : points) {
+            List<Double> vec = new ArrayList<>(p.vector().length);
+            for (float f : p.vector()) vec.add((double) f);
+            body.add(Map.of("id", p.id(), "vector", vec, "payload", p.payload()));
+        }
+        resolveQdrant().put()
+                .uri("/collections/{c}/points?wait=true", sharedCollection)
+                .bodyValue(Map.of("points", body))
+                .retrieve()
+                .toBodilessEntity()
+                .block();
+    }
+
+    /** Deletes the shared collection's points with these ids. */
+    public void deleteSharedPoints(List<String> ids) {
+        if (ids.isEmpty()) return;
+        deleteSharedBy(Map.of("points", ids));
+    }
+
+    /** Deletes the shared collection's points matching a Qdrant filter ({"must": [...], ...}). */
+    public void deleteShared(Map<String, Object> filter) {
+        deleteSharedBy(Map.of("filter", filter));
+    }
+
+    private void deleteSharedBy(Map<String, Object> selector) {
+        resolveQdrant().post()
+                .uri("/collections/{c}/points/delete", sharedCollection)
+                .bodyValue(selector)
+                .retrieve()
+                .toBodilessEntity()
+                .block();
+    }
+
+    /** One page of the shared collection's points matching must, with vectors and payloads. */
+    public Page scrollShared(List<Map<String, Object>> must, Object offset, int limit) {
+        return scrollShared(must, offset, limit, true);
+    }
+
+    /** One page of the ids of the shared collection's points matching must (empty vectors and payloads). */
+    public Page scrollSharedIds(List<Map<String, Object>> must, Object offset, int limit) {
+        return scrollShared(must, offset, limit, false);
+    }
+
+    private Page scrollShared(List<Map<String, Object>> must, Object offset, int limit, boolean full) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("limit", Math.max(1, limit));
+        body.put("with_payload", full);
+        body.put("with_vector", full);
+        if (offset != null) body.put("offset", offset);
+        if (must != null && !must.isEmpty()) body.put("filter", Map.of("must", must));
+        Map<?, ?> resp = resolveQdrant().post()
+                .uri("/collections/{c}/points/scroll", sharedCollection)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(Map.class)
+                .block();
+        Map<?, ?> result = resp == null || !(resp.get("result") instanceof Map<?, ?> r) ? Map.of() : r;
+        List<Point> points = new ArrayList<>();
+        if (result.get("points") instanceof List<?> list) {
+            for (Object o : list) {
+                if (!full && o instanceof Map<?, ?> m && m.get("id") != null) {
+                    points.add(new Point(m.get("id").toString(), new float[0], Map.of()));
+                    continue;
+                }
+                if (!(o instanceof Map<?, ?> pt) || !(pt.get("vector") instanceof List<?> vec)) continue;
+                float[] v = new float[vec.size()];
+                for (int i = 0; i < v.length; i++) v[i] = ((Number) vec.get(i)).floatValue();
+                @SuppressWarnings("unchecked")
+                Map<String, Object> payload = pt.get("payload") instanceof Map<?, ?> pl ? (Map<String, Object>) pl : Map.of();
+                points.add(new Point(Objects.toString(pt.get("id")), v, payload));
+            }
+        }
+        return new Page(points, result.get("next_page_offset"));
+    }
+
+    private String collectionFor(String tenantId) {
+        return perTenant ? tenantCollections.collectionName(tenantId) : sharedCollection;
+    }
+
+    private String kbTextKey() {
+        return perTenant ? "text" : SHARED_TEXT_KEY;
+    }
+
+    private List<Map<String, Object>> kbFilter(String tenantId, String scopeDocument) {
+        List<Map<String, Object>> must = new ArrayList<>();
         if (!perTenant) {
-            // Delegate to default VectorStore via DocumentRetrievalService; this method is not used in this mode.
-            throw new UnsupportedOperationException("Direct search not supported in single-collection mode");
+            must.add(Map.of("key", "tenantId", "match", Map.of("value", tenantId)));
         }
-        String collection = tenantCollections.collectionName(tenantId);
-        float[] embeddingArray = embeddings.embed(query);
+        if (scopeDocument != null && !scopeDocument.isBlank()) {
+            must.add(Map.of("should", List.of(
+                    Map.of("key", "filename", "match", Map.of("value", scopeDocument)),
+                    Map.of("key", "url", "match", Map.of("value", scopeDocument))
+            )));
+        }
+        return must;
+    }
+
+    private Mono<List<Document>> vectorSearch(WebClient q, String collection, float[] embeddingArray,
+                                              List<Map<String, Object>> must, int topK, String textKey) {
         List<Double> vec = new ArrayList<>();
         for (float f : embeddingArray) {
             vec.add((double) f);
         }
-        Map<String, Object> filter = null;
-        if (scopeDocument != null && !scopeDocument.isBlank()) {
-            filter = Map.of("must", List.of(
-                    Map.of("should", List.of(
-                            Map.of("key", "filename", "match", Map.of("value", scopeDocument)),
-                            Map.of("key", "url", "match", Map.of("value", scopeDocument))
-                    ))
-            ));
-        }
         Map<String, Object> body = new HashMap<>();
         body.put("vector", vec);
         body.put("limit", Math.max(1, topK));
-        if (filter != null) body.put("filter", filter);
-        WebClient q = resolveQdrant();
-        Map<?, ?> resp = q.post()
+        body.put("with_payload", true);
+        if (must != null && !must.isEmpty()) body.put("filter", Map.of("must", must));
+        return q.post()
                 .uri("/collections/{c}/points/search", collection)
                 .bodyValue(body)
                 .retrieve()
                 .bodyToMono(Map.class)
-                .block();
+                .map(resp -> toDocuments(resp, textKey))
+                .defaultIfEmpty(new ArrayList<>());
+    }
+
+    private static List<Document> toDocuments(Map<?, ?> resp, String textKey) {
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> result = (List<Map<String, Object>>) resp.get("result");
         if (result == null) result = new ArrayList<>();
         List<Document> out = new ArrayList<>();
         for (Map<String, Object> r : result) {
-            Map<String, Object> payload = (Map<String, Object>) r.get("payload");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> payload = (Map<String, Object>) r.getOrDefault("payload", Map.of());
             Object score = r.get("score");
-            String text = Objects.toString(payload.getOrDefault("text", ""));
+            String text = Objects.toString(payload.getOrDefault(textKey, ""));
             Map<String, Object> md = new HashMap<>(payload);
-            md.remove("text");
+            md.remove(textKey);
             if (score instanceof Number n) md.put("score", n.doubleValue());
-            out.add(new Document(text, md));
+            Object id = r.get("id");
+            out.add(id == null ? new Document(text, md) : new Document(id.toString(), text, md));
         }
         return out;
     }
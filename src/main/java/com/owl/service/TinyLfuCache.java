@@ -0,0 +1,217 @@
+package com.owl.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Size-bounded W-TinyLFU cache: new entries enter a small LRU window (1% of maxWeight); an entry pushed
+ * out of the window is admitted to the main segmented LRU (probation, then protected on a second hit)
+ * only if its estimated access frequency beats the main victim it would displace, so one-off keys
+ * cannot flush a hot working set. Frequencies come from a 4-bit count-min sketch that is halved every
+ * 10 x its width increments, so the estimates age. Entries carry an absolute expiry (nanoTime).
+ * Not thread-safe on its own: callers synchronize.
+ */
+final class TinyLfuCache<K, V> {
+
+    /** Why an entry left the cache. */
+    enum Removal { SIZE, REJECTED, EXPIRED, EXPLICIT }
+
+    interface Listener<K, V> {
+        void removed(K key, V value, Removal cause);
+    }
+
+    private static final class Node<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+        Node(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private final ToLongFunction<V> weigher;
+    private final Listener<K, V> listener;
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> protectedSeg = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    TinyLfuCache(long maxWeight, int expectedEntries, ToLongFunction<V> weigher, Listener<K, V> listener) {
+        this.maxWeight = Math.max(1, maxWeight);
+        this.windowMax = Math.max(1, this.maxWeight / 100);
+        this.protectedMax = (this.maxWeight - windowMax) * 80 / 100;
+        this.weigher = weigher;
+        this.listener = listener;
+        this.sketch = new FrequencySketch(Math.max(16, expectedEntries));
+    }
+
+    long weight() { return windowWeight + probationWeight + protectedWeight; }
+
+    int size() { return window.size() + probation.size() + protectedSeg.size(); }
+
+    /** The live value for key, or null; a probation hit is promoted to the protected segment. */
+    V get(K key, long now) {
+        sketch.increment(key.hashCode());
+        Node<V> n = window.get(key);
+        if (n == null) n = protectedSeg.get(key);
+        if (n == null) {
+            n = probation.get(key);
+            if (n != null && !expired(key, n, now)) {
+                probation.remove(key);
+                probationWeight -= n.weight;
+                protectedSeg.put(key, n);
+                protectedWeight += n.weight;
+                demoteProtected();
+                return n.value;
+            }
+        }
+        if (n == null || expired(key, n, now)) return null;
+        return n.value;
+    }
+
+    void put(K key, V value, long expiresAt) {
+        long w = weigher.applyAsLong(value);
+        remove(key, null);
+        if (w > maxWeight - windowMax) return; // larger than the main space: never admitted
+        sketch.increment(key.hashCode());
+        window.put(key, new Node<>(value, w, expiresAt));
+        windowWeight += w;
+        while (windowWeight > windowMax && !window.isEmpty()) {
+            Map.Entry<K, Node<V>> candidate = eldest(window);
+            window.remove(candidate.getKey());
+            windowWeight -= candidate.getValue().weight;
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /** Removes key; cause null = replaced, not reported. */
+    void remove(K key, Removal cause) {
+        Node<V> n = window.remove(key);
+        if (n != null) windowWeight -= n.weight;
+        else if ((n = probation.remove(key)) != null) probationWeight -= n.weight;
+        else if ((n = protectedSeg.remove(key)) != null) protectedWeight -= n.weight;
+        if (n != null && cause != null) listener.removed(key, n.value, cause);
+    }
+
+    /** Evicts one entry (least valuable first: probation, protected, window); false when empty. */
+    boolean evictOne(Removal cause) {
+        for (LinkedHashMap<K, Node<V>> seg : java.util.List.of(probation, protectedSeg, window)) {
+            if (!seg.isEmpty()) {
+                remove(eldest(seg).getKey(), cause);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Drops expired entries (full scan; for periodic cleanup). */
+    void expire(long now) {
+        for (LinkedHashMap<K, Node<V>> seg : java.util.List.of(window, probation, protectedSeg)) {
+            for (Iterator<Map.Entry<K, Node<V>>> it = seg.entrySet().iterator(); it.hasNext(); ) {
+                var e = it.next();
+                if (now - e.getValue().expiresAt >= 0) {
+                    it.remove();
+                    if (seg == window) windowWeight -= e.getValue().weight;
+                    else if (seg == probation) probationWeight -= e.getValue().weight;
+                    else protectedWeight -= e.getValue().weight;
+                    listener.removed(e.getKey(), e.getValue().value, Removal.EXPIRED);
+                }
+            }
+        }
+    }
+
+    private void admit(K key, Node<V> candidate) {
+        long mainMax = maxWeight - windowMax;
+        int candidateFreq = sketch.frequency(key.hashCode());
+        while (probationWeight + protectedWeight + candidate.weight > mainMax) {
+            LinkedHashMap<K, Node<V>> seg = !probation.isEmpty() ? probation : protectedSeg;
+            Map.Entry<K, Node<V>> victim = eldest(seg);
+            if (candidateFreq <= sketch.frequency(victim.getKey().hashCode())) {
+                listener.removed(key, candidate.value, Removal.REJECTED);
+                return;
+            }
+            remove(victim.getKey(), Removal.SIZE);
+        }
+        probation.put(key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMax && !protectedSeg.isEmpty()) {
+            Map.Entry<K, Node<V>> e = eldest(protectedSeg);
+            protectedSeg.remove(e.getKey());
+            protectedWeight -= e.getValue().weight;
+            probation.put(e.getKey(), e.getValue());
+            probationWeight += e.getValue().weight;
+        }
+    }
+
+    private boolean expired(K key, Node<V> n, long now) {
+        if (now - n.expiresAt < 0) return false;
+        remove(key, Removal.EXPIRED);
+        return true;
+    }
+
+    private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> map) {
+        return map.entrySet().iterator().next();
+    }
+
+    /** Count-min sketch of 4-bit counters (4 rows, saturating at 15), halved periodically to age counts. */
+    static final class FrequencySketch {
+        private final byte[][] rows = new byte[4][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.min(1 << 24, Math.max(16, expectedEntries)) * 2 - 1);
+            for (int i = 0; i < rows.length; i++) rows[i] = new byte[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int idx = index(hash, i);
+                if (rows[i][idx] < 15) {
+                    rows[i][idx]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < rows.length; i++) min = Math.min(min, rows[i][index(hash, i)]);
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * (0x9E3779B9 + 2 * row + 1);
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int j = 0; j < row.length; j++) row[j] = (byte) (row[j] >>> 1);
+            }
+            additions /= 2;
+        }
+    }
+}
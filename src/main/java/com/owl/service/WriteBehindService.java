@@ -0,0 +1,276 @@
+package com.owl.service;
+
+import com.owl.model.ChatRecord;
+import com.owl.model.PendingWrite;
+import com.owl.model.PendingWrite.Kind;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind pipeline for post-answer side effects (chat history, semantic + prompt cache, chat events).
+ * ChatService enqueues and returns as soon as post-safety passes; a background worker drains the bounded
+ * queue in batches (history inserted per tenant, semantic cache embedded + upserted in one call).
+ *
+ * Failed writes are persisted to pending_writes (core DB) and re-queued with exponential backoff by
+ * {@link #retryPending()} until owl.chat.write-behind.max-attempts; when the queue is full the caller
+ * performs the write itself. With owl.encryption.enabled, answers are stored there encrypted under the
+ * tenant's key and decrypted when re-queued. When disabled, ChatService writes synchronously as before.
+ */
+@Component
+public class WriteBehindService {
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindService.class);
+
+    private final ChatHistoryService history;
+    private final CacheService cache;
+    private final PromptCacheService promptCache;
+    private final EventPublisher events;
+    private final MongoTemplate core;
+    private final TenantKeyService keys;
+    private final CryptoService crypto;
+    private final MeterRegistry metrics;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final BlockingQueue<PendingWrite> queue;
+    private volatile boolean running;
+    private Thread worker;
+
+    public WriteBehindService(ChatHistoryService history, CacheService cache, PromptCacheService promptCache,
+                              EventPublisher events, MongoTemplate core, TenantKeyService keys, CryptoService crypto,
+                              MeterRegistry metrics,
+                              @Value("${owl.chat.write-behind.enabled:true}") boolean enabled,
+                              @Value("${owl.chat.write-behind.queue-capacity:10000}") int capacity,
+                              @Value("${owl.chat.write-behind.batch-size:100}") int batchSize,
+                              @Value("${owl.chat.write-behind.max-attempts:5}") int maxAttempts) {
+        this.history = history;
+        this.cache = cache;
+        this.promptCache = promptCache;
+        this.events = events;
+        this.core = core;
+        this.keys = keys;
+        this.crypto = crypto;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        metrics.gaugeCollectionSize("chat.writebehind.queue", Tags.empty(), queue);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) return;
+        running = true;
+        worker = new Thread(this::drainLoop, "chat-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (worker != null) worker.interrupt();
+        List<PendingWrite> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) process(rest);
+    }
+
+    /** Queues a chat history record and returns its pre-generated id. */
+    public String history(String tenantId, String question, String answer, boolean cacheHit, List<String> sources) {
+        return history(tenantId, question, answer, cacheHit, sources, null);
+    }
+
+    /** As {@link #history(String, String, String, boolean, List)}, tagged with a conversation session. */
+    public String history(String tenantId, String question, String answer, boolean cacheHit, List<String> sources,
+                          String sessionId) {
+        PendingWrite w = write(Kind.HISTORY, tenantId, question, answer);
+        w.setChatId(history.newChatId());
+        w.setSessionId(sessionId);
+        w.setCacheHit(cacheHit);
+        w.setSources(sources);
+        submit(w);
+        return w.getChatId();
+    }
+
+    public void semanticCache(String tenantId, String question, String answer) {
+        semanticCache(tenantId, question, answer, Map.of());
+    }
+
+    /** As {@link #semanticCache(String, String, String)}, with the KB versions the answer was grounded on. */
+    public void semanticCache(String tenantId, String question, String answer, Map<String, Long> kbVersions) {
+        PendingWrite w = write(Kind.SEMANTIC_CACHE, tenantId, question, answer);
+        if (!kbVersions.isEmpty()) w.setSourceVersions(KnowledgeVersionService.toStored(kbVersions));
+        submit(w);
+    }
+
+    public void promptCache(String tenantId, String modelId, String question, String answer) {
+        promptCache(tenantId, modelId, question, answer, Map.of());
+    }
+
+    public void promptCache(String tenantId, String modelId, String question, String answer, Map<String, Long> kbVersions) {
+        PendingWrite w = write(Kind.PROMPT_CACHE, tenantId, question, answer);
+        w.setModelId(modelId);
+        if (!kbVersions.isEmpty()) w.setSourceVersions(KnowledgeVersionService.toStored(kbVersions));
+        submit(w);
+    }
+
+    public void chatEvent(String tenantId, String question, boolean cacheHit) {
+        PendingWrite w = write(Kind.CHAT_EVENT, tenantId, question, null);
+        w.setCacheHit(cacheHit);
+        submit(w);
+    }
+
+    private static PendingWrite write(Kind kind, String tenantId, String question, String answer) {
+        return new PendingWrite(kind, tenantId, TenantRegionContext.getOverrideRegion(), question, answer);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    private void submit(PendingWrite w) {
+        if (running && queue.offer(w)) return;
+        // Saturated (or shutting down): apply backpressure by writing on the caller's thread.
+        metrics.counter("chat.writebehind.overflow").increment();
+        process(List.of(w));
+    }
+
+    private void drainLoop() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Write-behind batch failed: {}", e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /** Applies a batch grouped by kind (and tenant/region where the target store needs it). */
+    void process(List<PendingWrite> batch) {
+        Map<Kind, List<PendingWrite>> byKind = batch.stream()
+                .collect(Collectors.groupingBy(PendingWrite::getKind, LinkedHashMap::new, Collectors.toList()));
+        byKind.forEach((kind, writes) -> {
+            switch (kind) {
+                case HISTORY -> byTenantAndRegion(writes).values().forEach(group -> apply(group, g ->
+                        history.saveAll(g.get(0).getTenantId(), g.stream().map(WriteBehindService::toRecord).toList())));
+                case SEMANTIC_CACHE -> byRegion(writes).values().forEach(group -> apply(group, g ->
+                        cache.saveAll(g.stream().map(w -> new CacheService.Entry(w.getTenantId(), w.getQuestion(), w.getAnswer(),
+                                KnowledgeVersionService.fromStored(w.getSourceVersions()))).toList())));
+                case PROMPT_CACHE -> writes.forEach(w -> apply(List.of(w), g ->
+                        promptCache.save(w.getTenantId(), w.getModelId(), w.getQuestion(), w.getAnswer(),
+                                KnowledgeVersionService.fromStored(w.getSourceVersions()))));
+                case CHAT_EVENT -> writes.forEach(w -> apply(List.of(w), g ->
+                        events.chat(w.getTenantId(), w.getQuestion(), w.isCacheHit())));
+            }
+        });
+    }
+
+    private static Map<String, List<PendingWrite>> byTenantAndRegion(List<PendingWrite> writes) {
+        return writes.stream().collect(Collectors.groupingBy(w -> w.getTenantId() + "|" + w.getRegion(),
+                LinkedHashMap::new, Collectors.toList()));
+    }
+
+    /** saveAll batches across tenants, but each batch must run in its writes' region. */
+    private static Map<String, List<PendingWrite>> byRegion(List<PendingWrite> writes) {
+        return writes.stream().collect(Collectors.groupingBy(w -> Objects.toString(w.getRegion(), ""),
+                LinkedHashMap::new, Collectors.toList()));
+    }
+
+    private void apply(List<PendingWrite> group, Consumer<List<PendingWrite>> op) {
+        try {
+            TenantRegionContext.callWith(group.get(0).getRegion(), () -> { op.accept(group); return null; });
+            metrics.counter("chat.writebehind.written", "kind", group.get(0).getKind().name()).increment(group.size());
+        } catch (Exception e) {
+            log.warn("Write-behind {} x{} failed: {}", group.get(0).getKind(), group.size(), e.getMessage());
+            metrics.counter("chat.writebehind.failed", "kind", group.get(0).getKind().name()).increment(group.size());
+            group.forEach(this::persistForRetry);
+        }
+    }
+
+    private void persistForRetry(PendingWrite w) {
+        w.setAttempts(w.getAttempts() + 1);
+        w.setDead(w.getAttempts() >= maxAttempts);
+        w.setNextAttemptAt(System.currentTimeMillis() + (1000L << Math.min(w.getAttempts(), 10)));
+        try {
+            if (keys.isEnabled() && w.getAnswer() != null && !w.isEncrypted()) {
+                var enc = crypto.encrypt(w.getAnswer(), keys.getOrCreateKey(w.getTenantId()));
+                w.setAnswer(enc.ciphertextB64);
+                w.setIv(enc.ivB64);
+                w.setEncrypted(true);
+            }
+            core.save(w);
+        } catch (Exception e) {
+            log.error("Dropping {} write for tenant {}: cannot persist for retry: {}", w.getKind(), w.getTenantId(), e.getMessage());
+        }
+    }
+
+    /** Re-queues persisted writes whose backoff has elapsed. */
+    @Scheduled(fixedDelayString = "${owl.chat.write-behind.retry-interval-ms:30000}")
+    public void retryPending() {
+        if (!running) return;
+        Query due = Query.query(Criteria.where("dead").is(false).and("nextAttemptAt").lte(System.currentTimeMillis()))
+                .with(Sort.by("nextAttemptAt")).limit(batchSize);
+        List<PendingWrite> writes;
+        try {
+            writes = core.find(due, PendingWrite.class);
+        } catch (Exception e) {
+            log.debug("Write-behind retry scan failed: {}", e.getMessage());
+            return;
+        }
+        for (PendingWrite w : writes) {
+            if (w.isEncrypted()) {
+                try {
+                    w.setAnswer(crypto.decrypt(w.getAnswer(), w.getIv(), keys.getOrCreateKey(w.getTenantId())));
+                    w.setEncrypted(false);
+                    w.setIv(null);
+                } catch (Exception e) {
+                    log.warn("Cannot decrypt pending {} write {} for tenant {}: {}", w.getKind(), w.getId(), w.getTenantId(), e.getMessage());
+                    continue;
+                }
+            }
+            core.remove(w);
+            w.setId(null);
+            submit(w);
+        }
+    }
+
+    private static ChatRecord toRecord(PendingWrite w) {
+        ChatRecord rec = new ChatRecord(w.getTenantId(), w.getQuestion(), w.getAnswer(), w.isCacheHit(), w.getSources());
+        rec.setId(w.getChatId());
+        rec.setSessionId(w.getSessionId());
+        rec.setCreatedAt(Instant.ofEpochMilli(w.getCreatedAt()).atOffset(ZoneOffset.UTC));
+        return rec;
+    }
+}
@@ -2,6 +2,8 @@ package com.owl.controller;
 
 import com.owl.model.ChatRequest;
 import com.owl.model.ChatResponse;
+import com.owl.exception.GlobalExceptionHandler;
+import com.owl.service.ConversationService;
 import com.owl.service.ChatService;
 import com.owl.security.TenantAuth;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,6 +17,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -176,6 +179,33 @@ class ChatControllerTest {
         verify(chatService).answer(any(ChatRequest.class));
     }
 
+    @Test
+    void sessions_areIssuedByTheServer_andUnknownIdsAreRejected() throws Exception {
+        ConversationService conversations = mock(ConversationService.class);
+        ChatController controller = new ChatController(chatService, tenantAuth);
+        controller.setConversations(conversations);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).setControllerAdvice(new GlobalExceptionHandler()).build();
+        when(conversations.isEnabled()).thenReturn(true);
+        when(tenantAuth.principal()).thenReturn("alice");
+        when(conversations.start("test-tenant", "alice")).thenReturn("k3Jd9sQvX2mPqL0aZ7yWbA");
+
+        mockMvc.perform(post("/api/v1/chat/sessions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"tenantId\":\"test-tenant\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sessionId").value("k3Jd9sQvX2mPqL0aZ7yWbA"));
+
+        doThrow(new NoSuchElementException("Unknown session"))
+                .when(conversations).authorize("test-tenant", "guessed", "alice");
+        ChatRequest request = new ChatRequest("test-tenant", "And then?", false, null, null, null, "guessed");
+        mockMvc.perform(post("/api/v1/chat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isNotFound());
+
+        verify(chatService, never()).answer(any(ChatRequest.class));
+    }
+
     @Test
     void chat_shouldHandleUnauthorizedTenant() throws Exception {
         // Given
@@ -0,0 +1,90 @@
+package com.owl.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.owl.exception.OverloadedException;
+import com.owl.service.AdmissionController;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdmissionControlFilterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @AfterEach
+    void clear() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private static void authenticateAs(String tenant) {
+        Jwt jwt = Jwt.withTokenValue("t").header("alg", "none").claim("tenant", tenant).build();
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+    }
+
+    private static MockHttpServletRequest chat(String peer) {
+        MockHttpServletRequest r = new MockHttpServletRequest("POST", "/api/v1/chat");
+        r.setRequestURI("/api/v1/chat");
+        r.setRemoteAddr(peer);
+        r.addHeader("X-Request-Start", "t=" + (System.currentTimeMillis() - 3_000));
+        return r;
+    }
+
+    private static AdmissionController admission() {
+        AdmissionController admission = mock(AdmissionController.class);
+        when(admission.isEnabled()).thenReturn(true);
+        when(admission.level()).thenReturn(AdmissionController.Level.ADMIT);
+        return admission;
+    }
+
+    @Test
+    void requestStart_isIgnoredUnlessTrusted() throws Exception {
+        authenticateAs("acme");
+        AdmissionController admission = admission();
+        FilterChain chain = (req, resp) -> { /* pass */ };
+
+        new AdmissionControlFilter(admission, new TenantAuth(), objectMapper, false, "10.0.0.0/8")
+                .doFilter(chat("10.1.2.3"), new MockHttpServletResponse(), chain);
+        new AdmissionControlFilter(admission, new TenantAuth(), objectMapper, true, "10.0.0.0/8")
+                .doFilter(chat("203.0.113.7"), new MockHttpServletResponse(), chain);
+        verify(admission, never()).recordQueueTime(anyString(), anyLong());
+
+        new AdmissionControlFilter(admission, new TenantAuth(), objectMapper, true, "10.0.0.0/8")
+                .doFilter(chat("10.1.2.3"), new MockHttpServletResponse(), chain);
+        verify(admission).recordQueueTime(eq("acme"), longThat(n -> n > 2_000_000_000L));
+    }
+
+    @Test
+    void reject_usesTheTokensTenant_andTheStandardErrorBody() throws Exception {
+        authenticateAs("acme");
+        AdmissionController admission = admission();
+        when(admission.level()).thenReturn(AdmissionController.Level.REJECT);
+        when(admission.shed(any(), any())).thenReturn(new OverloadedException("Service overloaded, retry later", 7, true));
+        MockHttpServletRequest request = chat("203.0.113.7");
+        request.setParameter("tenantId", "other");
+        request.addHeader("X-Tenant-Id", "other");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        new AdmissionControlFilter(admission, new TenantAuth(), objectMapper, false, "")
+                .doFilter(request, response, (req, resp) -> fail("shed request reached the chain"));
+
+        verify(admission).shed("acme", AdmissionController.Level.REJECT);
+        assertEquals(429, response.getStatus());
+        assertEquals("7", response.getHeader("Retry-After"));
+        JsonNode body = objectMapper.readTree(response.getContentAsString());
+        assertEquals(429, body.get("status").asInt());
+        assertEquals("Too Many Requests", body.get("error").asText());
+        assertEquals("Service overloaded, retry later", body.get("message").asText());
+        assertEquals("/api/v1/chat", body.get("path").asText());
+        assertTrue(body.hasNonNull("timestamp"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.owl.service;
+
+import com.owl.exception.OverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void overLimit_isRejectedImmediately() {
+        var limiter = new AdaptiveConcurrencyLimiter(new SimpleMeterRegistry(), true, 2, 1, 10, 0.2, 1.5);
+        var a = limiter.acquire("ollama:default");
+        var b = limiter.acquire("ollama:default");
+
+        assertThrows(OverloadedException.class, () -> limiter.acquire("ollama:default"));
+        assertNotNull(limiter.acquire("ollama:other")); // limits are per backend
+
+        a.onSuccess();
+        b.onSuccess();
+        assertNotNull(limiter.acquire("ollama:default"));
+    }
+
+    @Test
+    void limitShrinks_whenLatencyRises_andGrows_whenItIsFlat() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter(new SimpleMeterRegistry(), true, 4, 1, 64, 1.0, 1.0);
+        String backend = "ollama:default";
+        // steady, saturated: every sample taken at full utilization with flat latency -> limit grows
+        for (int i = 0; i < 5; i++) saturate(limiter, backend, 1);
+        int grown = limiter.currentLimit(backend);
+        assertTrue(grown > 4, "limit should grow with flat latency, was " + grown);
+
+        // latency jumps well above the baseline -> gradient < 1 shrinks the limit
+        for (int i = 0; i < 5; i++) saturate(limiter, backend, 40);
+        assertTrue(limiter.currentLimit(backend) < grown);
+    }
+
+    /** Fills the current limit, then completes every call after sleeping sleepMs. */
+    private static void saturate(AdaptiveConcurrencyLimiter limiter, String backend, long sleepMs) throws InterruptedException {
+        int n = limiter.currentLimit(backend);
+        var listeners = new AdaptiveConcurrencyLimiter.Listener[n];
+        for (int i = 0; i < n; i++) listeners[i] = limiter.acquire(backend);
+        Thread.sleep(sleepMs);
+        for (var l : listeners) l.onSuccess();
+    }
+
+    @Test
+    void overloadFailures_backOff_otherFailuresDoNot() {
+        var limiter = new AdaptiveConcurrencyLimiter(new SimpleMeterRegistry(), true, 10, 1, 64, 0.2, 1.5);
+        assertThrows(WebClientResponseException.class, () -> limiter.call("b", () -> {
+            throw WebClientResponseException.create(503, "Service Unavailable", null, null, null);
+        }));
+        assertEquals(9, limiter.currentLimit("b"));
+
+        assertThrows(WebClientResponseException.class, () -> limiter.call("b", () -> {
+            throw WebClientResponseException.create(400, "Bad Request", null, null, null);
+        }));
+        assertThrows(IllegalArgumentException.class, () -> limiter.call("b", () -> { throw new IllegalArgumentException("bad prompt"); }));
+        assertEquals(9, limiter.currentLimit("b"));
+        assertNotNull(limiter.acquire("b")); // ignored failures still freed their slots
+    }
+}
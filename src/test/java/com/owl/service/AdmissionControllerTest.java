@@ -0,0 +1,56 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void standingQueueDelay_movesThroughLevels_andResetsWhenIdle() throws Exception {
+        var a = new AdmissionController(new SimpleMeterRegistry(), true, 100, 400, 100);
+        assertEquals(AdmissionController.Level.ADMIT, a.level());
+
+        // a burst with one short wait never forms a standing queue
+        a.recordQueueTime("acme", 900 * MS);
+        a.recordQueueTime("acme", 5 * MS);
+        Thread.sleep(120);
+        assertEquals(AdmissionController.Level.ADMIT, a.level());
+
+        a.recordQueueTime("acme", 150 * MS);
+        a.recordQueueTime("acme", 200 * MS);
+        Thread.sleep(120);
+        assertEquals(AdmissionController.Level.CACHE_ONLY, a.level());
+
+        a.recordQueueTime("acme", 500 * MS);
+        Thread.sleep(120);
+        assertEquals(AdmissionController.Level.REJECT, a.level());
+        assertEquals(1, a.retryAfterSeconds());
+
+        Thread.sleep(250); // no queued requests for two intervals
+        assertEquals(AdmissionController.Level.ADMIT, a.level());
+    }
+
+    @Test
+    void shed_is429_forTenantCausingMostSlowWaits_else503() throws Exception {
+        var a = new AdmissionController(new SimpleMeterRegistry(), true, 100, 400, 100);
+        for (int i = 0; i < 6; i++) a.recordQueueTime("noisy", 500 * MS);
+        a.recordQueueTime("quiet", 500 * MS);
+        Thread.sleep(120);
+
+        assertTrue(a.shed("noisy", AdmissionController.Level.REJECT).isTooManyRequests());
+        assertFalse(a.shed("quiet", AdmissionController.Level.REJECT).isTooManyRequests());
+        assertFalse(a.cacheOnly(null).tooManyRequests());
+    }
+
+    @Test
+    void disabled_alwaysAdmits() throws Exception {
+        var a = new AdmissionController(new SimpleMeterRegistry(), false, 100, 400, 100);
+        a.recordQueueTime("acme", 5_000 * MS);
+        Thread.sleep(120);
+        assertEquals(AdmissionController.Level.ADMIT, a.level());
+    }
+}
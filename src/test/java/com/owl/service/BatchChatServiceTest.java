@@ -0,0 +1,64 @@
+package com.owl.service;
+
+import com.owl.model.BatchChatRequest;
+import com.owl.model.BatchChatResult;
+import com.owl.model.ChatRequest;
+import com.owl.model.ChatResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BatchChatServiceTest {
+
+    @Test
+    void dedupesQuestions_embedsOnce_andFansOutResults() {
+        ChatService chat = mock(ChatService.class);
+        EmbeddingModel embeddings = mock(EmbeddingModel.class);
+        when(embeddings.embed(anyList())).thenReturn(List.of(new float[]{1f}, new float[]{2f}));
+        AtomicInteger embeddedOnDemand = new AtomicInteger();
+        when(embeddings.embed(anyString())).thenAnswer(inv -> { embeddedOnDemand.incrementAndGet(); return new float[]{0f}; });
+        when(chat.answer(any(ChatRequest.class), any())).thenAnswer(inv -> {
+            ChatRequest r = inv.getArgument(0);
+            // the pre-computed batch vector is what the request's embedding context serves
+            float[] v = QueryEmbeddingContext.embed(embeddings, r.question());
+            return new ChatResponse("A:" + r.question() + ":" + v[0], List.of(), "id-" + r.question(), "SAFE");
+        });
+        var svc = new BatchChatService(chat, embeddings, new SimpleMeterRegistry(), 4, 2, 256);
+
+        List<BatchChatResult> results = svc.answer(new BatchChatRequest("acme", List.of("What is X?", " what is  x? ", "Y?"), false, null))
+                .collectList().block();
+
+        assertNotNull(results);
+        results = results.stream().sorted(Comparator.comparingInt(BatchChatResult::index)).toList();
+        assertEquals(3, results.size());
+        assertEquals("A:What is X?:1.0", results.get(0).response().answer());
+        assertEquals(results.get(0).response(), results.get(1).response());
+        assertEquals("A:Y?:2.0", results.get(2).response().answer());
+        verify(embeddings, times(1)).embed(List.of("What is X?", "Y?"));
+        verify(chat, times(2)).answer(any(ChatRequest.class), any());
+        assertEquals(0, embeddedOnDemand.get());
+    }
+
+    @Test
+    void failedQuestion_isReportedInline() {
+        ChatService chat = mock(ChatService.class);
+        EmbeddingModel embeddings = mock(EmbeddingModel.class);
+        when(embeddings.embed(anyList())).thenThrow(new RuntimeException("ollama down"));
+        when(chat.answer(any(ChatRequest.class), any())).thenThrow(new IllegalStateException("boom"));
+        var svc = new BatchChatService(chat, embeddings, new SimpleMeterRegistry(), 4, 2, 256);
+
+        List<BatchChatResult> results = svc.answer(new BatchChatRequest("acme", List.of("q"), false, null)).collectList().block();
+
+        assertEquals(1, results.size());
+        assertNull(results.get(0).response());
+        assertEquals("boom", results.get(0).error());
+    }
+}
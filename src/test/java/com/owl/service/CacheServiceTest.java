@@ -1,5 +1,6 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
@@ -45,5 +46,44 @@ class CacheServiceTest {
         svc.save("acme", "q", "ans");
         verify(store).add(anyList());
     }
-}
 
+    @Test
+    void save_skipsRefusals() {
+        VectorStore store = mock(VectorStore.class);
+        CacheService svc = new CacheService(store, 0.9);
+        svc.save("acme", "q", "I don't know based on the provided knowledge.");
+        verifyNoInteractions(store);
+    }
+
+    @Test
+    void save_keepsAnswersThatOnlyMentionARefusalPhrase() {
+        VectorStore store = mock(VectorStore.class);
+        CacheService svc = new CacheService(store, 0.9);
+        svc.save("acme", "q", "  I do not know.");
+        verifyNoInteractions(store);
+
+        svc.save("acme", "q", "If I don't know your order id, I can't look up the shipment.");
+        verify(store).add(anyList());
+    }
+
+    @Test
+    void lookup_servedFromIndex_onceLoaded_withoutQdrantSearch() {
+        VectorStore store = mock(VectorStore.class);
+        TenantVectorService vectors = mock(TenantVectorService.class);
+        when(vectors.scrollShared(any(), any(), anyInt())).thenReturn(new TenantVectorService.Page(List.of(), null));
+        when(vectors.embed("how do I reset my password")).thenReturn(new float[]{1, 0, 0});
+        when(vectors.embed("how to reset password")).thenReturn(new float[]{0.98f, 0.1f, 0});
+        SemanticCacheIndex index = new SemanticCacheIndex(vectors, new SimpleMeterRegistry(), true, 16, 100, 64, 1024, 512, 168, 5000, 200000, "lfu", 0.97);
+        index.load();
+        CacheService svc = new CacheService(store, vectors, 0.9);
+        svc.setIndex(index);
+
+        svc.save("acme", "how do I reset my password", "Use the reset link.");
+
+        assertEquals(Optional.of("Use the reset link."), svc.lookup("acme", "how to reset password"));
+        assertTrue(svc.lookup("other", "how to reset password").isEmpty());
+        verify(vectors).upsertShared(anyList());
+        verify(vectors, never()).searchShared(anyString(), anyList(), anyInt());
+        verifyNoInteractions(store);
+    }
+}
@@ -0,0 +1,97 @@
+package com.owl.service;
+
+import com.owl.repo.TenantRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CacheWarmerTest {
+
+    private final ChatService chat = mock(ChatService.class);
+    private final CacheService cache = mock(CacheService.class);
+    private final ChatHistoryService history = mock(ChatHistoryService.class);
+    private final EvalService eval = mock(EvalService.class);
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+    private final CacheWarmer warmer = new CacheWarmer(chat, cache, history, eval, mock(TenantRepository.class), metrics,
+            true, 50, 2, 5000, 1, 0, 10, 100, 0.5, 30);
+
+    @Test
+    void warmTenant_answersGoldensThenFrequentQuestions_skippingCachedOnes() {
+        when(eval.goldens("acme", 50)).thenReturn(List.of(new EvalService.Golden("What is the refund policy?", "30 days")));
+        when(history.frequentQuestions("acme", 5000, 2, 50))
+                .thenReturn(List.of("what is the refund policy?", "How do I reset my password?", "Opening hours"));
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        when(cache.lookup("acme", "Opening hours")).thenReturn(Optional.of("9 to 5"));
+
+        assertEquals(3, warmer.warmTenant("acme")); // the golden and its lower-case duplicate are one question
+        assertEquals(0, warmer.warmTenant("acme")); // still queued
+        drain();
+
+        var order = inOrder(chat);
+        order.verify(chat).warm("acme", "What is the refund policy?");
+        order.verify(chat).warm("acme", "How do I reset my password?");
+        verify(chat, never()).warm("acme", "Opening hours");
+        assertEquals(2.0, metrics.counter("cache.warm.questions", "result", "warmed").count());
+        assertEquals(1.0, metrics.counter("cache.warm.questions", "result", "cached").count());
+    }
+
+    @Test
+    void tenantLeasedByAnotherReplica_isSkipped_andOurLeaseIsReleasedOnceDrained() {
+        MongoTemplate core = mock(MongoTemplate.class);
+        warmer.setCore(core);
+        when(history.frequentQuestions("acme", 5000, 2, 50)).thenReturn(List.of("Opening hours"));
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        when(core.upsert(any(Query.class), any(Update.class), eq("cache_warm_leases")))
+                .thenThrow(new DuplicateKeyException("held"));
+        assertEquals(0, warmer.warmTenant("acme"));
+        verifyNoInteractions(history, eval); // the lease is checked before any Mongo scan
+
+        doReturn(null).when(core).upsert(any(Query.class), any(Update.class), eq("cache_warm_leases"));
+        assertEquals(1, warmer.warmTenant("acme"));
+        verify(core, never()).remove(any(Query.class), eq("cache_warm_leases"));
+        drain();
+        verify(core).remove(any(Query.class), eq("cache_warm_leases"));
+    }
+
+    @Test
+    void nothingToWarm_releasesTheLeaseRightAway() {
+        MongoTemplate core = mock(MongoTemplate.class);
+        warmer.setCore(core);
+        assertEquals(0, warmer.warmTenant("acme"));
+        verify(core).remove(any(Query.class), eq("cache_warm_leases"));
+    }
+
+    /** Warms everything queued on the test thread, as the drain loop would with capacity to spare. */
+    private void drain() {
+        CacheWarmer.Task task;
+        while ((task = warmer.queue.poll()) != null) warmer.warm(task);
+    }
+
+    @Test
+    void hasCapacity_onlyWhileLiveTrafficLeavesSlotsFree() {
+        ModelCallScheduler scheduler = mock(ModelCallScheduler.class);
+        AdmissionController admission = mock(AdmissionController.class);
+        warmer.setScheduler(scheduler);
+        warmer.setAdmission(admission);
+        when(admission.level()).thenReturn(AdmissionController.Level.ADMIT);
+        when(scheduler.hasSpareCapacity(0.5)).thenReturn(true);
+        assertTrue(warmer.hasCapacity());
+
+        when(scheduler.hasSpareCapacity(0.5)).thenReturn(false);
+        assertFalse(warmer.hasCapacity());
+
+        when(scheduler.hasSpareCapacity(0.5)).thenReturn(true);
+        when(admission.level()).thenReturn(AdmissionController.Level.CACHE_ONLY);
+        assertFalse(warmer.hasCapacity());
+    }
+}
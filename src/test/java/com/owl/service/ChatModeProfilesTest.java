@@ -0,0 +1,63 @@
+package com.owl.service;
+
+import com.owl.model.TenantSettings;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ChatModeProfilesTest {
+
+    private static ChatModeProfiles profiles(TenantSettingsService settings, boolean rerankEnabled) {
+        return new ChatModeProfiles(settings, rerankEnabled,
+                "top-k=4,rerank=false,max-chunks=3,context-tokens=1000,cache-threshold=0.80,provider=ollama,model=llama3.2:1b",
+                "top-k=8,rerank=true,max-chunks=5,context-tokens=3000",
+                "top-k=16,rerank=true,max-chunks=8,context-tokens=6000", 60);
+    }
+
+    @Test
+    void requestedMode_winsOverTenantDefault() {
+        var settings = mock(TenantSettingsService.class);
+        var ts = new TenantSettings("acme");
+        ts.setChatMode("thorough");
+        when(settings.getOrCreate("acme")).thenReturn(ts);
+        var modes = profiles(settings, true);
+
+        var fast = modes.resolve("acme", "fast");
+        assertEquals(4, fast.topK());
+        assertFalse(fast.rerank());
+        assertEquals(0.80, fast.cacheThreshold());
+        assertEquals("llama3.2:1b", fast.select(new ModelRoutingService.Selection("openai", "gpt-4o", null)).chatModel());
+
+        assertEquals(ChatModeProfiles.THOROUGH, modes.resolve("acme", null).mode());
+        modes.resolve("acme", null);
+        verify(settings, times(1)).getOrCreate("acme"); // tenant default is cached
+    }
+
+    @Test
+    void unknownTenantMode_fallsBackToBalanced_andRerankObeysGlobalSwitch() {
+        var settings = mock(TenantSettingsService.class);
+        when(settings.getOrCreate(anyString())).thenThrow(new IllegalStateException("mongo down"));
+        var modes = profiles(settings, false);
+
+        var p = modes.resolve("acme", null);
+        assertEquals(ChatModeProfiles.BALANCED, p.mode());
+        assertEquals(8, p.topK());
+        assertFalse(p.rerank());
+        var routed = new ModelRoutingService.Selection("openai", "gpt-4o", null);
+        assertSame(routed, p.select(routed));
+    }
+
+    @Test
+    void settingsReadFailure_isNotCached_withoutAPreviousMode() {
+        var settings = mock(TenantSettingsService.class);
+        var ts = new TenantSettings("acme");
+        ts.setChatMode("fast");
+        when(settings.getOrCreate("acme")).thenThrow(new IllegalStateException("mongo down")).thenReturn(ts);
+        var modes = profiles(settings, true);
+
+        assertEquals(ChatModeProfiles.BALANCED, modes.resolve("acme", null).mode());
+        assertEquals(ChatModeProfiles.FAST, modes.resolve("acme", null).mode()); // retried, not pinned to balanced
+        verify(settings, times(2)).getOrCreate("acme");
+    }
+}
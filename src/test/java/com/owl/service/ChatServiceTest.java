@@ -9,6 +9,8 @@ import org.mockito.ArgumentCaptor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.document.Document;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.owl.model.ChatStreamEvent;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.Map;
@@ -52,6 +54,9 @@ class ChatServiceTest {
         when(promptSpec.user(anyString())).thenReturn(promptSpec);
         when(promptSpec.call()).thenReturn(callSpec);
         when(callSpec.content()).thenReturn("test response");
+        var streamSpec = mock(ChatClient.StreamResponseSpec.class);
+        when(promptSpec.stream()).thenReturn(streamSpec);
+        when(streamSpec.content()).thenReturn(Flux.just("Answer ", "streamed"));
 
         retrieval = mock(DocumentRetrievalService.class);
         cache = mock(CacheService.class);
@@ -152,4 +157,280 @@ class ChatServiceTest {
         verify(chatClient).prompt();
         verify(chatClient).prompt();
     }
+
+    @Test
+    void stream_emitsTokens_thenSourcesFrame_andPersists() {
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf", "score", 0.95));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt()))
+                .thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+        when(history.save(anyString(), anyString(), anyString(), anyBoolean(), anyList())).thenReturn("chat-1");
+
+        List<ChatStreamEvent> frames = svc.stream(new ChatRequest("acme", "q", false, null, null)).collectList().block();
+
+        assertNotNull(frames);
+        assertEquals(List.of("token", "token", "sources"), frames.stream().map(ChatStreamEvent::type).toList());
+        assertEquals("Answer ", frames.get(0).text());
+        ChatStreamEvent last = frames.get(2);
+        assertEquals(List.of("doc1.pdf"), last.sources());
+        assertEquals("chat-1", last.chatId());
+        assertNull(last.text());
+        verify(cache).save(eq("acme"), eq("q"), startsWith("Answer streamed"));
+        verify(promptCache).save(eq("acme"), anyString(), eq("q"), startsWith("Answer streamed"));
+        verify(history).save(eq("acme"), eq("q"), startsWith("Answer streamed"), eq(false), eq(List.of("doc1.pdf")));
+    }
+
+    @Test
+    void answer_recordsStageTimeline() {
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf", "score", 0.95));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt()))
+                .thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+
+        ChatResponse r = svc.answer(new ChatRequest("acme", "q", false, null, null));
+
+        assertNotNull(r.debug());
+        List<String> stages = r.debug().stages().stream().map(ChatResponse.Stage::name).toList();
+        assertTrue(stages.containsAll(List.of("quota", "safety", "semantic_cache", "retrieval", "rerank", "model", "post_safety", "persist")), stages.toString());
+        assertTrue(r.debug().totalMs() >= 0);
+    }
+
+    @Test
+    void answerAsync_composesRetrievalAndStreamedModelCall() {
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf", "score", 0.95));
+        when(retrieval.searchAsync(eq("acme"), eq("q"), any(), anyInt()))
+                .thenReturn(reactor.core.publisher.Mono.just(List.of(new DocumentRetrievalService.Scored(d1, 0.95))));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+        when(history.save(anyString(), anyString(), anyString(), anyBoolean(), anyList())).thenReturn("chat-1");
+
+        ChatResponse r = svc.answerAsync(new ChatRequest("acme", "q", false, null, null)).block();
+
+        assertNotNull(r);
+        assertTrue(r.answer().startsWith("Answer streamed"));
+        assertEquals(List.of("doc1.pdf"), r.sources());
+        assertEquals("chat-1", r.chatId());
+        verify(retrieval, never()).search(anyString(), anyString(), any(), anyInt());
+        verify(cache).save(eq("acme"), eq("q"), startsWith("Answer streamed"));
+    }
+
+    @Test
+    void parallelStages_quotaRefusalWinsOverEarlierCacheHit() {
+        var pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+        try {
+            svc.setStageExecutor(pool, true);
+            when(quotas.allowRequest("acme")).thenAnswer(inv -> { Thread.sleep(50); return false; });
+            when(cache.lookup("acme", "hello")).thenReturn(Optional.of("cached"));
+
+            ChatResponse r = svc.answer(new ChatRequest("acme", "hello", false, null, null));
+
+            assertEquals("REFUSE", r.safety());
+            assertTrue(r.answer().startsWith("Quota exceeded"));
+            verify(quotas, never()).recordRequest(anyString());
+            verify(events, never()).chat(anyString(), anyString(), anyBoolean());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void modelDown_degradesToStaleCacheAnswer() {
+        svc.setCircuitBreakers(new ModelCircuitBreakers(io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry.ofDefaults(), true, "", ""), 0.80);
+        when(cache.lookup("acme", "q")).thenReturn(Optional.empty());
+        when(cache.lookup("acme", "q", 0.80)).thenReturn(Optional.of("older answer"));
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf"));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+        when(chatClient.prompt()).thenThrow(new IllegalStateException("ollama down"));
+
+        ChatResponse r = svc.answer(new ChatRequest("acme", "q", false, null, null));
+
+        assertEquals("older answer", r.answer());
+        verify(history).save("acme", "q", "older answer", true, List.of());
+        verify(cache, never()).save(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void modelDown_alternateModelCall_takesItsOwnSchedulerSlot() {
+        svc.setCircuitBreakers(new ModelCircuitBreakers(io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry.ofDefaults(), true, "openai", "gpt-4o-mini"), 0.80);
+        ModelCallScheduler scheduler = mock(ModelCallScheduler.class);
+        when(scheduler.acquire("acme")).thenReturn(ModelCallScheduler.Permit.NONE);
+        svc.setScheduler(scheduler);
+        var alternate = mock(ChatClient.class);
+        var altSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        var altCall = mock(ChatClient.CallResponseSpec.class);
+        when(alternate.prompt()).thenReturn(altSpec);
+        when(altSpec.system(anyString())).thenReturn(altSpec);
+        when(altSpec.user(anyString())).thenReturn(altSpec);
+        when(altSpec.call()).thenReturn(altCall);
+        when(altCall.content()).thenReturn("alternate answer");
+        when(modelRouter.chatClientFor(eq("acme"), argThat(s -> s != null && "openai".equals(s.provider())))).thenReturn(alternate);
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf"));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+        when(chatClient.prompt()).thenThrow(new IllegalStateException("ollama down"));
+
+        ChatResponse r = svc.answer(new ChatRequest("acme", "q", false, null, null));
+
+        assertTrue(r.answer().startsWith("alternate answer"));
+        verify(scheduler, times(2)).acquire("acme"); // the failed call's slot, then the alternate's
+        verify(scheduler, times(2)).release(ModelCallScheduler.Permit.NONE);
+    }
+
+    @Test
+    void modelDown_withoutStaleAnswer_extractsFromRetrievedChunks() {
+        svc.setCircuitBreakers(new ModelCircuitBreakers(io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry.ofDefaults(), true, "", ""), 0.80);
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        when(cache.lookup(anyString(), anyString(), anyDouble())).thenReturn(Optional.empty());
+        var d1 = new Document("Shipping is free over $50. Refunds are issued within 14 days of return.", Map.of("filename", "policy.pdf"));
+        when(retrieval.search(eq("acme"), eq("how long do refunds take"), any(), anyInt()))
+                .thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.9)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+        when(chatClient.prompt()).thenThrow(new IllegalStateException("ollama down"));
+
+        ChatResponse r = svc.answer(new ChatRequest("acme", "how long do refunds take", false, null, null));
+
+        assertTrue(r.answer().contains("> Refunds are issued within 14 days of return."));
+        assertFalse(r.answer().contains("Shipping"));
+        assertEquals(List.of("policy.pdf"), r.sources());
+        verify(cache, never()).save(anyString(), anyString(), anyString());
+        verify(promptCache, never()).save(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void cacheOnlyAdmission_servesCaches_butShedsModelWork() {
+        var cacheOnly = new AdmissionController.CacheOnly(3, false);
+        when(cache.lookup("acme", "hello")).thenReturn(Optional.of("cached"));
+        when(cache.lookup("acme", "q")).thenReturn(Optional.empty());
+
+        ChatResponse hit = AdmissionController.callWith(cacheOnly, () -> svc.answer(new ChatRequest("acme", "hello", false, null, null)));
+        assertEquals("cached", hit.answer());
+
+        var shed = assertThrows(com.owl.exception.OverloadedException.class,
+                () -> AdmissionController.callWith(cacheOnly, () -> svc.answer(new ChatRequest("acme", "q", false, null, null))));
+        assertEquals(3, shed.getRetryAfterSeconds());
+        verify(quotas, times(2)).recordRequest("acme");
+        verify(quotas).refundRequest("acme"); // the shed request is not charged
+        verifyNoInteractions(retrieval);
+        verify(chatClient, never()).prompt();
+    }
+
+    @Test
+    void warm_callsTheModelOutsideTheTenantCap_withoutChargingTheTenant() {
+        ModelCallScheduler scheduler = mock(ModelCallScheduler.class);
+        when(scheduler.acquireBackground()).thenReturn(ModelCallScheduler.Permit.NONE);
+        svc.setScheduler(scheduler);
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf", "score", 0.95));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt()))
+                .thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+
+        svc.warm("acme", "q");
+
+        verify(chatClient).prompt();
+        verify(scheduler).acquireBackground();
+        verify(scheduler, never()).acquire(anyString());
+        verify(budgets, never()).recordSpend(anyString(), anyDouble());
+        verify(events, never()).cost(anyString(), anyDouble(), anyLong());
+        verify(quotas, never()).recordRequest(anyString());
+    }
+
+    @Test
+    void cascade_acceptsGroundedSmallDraft_andEscalatesRejectedOne() {
+        var registry = new SimpleMeterRegistry();
+        svc.setCascade(new ModelCascade(registry, true, "ollama", "small", 0.6, 0.0001));
+        var small = mock(ChatClient.class);
+        var smallSpec = mock(ChatClient.ChatClientRequestSpec.class);
+        var smallCall = mock(ChatClient.CallResponseSpec.class);
+        when(small.prompt()).thenReturn(smallSpec);
+        when(smallSpec.system(anyString())).thenReturn(smallSpec);
+        when(smallSpec.user(anyString())).thenReturn(smallSpec);
+        when(smallSpec.call()).thenReturn(smallCall);
+        when(smallCall.content()).thenReturn("Refunds are issued within 14 days.", "I don't know based on the provided knowledge.");
+        when(modelRouter.pinnedClientFor(anyString(), any())).thenReturn(small);
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("Refunds are issued within 14 days of return.", Map.of("filename", "policy.pdf"));
+        when(retrieval.search(eq("acme"), anyString(), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.9)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+
+        ChatResponse first = svc.answer(new ChatRequest("acme", "refund time?", false, null, null));
+        assertTrue(first.answer().startsWith("Refunds are issued within 14 days."));
+        verify(chatClient, never()).prompt();
+
+        ChatResponse second = svc.answer(new ChatRequest("acme", "refund window?", false, null, null));
+        assertTrue(second.answer().startsWith("test response"));
+        verify(chatClient).prompt();
+        assertEquals(1.0, registry.counter("llm.cascade.drafts", "outcome", "accepted").count());
+        assertEquals(1.0, registry.counter("llm.cascade.escalations", "reason", "refused").count());
+
+        // each answer pays for the tiers it called and is cached under the tier that gave it
+        verify(budgets).recordSpend("acme", 0.0001);
+        verify(budgets).recordSpend("acme", 0.0001 + 0.0005);
+        verify(promptCache).save(eq("acme"), eq("ollama:small"), eq("refund time?"), anyString());
+        verify(promptCache).save(eq("acme"), eq("ollama:default"), eq("refund window?"), anyString());
+    }
+
+    @Test
+    void cascade_budgetCheckCoversBothTiers() {
+        svc.setCascade(new ModelCascade(new SimpleMeterRegistry(), true, "ollama", "small", 0.6, 0.0001));
+        when(budgets.allowSpend("acme", 0.0001 + 0.0005)).thenReturn(false); // room for one tier, not both
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("Refunds are issued within 14 days of return.", Map.of("filename", "policy.pdf"));
+        when(retrieval.search(eq("acme"), anyString(), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.9)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+
+        ChatResponse r = svc.answer(new ChatRequest("acme", "refund time?", false, null, null));
+
+        assertTrue(r.answer().startsWith("Budget exceeded"));
+        verify(modelRouter, never()).pinnedClientFor(anyString(), any());
+        verify(chatClient, never()).prompt();
+    }
+
+    @Test
+    void fastMode_retrievesFewer_skipsRerank_andUsesLowerCacheThreshold() {
+        svc.setModes(new ChatModeProfiles(tenantSettings, true,
+                "top-k=4,rerank=false,max-chunks=3,context-tokens=1000,cache-threshold=0.80",
+                "top-k=8,rerank=true,max-chunks=5,context-tokens=3000",
+                "top-k=16,rerank=true,max-chunks=8,context-tokens=6000", 60));
+        when(cache.lookup("acme", "q", 0.80)).thenReturn(Optional.empty());
+        var d1 = new Document("chunk1", Map.of("filename", "doc1.pdf"));
+        when(retrieval.search(eq("acme"), eq("q"), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+
+        svc.answer(new ChatRequest("acme", "q", false, null, null, "fast"));
+
+        verify(cache).lookup("acme", "q", 0.80);
+        verify(retrieval).search(eq("acme"), eq("q"), any(), eq(4));
+        verifyNoInteractions(reranker);
+        verify(chatClient).prompt();
+    }
+
+    @Test
+    void sessionFollowUp_carriesEarlierTurns_andBypassesQuestionCaches() {
+        var conversations = new ConversationService(history, new SimpleMeterRegistry(),
+                true, 6, 300, 400, 20, 100, 60, "extractive");
+        svc.setConversations(conversations);
+        when(history.findSession("acme", "s1")).thenReturn(new com.owl.model.ChatSession("s1", "acme", null));
+        when(history.recentForSession("acme", "s1", 20)).thenReturn(List.of());
+        when(cache.lookup(anyString(), anyString())).thenReturn(Optional.empty());
+        var d1 = new Document("Plan Pro costs 20 dollars a month.", Map.of("filename", "pricing.pdf"));
+        when(retrieval.search(eq("acme"), anyString(), any(), anyInt())).thenReturn(List.of(new DocumentRetrievalService.Scored(d1, 0.95)));
+        when(reranker.rerank(anyString(), anyString(), anyList())).thenAnswer(inv -> inv.getArgument(2));
+
+        svc.answer(new ChatRequest("acme", "What does Plan Pro cost?", false, null, null, null, "s1"));
+        var promptSpec = chatClient.prompt();
+        clearInvocations(promptSpec, cache, promptCache);
+        svc.answer(new ChatRequest("acme", "and per year?", false, null, null, null, "s1"));
+
+        ArgumentCaptor<String> system = ArgumentCaptor.forClass(String.class);
+        verify(promptSpec).system(system.capture());
+        assertTrue(system.getValue().startsWith(PromptLayout.GROUNDED_INSTRUCTIONS));
+        assertTrue(system.getValue().contains("User: What does Plan Pro cost?"));
+        verify(cache, never()).lookup(anyString(), anyString());
+        verify(cache, never()).save(anyString(), anyString(), anyString());
+        verify(history).save(eq("acme"), eq("and per year?"), anyString(), eq(false), anyList(), eq("s1"));
+    }
 }
@@ -0,0 +1,75 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextAssemblerTest {
+
+    private static DocumentRetrievalService.Scored chunk(String text, String file, double score) {
+        return new DocumentRetrievalService.Scored(new Document(text, Map.of("filename", file)), score);
+    }
+
+    @Test
+    void nearDuplicates_areDropped_andBestScoreComesFirst() {
+        var a = new ContextAssembler(new SimpleMeterRegistry(), "default=1000", 400, 0.85);
+        var ctx = a.assemble("refund policy", List.of(
+                chunk("Other topics: shipping is free on orders over fifty dollars.", "ship.pdf", 0.6),
+                chunk("Refunds are issued within 14 days of the return arriving.", "policy-v1.pdf", 0.9),
+                chunk("Refunds are issued within 14 days of the return arriving!", "policy-v2.pdf", 0.8)), 1000, 5);
+
+        assertEquals(List.of("policy-v1.pdf", "ship.pdf"),
+                ctx.chunks().stream().map(c -> c.doc().getMetadata().get("filename")).toList());
+    }
+
+    @Test
+    void longChunk_isTrimmedToQueryRelevantSentences_inDocumentOrder() {
+        var a = new ContextAssembler(new SimpleMeterRegistry(), "default=1000", 30, 0.85);
+        String text = "Our company was founded in 1999 in a small garage. "
+                + "Refunds are issued within 14 days. "
+                + "The office has a lovely view of the harbour and the old lighthouse. "
+                + "Refund requests need the original receipt.";
+
+        String trimmed = a.trim(text, ExtractiveAnswers.terms("refunds receipt"), 20);
+
+        assertEquals("Refunds are issued within 14 days. Refund requests need the original receipt.", trimmed);
+        assertTrue(a.tokens(trimmed) <= 20);
+    }
+
+    @Test
+    void budget_isFilledGreedily_andCappedByMode() {
+        var a = new ContextAssembler(new SimpleMeterRegistry(), "default=3000,ollama:small=50", 400, 0.85);
+        assertEquals(50, a.budgetFor("ollama:small", 1000));
+        assertEquals(1000, a.budgetFor("openai:gpt-4o", 1000));
+
+        String big = "alpha ".repeat(60).trim() + ".";
+        var ctx = a.assemble("alpha beta", List.of(
+                chunk("beta gamma delta.", "first.pdf", 0.9),
+                chunk(big, "big.pdf", 0.8),
+                chunk("epsilon zeta.", "small.pdf", 0.7)), 20, 5);
+
+        // the one-sentence big chunk is cut to a prefix that fills what is left of the budget
+        assertEquals(List.of("first.pdf", "big.pdf"),
+                ctx.chunks().stream().map(c -> c.doc().getMetadata().get("filename")).toList());
+        assertTrue(big.startsWith(ctx.chunks().get(1).doc().getText()));
+        assertTrue(ctx.tokens() <= 20);
+    }
+
+    @Test
+    void sentenceLongerThanTheBudget_fallsBackToATruncatedPrefix() {
+        var a = new ContextAssembler(new SimpleMeterRegistry(), "default=1000", 400, 0.85);
+        String text = "refunds " + "are issued after the returned item has been inspected by the warehouse team ".repeat(5).trim() + ".";
+
+        String trimmed = a.trim(text, ExtractiveAnswers.terms("refunds"), 12);
+
+        assertFalse(trimmed.isEmpty());
+        assertTrue(text.startsWith(trimmed));
+        assertTrue(a.tokens(trimmed) <= 12);
+        assertEquals(1, a.assemble("refunds", List.of(chunk(text, "long.pdf", 0.9)), 12, 3).chunks().size());
+    }
+}
@@ -0,0 +1,89 @@
+package com.owl.service;
+
+import com.owl.model.ChatRecord;
+import com.owl.model.ChatSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ConversationServiceTest {
+
+    @Test
+    void olderTurns_leaveTheWindow_intoABoundedSummary() {
+        var history = mock(ChatHistoryService.class);
+        when(history.recentForSession(anyString(), anyString(), anyInt())).thenReturn(List.of());
+        var svc = new ConversationService(history, new SimpleMeterRegistry(), true, 2, 300, 40, 20, 100, 60, "extractive");
+        String s1 = svc.start("acme", null);
+
+        for (int i = 1; i <= 12; i++) {
+            svc.append("acme", s1, "Question number " + i + " about topic " + i + "?", "Answer " + i + " is here. More detail.");
+        }
+        var h = svc.history("acme", s1);
+
+        assertEquals(List.of("Question number 11 about topic 11?", "Question number 12 about topic 12?"),
+                h.turns().stream().map(ConversationService.Turn::question).toList());
+        assertTrue(h.summary().contains("Question number 10"), h.summary());
+        assertFalse(h.summary().contains("Question number 1 "), "oldest turns are dropped from a full summary");
+        assertTrue(h.isFollowUp());
+        assertEquals("", ConversationService.render(svc.history("acme", svc.start("acme", null))));
+    }
+
+    @Test
+    void sessions_haveUnguessableIds_andOnlyTheirOwnerMayUseThem() {
+        var history = mock(ChatHistoryService.class);
+        var svc = new ConversationService(history, new SimpleMeterRegistry(), true, 2, 300, 400, 20, 100, 60, "extractive");
+
+        String id = svc.start("acme", "alice");
+        assertNotEquals(id, svc.start("acme", "alice"));
+        assertTrue(id.length() >= 22, id);
+        verify(history, times(2)).saveSession(any(ChatSession.class));
+
+        svc.authorize("acme", id, "alice");
+        assertThrows(NoSuchElementException.class, () -> svc.authorize("acme", id, "mallory"));
+        assertThrows(NoSuchElementException.class, () -> svc.authorize("acme", id, null));
+        assertThrows(NoSuchElementException.class, () -> svc.authorize("acme", "guessed-id", "alice"));
+        assertThrows(NoSuchElementException.class, () -> svc.history("other", id));
+        svc.authorize("acme", null, "mallory"); // stateless
+    }
+
+    @Test
+    void modelSummaries_goThroughTheSummarizer_andFallBackToExtractive() {
+        var history = mock(ChatHistoryService.class);
+        var svc = new ConversationService(history, new SimpleMeterRegistry(), true, 1, 300, 400, 20, 100, 60, "model");
+        List<String> tenants = new ArrayList<>();
+        svc.setSummarizer((tenantId, system, user) -> {
+            tenants.add(tenantId);
+            throw new IllegalStateException("Budget exceeded for tenant " + tenantId);
+        });
+        String id = svc.start("acme", null);
+
+        svc.append("acme", id, "First question?", "First answer. Detail.");
+        svc.append("acme", id, "Second question?", "Second answer.");
+
+        assertEquals(List.of("acme"), tenants);
+        assertTrue(svc.history("acme", id).summary().contains("First question?"));
+    }
+
+    @Test
+    void sessionNotInMemory_isReloadedFromTheChatStore() {
+        var history = mock(ChatHistoryService.class);
+        List<ChatRecord> recs = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) recs.add(new ChatRecord("acme", "q" + i, "a" + i + ".", false, List.of()));
+        when(history.recentForSession("acme", "s9", 20)).thenReturn(recs);
+        when(history.findSession("acme", "s9")).thenReturn(new ChatSession("s9", "acme", null));
+        var svc = new ConversationService(history, new SimpleMeterRegistry(), true, 2, 300, 400, 20, 100, 60, "extractive");
+
+        var h = svc.history("acme", "s9");
+
+        assertEquals(List.of("q2", "q3"), h.turns().stream().map(ConversationService.Turn::question).toList());
+        assertTrue(h.summary().contains("q1"));
+        svc.history("acme", "s9");
+        verify(history, times(1)).recentForSession("acme", "s9", 20);
+    }
+}
@@ -1,10 +1,17 @@
 package com.owl.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
 
 import java.util.List;
 import java.util.Map;
@@ -20,7 +27,7 @@ class DocumentRetrievalServiceTest {
         when(store.similaritySearch(any(SearchRequest.class))).thenReturn(List.of());
         TenantVectorService router = mock(TenantVectorService.class);
         doThrow(new UnsupportedOperationException()).when(router).search(anyString(), anyString(), any(), anyInt());
-        DocumentRetrievalService svc = new DocumentRetrievalService(store, router, null);
+        DocumentRetrievalService svc = new DocumentRetrievalService(store, router, null, new SimpleMeterRegistry());
 
         svc.search("acme", "q", null, 3);
 
@@ -36,7 +43,7 @@ class DocumentRetrievalServiceTest {
         when(store.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(d));
         TenantVectorService router = mock(TenantVectorService.class);
         doThrow(new UnsupportedOperationException()).when(router).search(anyString(), anyString(), any(), anyInt());
-        DocumentRetrievalService svc = new DocumentRetrievalService(store, router, null);
+        DocumentRetrievalService svc = new DocumentRetrievalService(store, router, null, new SimpleMeterRegistry());
 
         var res = svc.search("acme", "q", "file.pdf", 2);
         assertEquals(1, res.size());
@@ -49,4 +56,22 @@ class DocumentRetrievalServiceTest {
         assertTrue(f.contains("filename == 'file.pdf'"));
         assertTrue(f.contains("url == 'file.pdf'"));
     }
+
+    @Test
+    void qdrantFailure_fallsBackToTheVectorStore_andIsCountedOnBothPaths() {
+        VectorStore store = mock(VectorStore.class);
+        when(store.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(new Document("t")));
+        TenantVectorService router = mock(TenantVectorService.class);
+        var down = new WebClientRequestException(new java.io.IOException("refused"), HttpMethod.POST,
+                URI.create("http://qdrant"), new HttpHeaders());
+        doThrow(down).when(router).search(anyString(), anyString(), any(), anyInt());
+        when(router.searchAsync(anyString(), anyString(), any(), anyInt())).thenReturn(Mono.error(down));
+        var metrics = new SimpleMeterRegistry();
+        DocumentRetrievalService svc = new DocumentRetrievalService(store, router, null, metrics);
+
+        assertEquals(1, svc.search("acme", "q", null, 3).size());
+        assertEquals(1, svc.searchAsync("acme", "q", null, 3).block().size());
+
+        assertEquals(2.0, metrics.counter("vector.search.fallback", "caller", "retrieval").count());
+    }
 }
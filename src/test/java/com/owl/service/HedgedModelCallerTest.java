@@ -0,0 +1,67 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedModelCallerTest {
+
+    @Test
+    void slowPrimary_isHedged_andCancelled() throws Exception {
+        var metrics = new SimpleMeterRegistry();
+        var caller = new HedgedModelCaller(metrics, true, 50, 10, 200);
+        var primaryInterrupted = new CountDownLatch(1);
+
+        String answer = caller.call(() -> {
+            try {
+                Thread.sleep(5_000);
+                return "primary";
+            } catch (InterruptedException e) {
+                primaryInterrupted.countDown();
+                throw new IllegalStateException(e);
+            }
+        }, () -> "hedge");
+
+        assertEquals("hedge", answer);
+        assertTrue(primaryInterrupted.await(2, TimeUnit.SECONDS), "losing call should be cancelled");
+        assertEquals(1.0, metrics.counter("chat.model.hedge", "outcome", "hedge").count());
+    }
+
+    @Test
+    void deadline_boundsTheModelCall() {
+        var caller = new HedgedModelCaller(new SimpleMeterRegistry(), false, 0, 500, 200);
+        RequestDeadline.startIn(Duration.ofMillis(50));
+        try {
+            DeadlineExceededException e = assertThrows(DeadlineExceededException.class, () -> caller.call(() -> {
+                try { Thread.sleep(5_000); } catch (InterruptedException ignored) { }
+                return "late";
+            }, null));
+            assertEquals("model", e.getStage());
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+
+    @Test
+    void bounded_cutsOffAtTheDeadline_withoutHedging() {
+        var metrics = new SimpleMeterRegistry();
+        var caller = new HedgedModelCaller(metrics, true, 10, 10, 200);
+        assertEquals("fast", caller.bounded(() -> "fast")); // no deadline: runs inline
+        RequestDeadline.startIn(Duration.ofMillis(50));
+        try {
+            assertThrows(DeadlineExceededException.class, () -> caller.bounded(() -> {
+                try { Thread.sleep(5_000); } catch (InterruptedException ignored) { }
+                return "late";
+            }));
+        } finally {
+            RequestDeadline.clear();
+        }
+        assertNull(metrics.find("chat.model.hedge").counter());
+    }
+}
@@ -0,0 +1,58 @@
+package com.owl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+    @Test
+    void graphSearch_findsTheExactNearestForMostQueries() {
+        Random rnd = new Random(7);
+        int n = 2000, dim = 32;
+        float[][] data = new float[n][];
+        HnswIndex<Integer> idx = new HnswIndex<>(16, 100, 0); // never scans
+        for (int i = 0; i < n; i++) {
+            data[i] = HnswIndex.normalize(random(rnd, dim));
+            idx.add(data[i], i);
+        }
+        int hits = 0;
+        for (int q = 0; q < 100; q++) {
+            float[] query = HnswIndex.normalize(random(rnd, dim));
+            int exact = IntStream.range(0, n).boxed()
+                    .max(Comparator.comparingDouble(i -> dot(query, data[i]))).orElseThrow();
+            if (idx.search(query, 1, 64).get(0).value() == exact) hits++;
+        }
+        assertTrue(hits >= 90, "recall@1 " + hits + "%");
+    }
+
+    @Test
+    void removedNodes_areNeverReturned() {
+        HnswIndex<String> idx = new HnswIndex<>(8, 50, 10);
+        int a = idx.add(new float[]{1, 0}, "a");
+        idx.add(new float[]{0, 1}, "b");
+        idx.remove(a);
+
+        var found = idx.search(new float[]{1, 0.01f}, 2, 10);
+        assertEquals(1, found.size());
+        assertEquals("b", found.get(0).value());
+        assertEquals(1, idx.size());
+        assertEquals(1, idx.tombstones());
+    }
+
+    private static float[] random(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) v[i] = (float) rnd.nextGaussian();
+        return v;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double d = 0;
+        for (int i = 0; i < a.length; i++) d += a[i] * b[i];
+        return d;
+    }
+}
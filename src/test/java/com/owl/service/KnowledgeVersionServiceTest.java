@@ -0,0 +1,56 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class KnowledgeVersionServiceTest {
+
+    private final TenantMongoManager tenants = mock(TenantMongoManager.class);
+    private final MongoTemplate tpl = mock(MongoTemplate.class);
+    private final ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+
+    KnowledgeVersionServiceTest() {
+        when(tenants.templateForTenant("acme")).thenReturn(tpl);
+        when(tpl.findAll(Map.class, "kb_versions")).thenReturn(List.of(Map.of("_id", "b.pdf", "version", 3L)));
+        when(tpl.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Map.class), eq("kb_versions")))
+                .thenReturn(Map.of("version", 1L));
+    }
+
+    @Test
+    void bump_invalidatesOnlyAnswersGroundedOnThatSource() {
+        var kb = new KnowledgeVersionService(tenants, publisher, new SimpleMeterRegistry(), true, "source", 60_000);
+        Map<String, Long> before = kb.snapshot("acme", List.of("a.pdf", "b.pdf"));
+        assertEquals(Map.of("a.pdf", 0L, "b.pdf", 3L), before);
+
+        assertEquals(1L, kb.bump("acme", "a.pdf"));
+
+        assertFalse(kb.isCurrent("acme", before));
+        assertTrue(kb.isCurrent("acme", Map.of("b.pdf", 3L)));
+        assertTrue(kb.isCurrent("acme", kb.snapshot("acme", List.of("a.pdf"))));
+        assertTrue(kb.isCurrent("acme", Map.of())); // unversioned entries
+        verify(publisher).publishEvent(new KnowledgeVersionService.Changed("acme", "a.pdf", 1L));
+    }
+
+    @Test
+    void tenantScope_anyChangeInvalidatesEveryAnswer() {
+        var kb = new KnowledgeVersionService(tenants, publisher, new SimpleMeterRegistry(), true, "tenant", 60_000);
+        Map<String, Long> before = kb.snapshot("acme", List.of("b.pdf"));
+        assertTrue(before.containsKey(KnowledgeVersionService.TENANT_WIDE));
+
+        kb.bump("acme", "a.pdf");
+
+        assertFalse(kb.isCurrent("acme", before));
+    }
+}
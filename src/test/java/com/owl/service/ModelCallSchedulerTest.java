@@ -0,0 +1,111 @@
+package com.owl.service;
+
+import com.owl.exception.OverloadedException;
+import com.owl.model.TenantSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ModelCallSchedulerTest {
+
+    private static TenantSettingsService plans(String... tenantPlan) {
+        TenantSettingsService settings = mock(TenantSettingsService.class);
+        for (int i = 0; i < tenantPlan.length; i += 2) {
+            TenantSettings s = new TenantSettings(tenantPlan[i]);
+            s.setPlan(tenantPlan[i + 1]);
+            when(settings.getOrCreate(tenantPlan[i])).thenReturn(s);
+        }
+        return settings;
+    }
+
+    @Test
+    void freeSlotsGoToHeavierPlanFirst_andTenantCapHolds() throws Exception {
+        var settings = plans("noisy", "free", "big", "enterprise");
+        var scheduler = new ModelCallScheduler(settings, new SimpleMeterRegistry(), true, 1, 100,
+                "free=1,enterprise=10", "free=1,enterprise=8", 60);
+        List<String> order = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            var blocker = scheduler.acquire("noisy"); // holds the only slot
+            for (int i = 0; i < 3; i++) pool.submit(() -> scheduler.run("noisy", () -> order.add("noisy")));
+            Thread.sleep(100);
+            for (int i = 0; i < 3; i++) pool.submit(() -> scheduler.run("big", () -> order.add("big")));
+            Thread.sleep(100);
+            scheduler.release(blocker);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(6, order.size());
+        // enterprise weight 10 vs free 1: the later-arriving enterprise work is served ahead of queued free work
+        assertEquals(List.of("big", "big"), order.subList(0, 2));
+    }
+
+    @Test
+    void tenantWithoutPlan_isOnlyBoundByTheGlobalCap() {
+        var settings = mock(TenantSettingsService.class);
+        when(settings.getOrCreate("acme")).thenReturn(new TenantSettings("acme"));
+        var scheduler = new ModelCallScheduler(settings, new SimpleMeterRegistry(), true, 3, 0,
+                "free=1", "free=1", 60);
+        var a = scheduler.acquire("acme");
+        var b = scheduler.acquire("acme");
+        var c = scheduler.acquire("acme");
+        assertThrows(OverloadedException.class, () -> scheduler.acquire("acme"));
+        scheduler.release(a);
+        scheduler.release(b);
+        scheduler.release(c);
+    }
+
+    @Test
+    void waitBehindOwnCap_isNotReportedToAdmission() throws Exception {
+        var scheduler = new ModelCallScheduler(plans("t", "free"), new SimpleMeterRegistry(), true, 4, 10,
+                "free=1", "free=1", 60);
+        AdmissionController admission = mock(AdmissionController.class);
+        scheduler.setAdmission(admission);
+        var held = scheduler.acquire("t");
+        var second = CompletableFuture.supplyAsync(() -> scheduler.acquire("t")); // global slots free, own cap full
+        Thread.sleep(300);
+        scheduler.release(held);
+        scheduler.release(second.get(5, TimeUnit.SECONDS));
+
+        ArgumentCaptor<Long> waits = ArgumentCaptor.forClass(Long.class);
+        verify(admission, times(2)).recordQueueTime(eq("t"), waits.capture());
+        for (long w : waits.getAllValues()) assertTrue(w < TimeUnit.MILLISECONDS.toNanos(100), "reported " + w);
+    }
+
+    @Test
+    void backgroundSlot_leavesTheTenantCapFree_andIsRefusedOnceSlotsRunOut() {
+        var scheduler = new ModelCallScheduler(plans("t", "free"), new SimpleMeterRegistry(), true, 2, 0,
+                "free=1", "free=1", 60);
+        var warm = scheduler.acquireBackground();
+        var live = scheduler.acquire("t"); // the free plan's only slot is still the tenant's
+        assertThrows(OverloadedException.class, scheduler::acquireBackground);
+        scheduler.release(warm);
+        scheduler.release(live);
+        scheduler.release(scheduler.acquireBackground());
+    }
+
+    @Test
+    void fullQueue_shedsWith503() {
+        var scheduler = new ModelCallScheduler(plans("t", "free"), new SimpleMeterRegistry(), true, 1, 0,
+                "free=1", "free=1", 60);
+        var held = scheduler.acquire("t");
+        try {
+            OverloadedException e = assertThrows(OverloadedException.class, () -> scheduler.acquire("t"));
+            assertFalse(e.isTooManyRequests());
+        } finally {
+            scheduler.release(held);
+        }
+    }
+}
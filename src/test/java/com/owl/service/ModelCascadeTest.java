@@ -0,0 +1,43 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelCascadeTest {
+
+    private static final List<DocumentRetrievalService.Scored> CONTEXT = List.of(new DocumentRetrievalService.Scored(
+            new Document("Refunds are issued within 14 days of the returned item arriving at our warehouse.", Map.of()), 0.9));
+
+    private final ModelCascade cascade = new ModelCascade(new SimpleMeterRegistry(), true, "ollama", "llama3.2:1b", 0.6, 0.0001);
+
+    @Test
+    void groundedDraft_isAccepted() {
+        var v = cascade.verify("Refunds are issued within 14 days once the returned item arrives.", CONTEXT);
+        assertTrue(v.accepted());
+        assertEquals(1.0, v.groundedness());
+    }
+
+    @Test
+    void unsupportedOrRefusedDraft_escalates() {
+        var v = cascade.verify("Customers receive store credit immediately through the mobile application.", CONTEXT);
+        assertFalse(v.accepted());
+        assertEquals("ungrounded", v.reason());
+        assertEquals("refused", cascade.verify("I don't know based on the provided knowledge.", CONTEXT).reason());
+        assertEquals("empty", cascade.verify(" ", CONTEXT).reason());
+    }
+
+    @Test
+    void smallTier_skippedWhenDisabledOrAlreadyRouted() {
+        var routed = new ModelRoutingService.Selection("openai", "gpt-4o", null);
+        assertEquals("llama3.2:1b", cascade.smallTierFor(routed).orElseThrow().chatModel());
+        assertTrue(cascade.smallTierFor(new ModelRoutingService.Selection("ollama", "llama3.2:1b", null)).isEmpty());
+        var off = new ModelCascade(new SimpleMeterRegistry(), false, "ollama", "llama3.2:1b", 0.6, 0.0001);
+        assertTrue(off.smallTierFor(routed).isEmpty());
+    }
+}
@@ -0,0 +1,60 @@
+package com.owl.service;
+
+import com.owl.exception.OverloadedException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModelCircuitBreakersTest {
+
+    private static ModelCircuitBreakers breakers(String fallbackProvider, String fallbackModel) {
+        var llm = CircuitBreakerConfig.custom()
+                .slidingWindowSize(4)
+                .minimumNumberOfCalls(4)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofSeconds(30))
+                .ignoreExceptions(OverloadedException.class)
+                .build();
+        var registry = CircuitBreakerRegistry.of(java.util.Map.of(ModelCircuitBreakers.CONFIG, llm));
+        return new ModelCircuitBreakers(registry, true, fallbackProvider, fallbackModel);
+    }
+
+    @Test
+    void opensPerBackend_afterFailures_andRejectsWithoutCalling() {
+        var b = breakers("", "");
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalStateException.class, () -> b.call("ollama:llama3", () -> { throw new IllegalStateException("500"); }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, b.stateOf("ollama:llama3"));
+        assertFalse(b.isCallPermitted("ollama:llama3"));
+        assertThrows(CallNotPermittedException.class, () -> b.call("ollama:llama3", () -> fail("must not reach the backend")));
+        assertEquals("ok", b.call("openai:gpt-4o-mini", () -> "ok")); // other backends unaffected
+        assertEquals(30, b.retryAfterSeconds("ollama:llama3"));
+    }
+
+    @Test
+    void shedding_doesNotCountAgainstBackend() {
+        var b = breakers("", "");
+        for (int i = 0; i < 8; i++) {
+            assertThrows(OverloadedException.class, () -> b.call("ollama:default", () -> { throw new OverloadedException("limit", 1); }));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, b.stateOf("ollama:default"));
+    }
+
+    @Test
+    void alternate_isConfiguredModel_unlessAlreadySelected() {
+        var b = breakers("openai", "gpt-4o-mini");
+        var alt = b.alternateFor(new ModelRoutingService.Selection("ollama", "llama3", null));
+        assertTrue(alt.isPresent());
+        assertEquals("openai", alt.get().provider());
+        assertEquals("gpt-4o-mini", alt.get().chatModel());
+        assertTrue(b.alternateFor(new ModelRoutingService.Selection("openai", "gpt-4o-mini", null)).isEmpty());
+        assertTrue(breakers("", "").alternateFor(new ModelRoutingService.Selection("ollama", null, null)).isEmpty());
+    }
+}
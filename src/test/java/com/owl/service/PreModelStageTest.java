@@ -0,0 +1,43 @@
+package com.owl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreModelStageTest {
+
+    @Test
+    void chainedStages_runTheParentOnce_serialAndParallel() {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (var executor : new ExecutorService[]{null, pool}) {
+                AtomicInteger runs = new AtomicInteger();
+                var sel = new PreModelStage<>(executor, () -> "sel-" + runs.incrementAndGet());
+                var prompt = sel.then(s -> s + "/prompt");
+
+                assertEquals("sel-1", sel.join());
+                assertEquals("sel-1/prompt", prompt.join());
+                assertEquals("sel-1", sel.join());
+                assertEquals(1, runs.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void serialFailure_isRethrownWithoutRerunning() {
+        AtomicInteger runs = new AtomicInteger();
+        var stage = new PreModelStage<String>(null, () -> {
+            runs.incrementAndGet();
+            throw new IllegalStateException("down");
+        });
+        assertThrows(IllegalStateException.class, stage::join);
+        assertThrows(IllegalStateException.class, stage.then(s -> s + "!")::join);
+        assertEquals(1, runs.get());
+    }
+}
@@ -0,0 +1,93 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PromptCacheServiceTest {
+
+    @Test
+    void repeatLookup_isServedFromL1_withoutMongo() {
+        var tenants = mock(TenantMongoManager.class);
+        var tpl = mock(MongoTemplate.class);
+        when(tenants.templateForTenant("acme")).thenReturn(tpl);
+        when(tpl.indexOps("prompt_cache")).thenReturn(mock(IndexOperations.class));
+        when(tpl.findOne(any(Query.class), eq(Map.class), eq("prompt_cache")))
+                .thenReturn(Map.of("answer", "cached answer", "createdAt", new Date()));
+        var metrics = new SimpleMeterRegistry();
+        var svc = new PromptCacheService(tenants, metrics, true, 1 << 20, 1 << 18);
+
+        assertEquals("cached answer", svc.lookup("acme", "ollama:llama3", "q"));
+        assertEquals("cached answer", svc.lookup("acme", "ollama:llama3", "q"));
+
+        verify(tpl, times(1)).findOne(any(Query.class), eq(Map.class), eq("prompt_cache"));
+        verify(tpl, times(1)).indexOps("prompt_cache");
+        assertEquals(1.0, metrics.counter("prompt.cache.requests", "level", "l1", "result", "hit").count());
+    }
+
+    @Test
+    void l2Documents_pastTheTtl_areMisses() {
+        var tenants = mock(TenantMongoManager.class);
+        var tpl = mock(MongoTemplate.class);
+        when(tenants.templateForTenant("acme")).thenReturn(tpl);
+        when(tpl.indexOps("prompt_cache")).thenReturn(mock(IndexOperations.class));
+        long eightDaysAgo = System.currentTimeMillis() - PromptCacheService.TTL.toMillis() - 86_400_000L;
+        when(tpl.findOne(any(Query.class), eq(Map.class), eq("prompt_cache")))
+                .thenReturn(Map.of("answer", "old", "createdAt", eightDaysAgo));
+        var svc = new PromptCacheService(tenants, new SimpleMeterRegistry(), true, 1 << 20, 1 << 18);
+
+        assertNull(svc.lookup("acme", "ollama:llama3", "q"));
+    }
+
+    @Test
+    void answersGroundedOnAChangedSource_areMissesAtBothLevels() {
+        var tenants = mock(TenantMongoManager.class);
+        var tpl = mock(MongoTemplate.class);
+        when(tenants.templateForTenant("acme")).thenReturn(tpl);
+        when(tpl.indexOps("prompt_cache")).thenReturn(mock(IndexOperations.class));
+        when(tpl.findOne(any(Query.class), eq(Map.class), eq("prompt_cache"))).thenReturn(Map.of("answer", "old answer",
+                "createdAt", new Date(), "sources", List.of(Map.of("name", "a.pdf", "version", 0L))));
+        var kb = new KnowledgeVersionService(tenants, mock(ApplicationEventPublisher.class), new SimpleMeterRegistry(), true, "source", 60_000);
+        var svc = new PromptCacheService(tenants, new SimpleMeterRegistry(), true, 1 << 20, 1 << 18);
+        svc.setKnowledgeVersions(kb);
+
+        svc.save("acme", "ollama:llama3", "q", "old answer", Map.of("a.pdf", 0L));
+        assertEquals("old answer", svc.lookup("acme", "ollama:llama3", "q"));
+
+        kb.bump("acme", "a.pdf");
+
+        assertNull(svc.lookup("acme", "ollama:llama3", "q"));
+    }
+
+    @Test
+    void shadowCanonicalization_countsRephrasedMisses_withoutChangingKeys() {
+        var tenants = mock(TenantMongoManager.class);
+        var tpl = mock(MongoTemplate.class);
+        when(tenants.templateForTenant("acme")).thenReturn(tpl);
+        when(tpl.indexOps("prompt_cache")).thenReturn(mock(IndexOperations.class));
+        var metrics = new SimpleMeterRegistry();
+        var svc = new PromptCacheService(tenants, metrics, true, 1 << 20, 1 << 18);
+        svc.setCanonicalizer(new RuleBasedQueryCanonicalizer(mock(TenantSettingsService.class), "shadow", true, true,
+                "please", "", 60));
+
+        svc.save("acme", "ollama:llama3", "What is the refund policy?", "30 days");
+
+        assertNull(svc.lookup("acme", "ollama:llama3", "what is the refund policy please")); // verbatim key still misses
+        assertEquals("30 days", svc.lookup("acme", "ollama:llama3", "What is the refund policy?"));
+        assertNull(svc.lookup("acme", "ollama:llama3", "Where is my order?"));
+        assertEquals(1.0, metrics.counter("prompt.cache.canonical", "result", "gain").count());
+        assertEquals(1.0, metrics.counter("prompt.cache.canonical", "result", "hit").count());
+        assertEquals(1.0, metrics.counter("prompt.cache.canonical", "result", "miss").count());
+    }
+}
@@ -0,0 +1,50 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptLayoutTest {
+
+    private static DocumentRetrievalService.Scored chunk(String id, String text, String file, double score) {
+        return new DocumentRetrievalService.Scored(new Document(id, text, Map.of("filename", file)), score);
+    }
+
+    @Test
+    void sameChunks_inAnyScoreOrder_giveByteIdenticalPrompt_withInstructionsFirst() {
+        var layout = new PromptLayout(new SimpleMeterRegistry(), true, 16, 300);
+        var a = chunk("1", "Refunds take 14 days.  \r\nKeep the receipt.", "policy.pdf", 0.9);
+        var b = chunk("2", "Shipping is free over $50.", "faq.pdf", 0.7);
+
+        String first = layout.grounded(List.of(a, b));
+        String second = layout.grounded(List.of(new DocumentRetrievalService.Scored(b.doc(), 0.95), a));
+
+        assertEquals(first, second);
+        assertTrue(first.startsWith(PromptLayout.GROUNDED_INSTRUCTIONS + "<CONTEXT>\n"));
+        assertTrue(first.indexOf("Shipping") < first.indexOf("Refunds"), "faq.pdf sorts before policy.pdf");
+        assertTrue(first.contains("Refunds take 14 days.\nKeep the receipt.\n---\n"));
+    }
+
+    @Test
+    void prefixReuse_isCountedPerBackend_andProviderUsageGivesHitRate() {
+        var metrics = new SimpleMeterRegistry();
+        var layout = new PromptLayout(metrics, true, 16, 300);
+
+        layout.recordPrefix("ollama:llama3", "system A");
+        layout.recordPrefix("ollama:llama3", "system A");
+        layout.recordPrefix("openai:gpt-4o", "system A");
+        layout.recordUsage("openai:gpt-4o", 1000, 768);
+        layout.recordUsage("openai:gpt-4o", 1000, null); // provider did not report caching
+
+        assertEquals(1.0, metrics.counter("llm.prompt.prefix", "backend", "ollama:llama3", "reuse", "hit").count());
+        assertEquals(1.0, metrics.counter("llm.prompt.prefix", "backend", "ollama:llama3", "reuse", "miss").count());
+        assertEquals(1.0, metrics.counter("llm.prompt.prefix", "backend", "openai:gpt-4o", "reuse", "miss").count());
+        assertEquals(1000.0, metrics.counter("llm.prompt.tokens", "backend", "openai:gpt-4o").count());
+        assertEquals(768.0, metrics.counter("llm.prompt.cached_tokens", "backend", "openai:gpt-4o").count());
+    }
+}
@@ -0,0 +1,38 @@
+package com.owl.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class QueryEmbeddingContextTest {
+
+    @Test
+    void embedsOncePerContext_andOnlyForTheSameQuery() {
+        EmbeddingModel model = mock(EmbeddingModel.class);
+        when(model.embed(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+
+        QueryEmbeddingContext.callWith("q", () -> {
+            QueryEmbeddingContext.embed(model, "q");
+            QueryEmbeddingContext.embed(model, "q");
+            QueryEmbeddingContext.embed(model, "other");
+            return null;
+        });
+
+        verify(model, times(1)).embed("q");
+        verify(model, times(1)).embed("other");
+        assertNull(QueryEmbeddingContext.current());
+    }
+
+    @Test
+    void withoutContext_embedsEveryTime() {
+        EmbeddingModel model = mock(EmbeddingModel.class);
+        when(model.embed(anyString())).thenReturn(new float[]{0.1f});
+
+        QueryEmbeddingContext.embed(model, "q");
+        QueryEmbeddingContext.embed(model, "q");
+
+        verify(model, times(2)).embed("q");
+    }
+}
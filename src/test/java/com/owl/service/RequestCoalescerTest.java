@@ -0,0 +1,93 @@
+package com.owl.service;
+
+import com.owl.exception.DeadlineExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCoalescerTest {
+
+    @Test
+    void concurrentDuplicates_shareOneCall() throws Exception {
+        var metrics = new SimpleMeterRegistry();
+        var coalescer = new RequestCoalescer(metrics, true);
+        var calls = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        String key = RequestCoalescer.key("acme", "ollama:default", null, "What is X?");
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<RequestCoalescer.Shared<String>> leader = pool.submit(() -> coalescer.execute(key, () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                return "answer";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<RequestCoalescer.Shared<String>> joiner = pool.submit(() ->
+                    coalescer.execute(RequestCoalescer.key("acme", "ollama:default", null, "  what is   x? "), () -> {
+                        calls.incrementAndGet();
+                        return "other";
+                    }));
+            while (metrics.counter("chat.coalesce", "outcome", "join").count() < 1) Thread.sleep(5);
+            release.countDown();
+
+            assertEquals("answer", leader.get(5, TimeUnit.SECONDS).value());
+            assertFalse(leader.get().joined());
+            assertEquals("answer", joiner.get(5, TimeUnit.SECONDS).value());
+            assertTrue(joiner.get().joined());
+            assertEquals(1, calls.get());
+            assertEquals(1, metrics.timer("chat.coalesce.wait").count());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void joiner_givesUpAtItsOwnDeadline() throws Exception {
+        var metrics = new SimpleMeterRegistry();
+        var coalescer = new RequestCoalescer(metrics, true);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> leader = pool.submit(() -> coalescer.execute("k", () -> {
+                started.countDown();
+                try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                return "answer";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?> joiner = pool.submit(() -> {
+                RequestDeadline.startIn(Duration.ofMillis(50));
+                try {
+                    return coalescer.execute("k", () -> "other");
+                } finally {
+                    RequestDeadline.clear();
+                }
+            });
+            var e = assertThrows(java.util.concurrent.ExecutionException.class, () -> joiner.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DeadlineExceededException.class, e.getCause());
+            release.countDown();
+            leader.get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void disabled_alwaysExecutes() {
+        var coalescer = new RequestCoalescer(new SimpleMeterRegistry(), false);
+        var r = coalescer.execute("k", () -> "v");
+        assertEquals("v", r.value());
+        assertFalse(r.joined());
+    }
+}
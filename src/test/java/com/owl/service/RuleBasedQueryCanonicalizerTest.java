@@ -0,0 +1,58 @@
+package com.owl.service;
+
+import com.owl.model.TenantSettings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RuleBasedQueryCanonicalizerTest {
+
+    private final TenantSettingsService settings = mock(TenantSettingsService.class);
+
+    private RuleBasedQueryCanonicalizer canonicalizer(String stopWords) {
+        return new RuleBasedQueryCanonicalizer(settings, "on", true, true,
+                "please,pls,thank you,hi", stopWords, 60);
+    }
+
+    @Test
+    void phrasingsOfOneQuestion_shareACanonicalForm() {
+        when(settings.getOrCreate("acme")).thenReturn(new TenantSettings("acme"));
+        var c = canonicalizer("");
+
+        String canonical = c.canonicalize("acme", "What is the refund policy?");
+        assertEquals("what is the refund policy", canonical);
+        assertEquals(canonical, c.canonicalize("acme", "  Hi, what   is the REFUND policy?? Thank you!"));
+        assertEquals(canonical, c.canonicalize("acme", "what is the refund policy, please"));
+        assertEquals(canonical, c.canonicalize("acme", "ｗｈａｔ is the refund policy")); // full-width, NFKC
+        assertEquals("is v3.5 e-mail c++ supported", c.canonicalize("acme", "Is v3.5 e-mail C++ supported?"));
+        assertEquals("please", c.canonicalize("acme", "Please!")); // nothing left: keep the words
+    }
+
+    @Test
+    void meaningfulPunctuation_andFillersInsideTheQuestion_stay() {
+        when(settings.getOrCreate("acme")).thenReturn(new TenantSettings("acme"));
+        var c = canonicalizer("");
+
+        assertEquals("is c# faster than .net", c.canonicalize("acme", "Is C# faster than .NET?"));
+        assertEquals("is 5% of -40 negative", c.canonicalize("acme", "Is 5% of (-40) negative?"));
+        assertEquals("and then", c.canonicalize("acme", "...and then..."));
+        assertEquals("how to say thank you in french",
+                c.canonicalize("acme", "Please, how to say \"thank you\" in French? Thank you"));
+    }
+
+    @Test
+    void tenantSynonymsAndStopWords_applyOnlyWhenConfigured() {
+        var acme = new TenantSettings("acme");
+        acme.setSynonyms(Map.of("money back", "refund", "reimbursement", "refund"));
+        when(settings.getOrCreate("acme")).thenReturn(acme);
+        when(settings.getOrCreate("other")).thenReturn(new TenantSettings("other"));
+        var c = canonicalizer("the,a");
+
+        assertEquals("how do i get refund", c.canonicalize("acme", "How do I get a money back?"));
+        assertEquals("how do i get refund", c.canonicalize("acme", "How do I get the reimbursement?"));
+        assertEquals("how do i get money back", c.canonicalize("other", "How do I get a money back?"));
+    }
+}
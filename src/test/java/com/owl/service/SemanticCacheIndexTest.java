@@ -0,0 +1,106 @@
+package com.owl.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SemanticCacheIndexTest {
+
+    private final TenantVectorService vectors = mock(TenantVectorService.class);
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+    private final SemanticCacheIndex index = new SemanticCacheIndex(vectors, metrics, true, 16, 100, 64, 1024, 512,
+            1, 4, 200000, "lfu", 0.97);
+
+    @Test
+    void overCap_evictsLeastUsed_andCompactionDeletesThePoints() {
+        for (int i = 0; i < 4; i++) assertTrue(index.add(entry("e" + i), axis(i), true));
+        for (int i = 0; i < 3; i++) assertTrue(index.nearest("acme", axis(i), 0.9).isPresent()); // e3 never used
+
+        assertTrue(index.add(entry("e4"), axis(4), true));
+
+        assertEquals(3, index.size("acme")); // down to 95% of the cap
+        assertTrue(index.nearest("acme", axis(3), 0.9).isEmpty());
+        index.compact();
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> deleted = ArgumentCaptor.forClass(List.class);
+        verify(vectors).deleteSharedPoints(deleted.capture());
+        assertEquals(List.of("e3", "e4"), deleted.getValue());
+        verify(vectors).deleteShared(anyMap()); // expired and legacy points, by filter
+    }
+
+    @Test
+    void nearDuplicates_collapse_andExpiredEntriesAreNeitherAddedNorServed() {
+        assertTrue(index.add(entry("a"), new float[]{1, 0, 0, 0, 0}, true));
+        assertFalse(index.add(entry("b"), new float[]{1, 0.05f, 0, 0, 0}, true));
+        assertEquals(1, index.size("acme"));
+        assertEquals(1.0, metrics.counter("cache.semantic.collapsed").count());
+
+        long old = System.currentTimeMillis() - 2 * 3_600_000L;
+        assertFalse(index.add(new SemanticCacheIndex.Entry("c", "acme", "q", "a", old), axis(2), true));
+        assertTrue(index.nearest("acme", axis(2), 0.5).isEmpty());
+    }
+
+    @Test
+    void unknownEviction_fallsBackToLfu() {
+        assertEquals(SemanticCacheIndex.Eviction.LRU, SemanticCacheIndex.parseEviction(" lru "));
+        assertEquals(SemanticCacheIndex.Eviction.LFU, SemanticCacheIndex.parseEviction("lfru"));
+        assertEquals(SemanticCacheIndex.Eviction.LFU, SemanticCacheIndex.parseEviction(""));
+        assertDoesNotThrow(() -> new SemanticCacheIndex(vectors, metrics, true, 16, 100, 64, 1024, 512, 1, 4, 100, "typo", 0.97));
+    }
+
+    @Test
+    void overGlobalCap_theLargestTenantGivesWay() {
+        SemanticCacheIndex capped = new SemanticCacheIndex(vectors, metrics, true, 16, 100, 64, 1024, 512, 1, 10, 4, "lfu", 0.97);
+        for (int i = 0; i < 3; i++) assertTrue(capped.add(entry("e" + i), axis(i), true));
+        assertTrue(capped.add(new SemanticCacheIndex.Entry("x", "beta", "q", "a", System.currentTimeMillis()), axis(0), true));
+
+        assertTrue(capped.add(entry("e3"), axis(3), true));
+
+        assertEquals(2, capped.size("acme")); // down to 95% of the global cap, all from acme
+        assertEquals(1, capped.size("beta"));
+        assertEquals(2.0, metrics.counter("cache.semantic.evictions", "cause", "global").count());
+    }
+
+    @Test
+    void clearsAndDeletionsOnOtherReplicas_dropTheLocalCopies() {
+        MongoTemplate core = mock(MongoTemplate.class);
+        index.setCore(core);
+        when(vectors.scrollShared(any(), any(), anyInt())).thenReturn(new TenantVectorService.Page(List.of(), null));
+        index.load();
+        long before = System.currentTimeMillis() - 10_000;
+        for (int i = 0; i < 2; i++) assertTrue(index.add(entry("e" + i), axis(i), true));
+        for (int i = 0; i < 2; i++) {
+            assertTrue(index.add(new SemanticCacheIndex.Entry("b" + i, "beta", "q", "a", before), axis(i), true));
+        }
+
+        when(core.findAll(Map.class, "cache_generations"))
+                .thenReturn(List.of(Map.of("_id", "acme", "generation", 1L, "clearedAt", System.currentTimeMillis())));
+        index.refresh();
+        assertEquals(0, index.size("acme"));
+        assertEquals(2, index.size("beta"));
+
+        when(vectors.scrollSharedIds(any(), any(), anyInt())).thenReturn(new TenantVectorService.Page(
+                List.of(new TenantVectorService.Point("b0", new float[0], Map.of())), null));
+        index.reconcile();
+        assertEquals(1, index.size("beta")); // b1's point was deleted elsewhere
+        assertTrue(index.nearest("beta", axis(1), 0.9).isEmpty());
+        assertEquals(1.0, metrics.counter("cache.semantic.index.dropped", "cause", "deleted").count());
+    }
+
+    private static SemanticCacheIndex.Entry entry(String id) {
+        return new SemanticCacheIndex.Entry(id, "acme", "question " + id, "answer " + id, System.currentTimeMillis());
+    }
+
+    private static float[] axis(int i) {
+        float[] v = new float[5];
+        v[i] = 1;
+        return v;
+    }
+}
@@ -0,0 +1,40 @@
+package com.owl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TinyLfuCacheTest {
+
+    @Test
+    void frequentlyReadEntries_surviveAScanOfOneOffKeys() {
+        List<TinyLfuCache.Removal> removals = new ArrayList<>();
+        var cache = new TinyLfuCache<String, String>(10_000, 100, v -> 100, (k, v, cause) -> removals.add(cause));
+        long far = System.nanoTime() + 1_000_000_000_000L;
+        for (int i = 0; i < 50; i++) cache.put("hot" + i, "v", far);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) cache.get("hot" + i, System.nanoTime());
+        }
+
+        for (int i = 0; i < 500; i++) cache.put("scan" + i, "v", far);
+
+        long hotLeft = java.util.stream.IntStream.range(0, 50).filter(i -> cache.get("hot" + i, System.nanoTime()) != null).count();
+        assertTrue(hotLeft >= 45, "hot entries kept: " + hotLeft);
+        assertTrue(cache.weight() <= 10_000);
+        assertTrue(removals.contains(TinyLfuCache.Removal.REJECTED));
+    }
+
+    @Test
+    void expiredEntries_areMisses() {
+        var cache = new TinyLfuCache<String, String>(10_000, 100, v -> 100, (k, v, cause) -> {});
+        long now = System.nanoTime();
+        cache.put("a", "v", now + 1_000);
+
+        assertEquals("v", cache.get("a", now));
+        assertNull(cache.get("a", now + 2_000));
+        assertEquals(0, cache.weight());
+    }
+}
@@ -0,0 +1,105 @@
+package com.owl.service;
+
+import com.owl.model.PendingWrite;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WriteBehindServiceTest {
+
+    private final ChatHistoryService history = mock(ChatHistoryService.class);
+    private final CacheService cache = mock(CacheService.class);
+    private final PromptCacheService promptCache = mock(PromptCacheService.class);
+    private final EventPublisher events = mock(EventPublisher.class);
+    private final MongoTemplate core = mock(MongoTemplate.class);
+    private final TenantKeyService keys = mock(TenantKeyService.class);
+    private final CryptoService crypto = new CryptoService();
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+
+    private WriteBehindService service() {
+        when(history.newChatId()).thenReturn("id-1", "id-2");
+        // worker not started: writes run inline, which exercises the same batching path
+        return new WriteBehindService(history, cache, promptCache, events, core, keys, crypto, metrics, true, 10, 100, 3);
+    }
+
+    @Test
+    void historyWrite_returnsPreGeneratedId_andBatchesPerTenant() {
+        WriteBehindService wb = service();
+        String id = wb.history("acme", "q", "a", false, List.of("doc.pdf"));
+
+        assertEquals("id-1", id);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<com.owl.model.ChatRecord>> recs = ArgumentCaptor.forClass(List.class);
+        verify(history).saveAll(eq("acme"), recs.capture());
+        assertEquals("id-1", recs.getValue().get(0).getId());
+        assertEquals(1.0, metrics.counter("chat.writebehind.written", "kind", "HISTORY").count());
+    }
+
+    @Test
+    void semanticCacheWrites_areBatchedPerRegion() {
+        WriteBehindService wb = service();
+        List<String> regions = new java.util.ArrayList<>();
+        doAnswer(inv -> regions.add(TenantRegionContext.getOverrideRegion())).when(cache).saveAll(anyList());
+
+        wb.process(List.of(new PendingWrite(PendingWrite.Kind.SEMANTIC_CACHE, "acme", "eu", "q1", "a"),
+                new PendingWrite(PendingWrite.Kind.SEMANTIC_CACHE, "globex", "us", "q2", "a"),
+                new PendingWrite(PendingWrite.Kind.SEMANTIC_CACHE, "initech", "eu", "q3", "a")));
+
+        assertEquals(List.of("eu", "us"), regions);
+        assertEquals(3.0, metrics.counter("chat.writebehind.written", "kind", "SEMANTIC_CACHE").count());
+    }
+
+    @Test
+    void failedWrite_isPersistedForRetry() {
+        WriteBehindService wb = service();
+        doThrow(new RuntimeException("qdrant down")).when(cache).saveAll(anyList());
+
+        wb.semanticCache("acme", "q", "a");
+
+        ArgumentCaptor<PendingWrite> saved = ArgumentCaptor.forClass(PendingWrite.class);
+        verify(core).save(saved.capture());
+        assertEquals(PendingWrite.Kind.SEMANTIC_CACHE, saved.getValue().getKind());
+        assertEquals(1, saved.getValue().getAttempts());
+        assertFalse(saved.getValue().isDead());
+        assertTrue(saved.getValue().getNextAttemptAt() > System.currentTimeMillis());
+    }
+
+    @Test
+    void persistedRetry_holdsTheAnswerEncrypted_andIsDecryptedWhenRequeued() {
+        WriteBehindService wb = service();
+        when(keys.isEnabled()).thenReturn(true);
+        when(keys.getOrCreateKey("acme")).thenReturn(java.util.Base64.getEncoder().encodeToString(new byte[32]));
+        doThrow(new RuntimeException("mongo down")).when(history).saveAll(eq("acme"), anyList());
+
+        wb.history("acme", "q", "secret answer", false, List.of());
+
+        ArgumentCaptor<PendingWrite> saved = ArgumentCaptor.forClass(PendingWrite.class);
+        verify(core).save(saved.capture());
+        PendingWrite w = saved.getValue();
+        assertTrue(w.isEncrypted());
+        assertNotEquals("secret answer", w.getAnswer());
+        assertEquals("secret answer", crypto.decrypt(w.getAnswer(), w.getIv(), keys.getOrCreateKey("acme")));
+    }
+
+    @Test
+    void failingChatEvent_isRetried_withoutSkippingTheRestOfTheBatch() {
+        WriteBehindService wb = service();
+        doThrow(new RuntimeException("kafka down")).when(events).chat(anyString(), anyString(), anyBoolean());
+
+        wb.process(List.of(new PendingWrite(PendingWrite.Kind.CHAT_EVENT, "acme", null, "q", null),
+                new PendingWrite(PendingWrite.Kind.SEMANTIC_CACHE, "acme", null, "q", "a")));
+
+        verify(cache).saveAll(anyList());
+        ArgumentCaptor<PendingWrite> saved = ArgumentCaptor.forClass(PendingWrite.class);
+        verify(core).save(saved.capture());
+        assertEquals(PendingWrite.Kind.CHAT_EVENT, saved.getValue().getKind());
+        assertEquals(1.0, metrics.counter("chat.writebehind.failed", "kind", "CHAT_EVENT").count());
+    }
+}